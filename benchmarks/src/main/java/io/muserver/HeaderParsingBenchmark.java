@@ -0,0 +1,34 @@
+package io.muserver;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class HeaderParsingBenchmark {
+
+    private static final String FORWARDED = "for=192.0.2.43;proto=https;host=example.org, for=\"[2001:db8:cafe::17]:4711\";by=203.0.113.60";
+    private static final String CACHE_CONTROL = "public, max-age=31536000, s-maxage=600, stale-while-revalidate=\"30\"";
+    private static final String ACCEPT = "text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8";
+
+    @Benchmark
+    public List<ForwardedHeader> forwarded() {
+        return ForwardedHeader.fromString(FORWARDED);
+    }
+
+    @Benchmark
+    public ParameterizedHeader parameterized() {
+        return ParameterizedHeader.fromString(CACHE_CONTROL);
+    }
+
+    @Benchmark
+    public List<ParameterizedHeaderWithValue> parameterizedWithValue() {
+        return ParameterizedHeaderWithValue.fromString(ACCEPT);
+    }
+}
@@ -0,0 +1,96 @@
+package io.muserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds raw HTTP/1.1 requests into the same pipeline that {@link MuServerBuilder} creates for each connection,
+ * using an embedded channel so that the numbers are not dominated by socket I/O. Each invocation covers decoding
+ * the request, creating the {@link NettyRequestAdapter}, running a non-blocking handler and encoding the response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class Http1RequestParsingBenchmark {
+
+    private static final String REQUEST = "GET /api/customers/12345?include=orders&sort=desc HTTP/1.1\r\n" +
+        "Host: localhost:8080\r\n" +
+        "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:78.0) Gecko/20100101 Firefox/78.0\r\n" +
+        "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+        "Accept-Language: en-US,en;q=0.5\r\n" +
+        "Accept-Encoding: gzip, deflate\r\n" +
+        "Cookie: session=abcdef0123456789; theme=dark\r\n" +
+        "Connection: keep-alive\r\n" +
+        "\r\n";
+
+    private MuServer server;
+    private ExecutorService executor;
+    private EmbeddedChannel channel;
+    private ByteBuf request;
+
+    @Setup
+    public void setup() {
+        server = MuServerBuilder.httpServer().withHttpPort(0).withGzipEnabled(false).start();
+        executor = Executors.newSingleThreadExecutor();
+        NonBlockingHandler handler = (req, resp) -> {
+            resp.status(204);
+            return true;
+        };
+        MuServerImpl impl = (MuServerImpl) server;
+        NettyHandlerAdapter adapter = new NettyHandlerAdapter(executor, Collections.singletonList(handler), impl.settings(), Collections.emptyList());
+        channel = new LoopbackChannel();
+        MuServerBuilder.setupHttp1Pipeline(channel.pipeline(), adapter, impl, "http");
+        request = Unpooled.unreleasableBuffer(Unpooled.directBuffer().writeBytes(REQUEST.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Benchmark
+    public int parseAndRespond() {
+        channel.writeInbound(request.duplicate());
+        channel.runPendingTasks();
+        int count = 0;
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            count++;
+            ReferenceCountUtil.release(msg);
+        }
+        return count;
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        executor.shutdownNow();
+        server.stop();
+    }
+
+    /**
+     * The connection handler expects socket addresses, which the embedded channel does not have.
+     */
+    private static class LoopbackChannel extends EmbeddedChannel {
+        private static final InetSocketAddress ADDRESS = new InetSocketAddress(InetAddress.getLoopbackAddress(), 8080);
+
+        @Override
+        public InetSocketAddress localAddress() {
+            return ADDRESS;
+        }
+
+        @Override
+        public InetSocketAddress remoteAddress() {
+            return ADDRESS;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package io.muserver;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class HttpDateBenchmark {
+
+    private final Date date = new Date(1593000000000L);
+
+    @Benchmark
+    public String toHttpDate() {
+        return Mutils.toHttpDate(date);
+    }
+
+    @Benchmark
+    public String toHttpDateForNow() {
+        return Mutils.toHttpDate(new Date());
+    }
+}
@@ -0,0 +1,108 @@
+package io.muserver;
+
+import io.muserver.rest.RestHandlerBuilder;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.openjdk.jmh.annotations.*;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full request/response round trips over a loopback HTTPS connection. The client keeps its connections
+ * open, so this measures request handling rather than connection setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class LoopbackBenchmark {
+
+    @Param({"HTTP_1_1", "HTTP_2"})
+    public String protocol;
+
+    @Param({"routes", "rest"})
+    public String handler;
+
+    private MuServer server;
+    private OkHttpClient client;
+    private Request request;
+
+    @Setup
+    public void setup() throws Exception {
+        MuServerBuilder builder = MuServerBuilder.httpsServer()
+            .withHttpsPort(0)
+            .withHttp2Config(Http2ConfigBuilder.http2Config().enabled("HTTP_2".equals(protocol)));
+        if ("rest".equals(handler)) {
+            builder.addHandler(RestHandlerBuilder.restHandler(new Hello()));
+        } else {
+            builder.addHandler(Method.GET, "/api/hello/{name}", (req, resp, pathParams) -> resp.write("Hello " + pathParams.get("name")));
+        }
+        server = builder.start();
+
+        X509TrustManager trustManager = new TrustEverything();
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, new TrustManager[]{trustManager}, null);
+        client = new OkHttpClient.Builder()
+            .protocols("HTTP_2".equals(protocol) ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1) : Collections.singletonList(Protocol.HTTP_1_1))
+            .sslSocketFactory(sslContext.getSocketFactory(), trustManager)
+            .hostnameVerifier((hostname, session) -> true)
+            .build();
+        request = new Request.Builder().url(server.uri().resolve("/api/hello/world").toString()).build();
+        try (Response resp = client.newCall(request).execute()) {
+            String expected = "HTTP_2".equals(protocol) ? "h2" : "http/1.1";
+            if (!resp.protocol().toString().equals(expected)) {
+                throw new IllegalStateException("Expected " + expected + " but the connection used " + resp.protocol()
+                    + ". HTTP/2 needs a JVM that supports ALPN.");
+            }
+        }
+    }
+
+    @Benchmark
+    public String roundTrip() throws IOException {
+        try (Response resp = client.newCall(request).execute()) {
+            return resp.body().string();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+        server.stop();
+    }
+
+    @Path("/api/hello")
+    public static class Hello {
+        @GET
+        @Path("{name}")
+        public String hello(@PathParam("name") String name) {
+            return "Hello " + name;
+        }
+    }
+
+    private static class TrustEverything implements X509TrustManager {
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package io.muserver.rest;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import java.lang.annotation.Annotation;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selects the built-in readers and writers used for common request and response entities.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EntityProvidersBenchmark {
+
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+    private EntityProviders entityProviders;
+
+    @Setup
+    public void setup() {
+        entityProviders = new EntityProviders(EntityProviders.builtInReaders(), EntityProviders.builtInWriters());
+    }
+
+    @Benchmark
+    public MessageBodyWriter<?> stringWriter() {
+        return entityProviders.selectWriter(String.class, String.class, NO_ANNOTATIONS, MediaType.TEXT_PLAIN_TYPE);
+    }
+
+    @Benchmark
+    public MessageBodyWriter<?> boxedIntegerWriter() {
+        return entityProviders.selectWriter(Integer.class, Integer.class, NO_ANNOTATIONS, MediaType.TEXT_PLAIN_TYPE);
+    }
+
+    @Benchmark
+    public MessageBodyWriter<?> byteArrayWriter() {
+        return entityProviders.selectWriter(byte[].class, byte[].class, NO_ANNOTATIONS, MediaType.APPLICATION_OCTET_STREAM_TYPE);
+    }
+
+    @Benchmark
+    public MessageBodyReader<?> stringReader() {
+        return entityProviders.selectReader(String.class, String.class, NO_ANNOTATIONS, MediaType.TEXT_PLAIN_TYPE);
+    }
+}
@@ -0,0 +1,110 @@
+package io.muserver.rest;
+
+import io.muserver.Method;
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.ParamConverterProvider;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the resource method for a request when a REST handler has many root resources.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RequestMatcherBenchmark {
+
+    @Param({"/api/r0", "/api/r19/123", "/api/r10/123/children", "/api/catchall/a/b/c"})
+    public String path;
+
+    private final List<MediaType> acceptHeaders = Collections.singletonList(MediaType.WILDCARD_TYPE);
+    private RequestMatcher matcher;
+
+    @Setup
+    public void setup() {
+        List<ParamConverterProvider> paramConverterProviders = Collections.singletonList(new BuiltInParamConverterProvider());
+        Object[] resources = {new R0(), new R1(), new R2(), new R3(), new R4(), new R5(), new R6(), new R7(), new R8(), new R9(),
+            new R10(), new R11(), new R12(), new R13(), new R14(), new R15(), new R16(), new R17(), new R18(), new R19(), new CatchAll()};
+        List<ResourceClass> roots = new ArrayList<>();
+        for (Object resource : resources) {
+            roots.add(ResourceClass.fromObject(resource, paramConverterProviders));
+        }
+        matcher = new RequestMatcher(roots);
+    }
+
+    @Benchmark
+    public RequestMatcher.MatchedMethod findResourceMethod() throws Exception {
+        return matcher.findResourceMethod(Method.GET, path, acceptHeaders, null);
+    }
+
+    public static class Resource {
+        @GET
+        @Produces("application/json")
+        public String list() {
+            return "[]";
+        }
+
+        @POST
+        @Consumes("application/json")
+        public String create(String body) {
+            return body;
+        }
+
+        @GET
+        @Path("{id}")
+        @Produces("application/json")
+        public String get(@PathParam("id") int id) {
+            return "{}";
+        }
+
+        @DELETE
+        @Path("{id}")
+        public void delete(@PathParam("id") int id) {
+        }
+
+        @GET
+        @Path("{id}/children")
+        @Produces("application/json")
+        public String children(@PathParam("id") int id) {
+            return "[]";
+        }
+    }
+
+    @Path("/api/r0") public static class R0 extends Resource {}
+    @Path("/api/r1") public static class R1 extends Resource {}
+    @Path("/api/r2") public static class R2 extends Resource {}
+    @Path("/api/r3") public static class R3 extends Resource {}
+    @Path("/api/r4") public static class R4 extends Resource {}
+    @Path("/api/r5") public static class R5 extends Resource {}
+    @Path("/api/r6") public static class R6 extends Resource {}
+    @Path("/api/r7") public static class R7 extends Resource {}
+    @Path("/api/r8") public static class R8 extends Resource {}
+    @Path("/api/r9") public static class R9 extends Resource {}
+    @Path("/api/r10") public static class R10 extends Resource {}
+    @Path("/api/r11") public static class R11 extends Resource {}
+    @Path("/api/r12") public static class R12 extends Resource {}
+    @Path("/api/r13") public static class R13 extends Resource {}
+    @Path("/api/r14") public static class R14 extends Resource {}
+    @Path("/api/r15") public static class R15 extends Resource {}
+    @Path("/api/r16") public static class R16 extends Resource {}
+    @Path("/api/r17") public static class R17 extends Resource {}
+    @Path("/api/r18") public static class R18 extends Resource {}
+    @Path("/api/r19") public static class R19 extends Resource {}
+
+    @Path("/api/catchall")
+    public static class CatchAll {
+        @GET
+        @Path("{rest : .+}")
+        public String get(@PathParam("rest") String rest) {
+            return rest;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package io.muserver.rest;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares calling a REST method through {@link ResourceMethod#invoke(Object...)} with calling it through
+ * reflection, which is how resource methods used to be invoked.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ResourceMethodInvocationBenchmark {
+
+    private ResourceMethod resourceMethod;
+    private java.lang.reflect.Method reflectiveMethod;
+    private Object instance;
+    private Object[] params;
+
+    @Setup
+    public void setup() {
+        ResourceClass resourceClass = ResourceClass.fromObject(new Orders(), Collections.singletonList(new BuiltInParamConverterProvider()));
+        resourceMethod = resourceClass.resourceMethods.get(0);
+        reflectiveMethod = resourceMethod.methodHandle;
+        instance = resourceClass.resourceInstance;
+        params = resourceMethod.newParamArray();
+        params[0] = 42;
+        params[1] = "desc";
+    }
+
+    @Benchmark
+    public Object methodHandle() throws Exception {
+        return resourceMethod.invoke(params);
+    }
+
+    @Benchmark
+    public Object reflection() throws Exception {
+        try {
+            return reflectiveMethod.invoke(instance, params);
+        } catch (InvocationTargetException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    @Path("/orders")
+    public static class Orders {
+        @GET
+        @Path("{id}")
+        public String get(@PathParam("id") int id, @QueryParam("sort") String sort) {
+            return sort;
+        }
+    }
+}
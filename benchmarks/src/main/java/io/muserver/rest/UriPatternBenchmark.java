@@ -0,0 +1,37 @@
+package io.muserver.rest;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class UriPatternBenchmark {
+
+    private final UriPattern literal = UriPattern.uriTemplateToRegex("/api/customers/orders");
+    private final UriPattern templated = UriPattern.uriTemplateToRegex("/api/customers/{customerId}/orders/{orderId : [0-9]+}");
+
+    @Benchmark
+    public PathMatch literal() {
+        return literal.matcher("/api/customers/orders");
+    }
+
+    @Benchmark
+    public PathMatch templated() {
+        return templated.matcher("/api/customers/abc%20def/orders/12345");
+    }
+
+    @Benchmark
+    public PathMatch templatedMismatch() {
+        return templated.matcher("/api/customers/abc%20def/orders/latest");
+    }
+
+    @Benchmark
+    public UriPattern compileTemplate() {
+        return UriPattern.uriTemplateToRegex("/api/customers/{customerId}/orders/{orderId : [0-9]+}");
+    }
+}
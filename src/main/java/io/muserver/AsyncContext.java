@@ -39,6 +39,10 @@ public class AsyncContext implements ResponseInfo {
         } else {
             Future<Void> complete = ((NettyResponseAdaptor) response)
                 .complete(forceDisconnect);
+            GrowableByteBufferInputStream body = this.requestBody;
+            if (body != null) {
+                body.discard();
+            }
             completedCallback.onComplete(this);
             return complete;
         }
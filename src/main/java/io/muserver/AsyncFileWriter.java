@@ -0,0 +1,180 @@
+package io.muserver;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * <p>Writes part of a file to an async response by reading chunks into two pooled direct buffers, so that the next
+ * chunk is read from the disk while the previous one is being written to the client. This is used when the file
+ * cannot be handed to the channel directly.</p>
+ * <p>Only one read and one write are in progress at any time, so at most two buffers of memory are used.</p>
+ */
+class AsyncFileWriter implements CompletionHandler<Integer, ByteBuffer> {
+    private static final Logger log = LoggerFactory.getLogger(AsyncFileWriter.class);
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int BUFFER_COUNT = 2;
+
+    private final AsyncHandle handle;
+    private final Path file;
+    private final DoneCallback callback;
+    private final IntUnaryOperator readSize;
+    private final ByteBuf[] buffers = new ByteBuf[BUFFER_COUNT];
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>(BUFFER_COUNT);
+    private final ArrayDeque<ByteBuffer> ready = new ArrayDeque<>(BUFFER_COUNT);
+    private AsynchronousFileChannel channel;
+    private long position;
+    private long remaining;
+    private boolean reading;
+    private boolean writing;
+    private boolean finished;
+    private Throwable error;
+
+    private AsyncFileWriter(AsyncHandle handle, Path file, long position, long count, IntUnaryOperator readSize, DoneCallback callback) {
+        this.handle = handle;
+        this.file = file;
+        this.position = position;
+        this.remaining = count;
+        this.readSize = readSize;
+        this.callback = callback;
+    }
+
+    /**
+     * Starts writing the file
+     * @param bufferSize The size of each buffer
+     * @param readSize Given the buffer size, returns the number of bytes to read next, which can be less (for example
+     *                 to match an HTTP/2 flow control window)
+     */
+    static void start(AsyncHandle handle, Path file, long position, long count, int bufferSize, IntUnaryOperator readSize, DoneCallback callback) {
+        AsyncFileWriter writer = new AsyncFileWriter(handle, file, position, count, readSize, callback);
+        if (count <= 0) {
+            writer.finish(null);
+            return;
+        }
+        try {
+            writer.channel = AsynchronousFileChannel.open(file, StandardOpenOption.READ);
+        } catch (IOException e) {
+            writer.finish(e);
+            return;
+        }
+        int size = (int) Math.min(bufferSize, count);
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            writer.buffers[i] = ByteBufAllocator.DEFAULT.directBuffer(size, size);
+            writer.free.add(writer.buffers[i].nioBuffer(0, size));
+            if (count <= size) {
+                break; // one read is enough
+            }
+        }
+        writer.next();
+    }
+
+    /**
+     * Starts the next read and the next write if they are possible, or finishes if there is nothing left to do
+     */
+    private void next() {
+        ByteBuffer toRead = null;
+        long readPosition = 0;
+        ByteBuffer toWrite = null;
+        boolean finish = false;
+        synchronized (this) {
+            if (error == null) {
+                if (!reading && remaining > 0 && !free.isEmpty()) {
+                    toRead = free.poll();
+                    toRead.clear();
+                    int size = Math.max(1, Math.min(readSize.applyAsInt(toRead.capacity()), toRead.capacity()));
+                    toRead.limit((int) Math.min(size, remaining));
+                    readPosition = position;
+                    reading = true;
+                }
+                if (!writing && !ready.isEmpty()) {
+                    toWrite = ready.poll();
+                    writing = true;
+                }
+            }
+            if (!reading && !writing && !finished && (error != null || (remaining == 0 && ready.isEmpty()))) {
+                finished = true;
+                finish = true;
+            }
+        }
+        if (toRead != null) {
+            channel.read(toRead, readPosition, toRead, this);
+        }
+        if (toWrite != null) {
+            ByteBuffer written = toWrite;
+            handle.write(toWrite, writeError -> {
+                synchronized (this) {
+                    writing = false;
+                    free.add(written);
+                    if (writeError != null && error == null) {
+                        error = writeError;
+                    }
+                }
+                next();
+            });
+        }
+        if (finish) {
+            finish(error);
+        }
+    }
+
+    @Override
+    public void completed(Integer bytesRead, ByteBuffer buffer) {
+        synchronized (this) {
+            reading = false;
+            if (bytesRead == -1) {
+                // the file is shorter than expected, which the response will detect as a content length mismatch
+                remaining = 0;
+                free.add(buffer);
+            } else {
+                buffer.flip();
+                position += bytesRead;
+                remaining -= bytesRead;
+                ready.add(buffer);
+            }
+        }
+        next();
+    }
+
+    @Override
+    public void failed(Throwable exc, ByteBuffer buffer) {
+        log.info("File read failure for " + file, exc);
+        synchronized (this) {
+            reading = false;
+            if (error == null) {
+                error = exc;
+            }
+        }
+        next();
+    }
+
+    private void finish(Throwable error) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("Error while closing file channel " + file, e);
+            }
+        }
+        for (ByteBuf buffer : buffers) {
+            if (buffer != null) {
+                buffer.release();
+            }
+        }
+        try {
+            callback.onComplete(error);
+        } catch (Exception e) {
+            log.warn("Unhandled exception from file write callback", e);
+            handle.complete(e);
+        }
+    }
+}
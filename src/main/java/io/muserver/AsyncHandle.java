@@ -1,6 +1,7 @@
 package io.muserver;
 
 import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.concurrent.Future;
 
 /**
@@ -60,6 +61,61 @@ public interface AsyncHandle {
      */
     Future<Void> write(ByteBuffer data);
 
+    /**
+     * <p>Writes part of a file to the response asynchronously.</p>
+     * <p>Where possible, the file is not copied into the JVM: for plain-text HTTP/1.1 connections, the
+     * operating system sends the file directly to the socket (e.g. with <code>sendfile</code>), and for HTTPS
+     * the file is read in large chunks into pooled direct buffers. This is only possible when the response has a
+     * declared <code>Content-Length</code>; in all other cases (including HTTP/2) the file is read in chunks that
+     * are written one after the other.</p>
+     * <p>The file is read in chunks of up to 64KB. See {@link #writeFile(Path, long, long, int, DoneCallback)} to use
+     * a different size.</p>
+     * @param file The file to write
+     * @param position The position in the file to start from
+     * @param count The number of bytes to write
+     * @param callback The callback when the write succeeds or fails
+     */
+    default void writeFile(Path file, long position, long count, DoneCallback callback) {
+        writeFile(file, position, count, AsyncFileWriter.DEFAULT_BUFFER_SIZE, callback);
+    }
+
+    /**
+     * <p>Writes part of a file to the response asynchronously, as described in {@link #writeFile(Path, long, long, DoneCallback)}.</p>
+     * <p>When the file needs to be read by the JVM, it is read into two pooled direct buffers of the given size so that
+     * the next chunk is read while the previous one is being sent. For HTTP/2 the size of each read is also limited
+     * to the stream's flow control window, so that data is not read long before the client is ready for it.</p>
+     * @param file The file to write
+     * @param position The position in the file to start from
+     * @param count The number of bytes to write
+     * @param bufferSize The maximum number of bytes to read from the file at a time
+     * @param callback The callback when the write succeeds or fails
+     */
+    default void writeFile(Path file, long position, long count, int bufferSize, DoneCallback callback) {
+        AsyncFileWriter.start(this, file, position, count, bufferSize, size -> size, callback);
+    }
+
+    /**
+     * <p>Checks whether data can be written without it waiting in memory to be sent.</p>
+     * <p>A response stops being writable once more than the high watermark of written data has not yet been sent to
+     * the client, and becomes writable again once that has dropped to the low watermark. Writes can still be made
+     * when not writable, but large responses should be written at the rate the client can take them by waiting for
+     * a {@link WritabilityListener} to be told the response is writable again.</p>
+     * <p>The default implementation always returns true.</p>
+     * @return True if the amount of unsent data is below the high watermark
+     * @see MuServerBuilder#withResponseWatermarks(int, int)
+     */
+    default boolean isWritable() {
+        return true;
+    }
+
+    /**
+     * <p>Sets a listener to be notified when the response stops or starts being writable, as described in {@link #isWritable()}.</p>
+     * <p>The default implementation does nothing, as its response is always writable.</p>
+     * @param writabilityListener The listener, or null to stop listening
+     */
+    default void setWritabilityListener(WritabilityListener writabilityListener) {
+    }
+
     /**
      * Add a listener for when request processing is complete. One use of this is to detect early client disconnects
      * so that expensive operations can be cancelled.
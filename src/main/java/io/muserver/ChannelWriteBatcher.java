@@ -0,0 +1,61 @@
+package io.muserver;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>Runs the writes for a connection on its event loop, flushing once per batch rather than once per write.</p>
+ * <p>Writes made from other threads (such as those from many HTTP/2 streams on one connection) are queued and run by
+ * a single event loop task which flushes after all of them, so many small writes cost one task and one flush rather
+ * than one of each per write. Writes made on the event loop run straight away and are flushed immediately, which is
+ * consolidated by the <code>FlushConsolidationHandler</code> in the pipeline while a read is in progress.</p>
+ * <p>All writes for a connection must go through the same batcher so that they are written in the order they were
+ * made.</p>
+ */
+class ChannelWriteBatcher {
+    private static final Logger log = LoggerFactory.getLogger(ChannelWriteBatcher.class);
+
+    private final ChannelHandlerContext ctx;
+    private final Queue<Runnable> queue = PlatformDependent.newMpscQueue();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final Runnable drainTask = this::drain;
+
+    ChannelWriteBatcher(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    /**
+     * Runs a write on the event loop and makes sure it is flushed
+     * @param write A write which does not flush
+     */
+    void write(Runnable write) {
+        if (ctx.executor().inEventLoop() && queue.isEmpty()) {
+            write.run();
+            ctx.channel().flush();
+        } else {
+            queue.add(write);
+            if (scheduled.compareAndSet(false, true)) {
+                ctx.executor().execute(drainTask);
+            }
+        }
+    }
+
+    private void drain() {
+        // cleared first so that anything queued from now on schedules another drain
+        scheduled.set(false);
+        Runnable write;
+        while ((write = queue.poll()) != null) {
+            try {
+                write.run();
+            } catch (Exception e) {
+                log.warn("Unhandled exception while writing to " + ctx.channel(), e);
+            }
+        }
+        ctx.channel().flush();
+    }
+}
@@ -1,34 +1,109 @@
 package io.muserver;
 
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 
 import java.io.IOException;
 import java.io.OutputStream;
 
+/**
+ * <p>An output stream that writes bytes into pooled buffers from the channel's allocator, sending each buffer as a chunk
+ * of the response once it is full or the stream is flushed. The buffers are released by the channel once written, so
+ * no copies are made other than the one into the buffer.</p>
+ * <p>Chunks are sent without waiting for them to reach the client unless more than the response's high watermark is
+ * waiting to be sent. A failure to send an earlier chunk is thrown from a later write.</p>
+ */
 class ChunkedHttpOutputStream extends OutputStream {
+    static final int DEFAULT_BUFFER_SIZE = 4096;
+
     private final NettyResponseAdaptor response;
+    private final ByteBufAllocator alloc;
+    private final int bufferSize;
+    private ByteBuf buffer;
 
     private boolean isClosed = false;
 
-    ChunkedHttpOutputStream(NettyResponseAdaptor response) {
+    ChunkedHttpOutputStream(NettyResponseAdaptor response, ByteBufAllocator alloc, int bufferSize) {
         this.response = response;
+        this.alloc = alloc;
+        this.bufferSize = bufferSize;
     }
 
     @Override
     public void write(int b) throws IOException {
-        write(new byte[]{(byte) b}, 0, 1);
+        bufferWithSpace().writeByte(b);
     }
 
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
+        if (len >= bufferSize) {
+            // too big to be worth buffering, so send what is buffered and then this as its own chunk
+            if (isClosed) {
+                throw new IOException("Cannot write to closed output stream");
+            }
+            flush();
+            ByteBuf chunk = alloc.directBuffer(len, len);
+            chunk.writeBytes(b, off, len);
+            response.writeAndAwaitWritable(chunk);
+            return;
+        }
+        while (len > 0) {
+            ByteBuf buf = bufferWithSpace();
+            int toCopy = Math.min(len, buf.writableBytes());
+            buf.writeBytes(b, off, toCopy);
+            off += toCopy;
+            len -= toCopy;
+        }
+    }
+
+    private ByteBuf bufferWithSpace() throws IOException {
         if (isClosed) {
             throw new IOException("Cannot write to closed output stream");
         }
-        response.write(Unpooled.copiedBuffer(b, off, len), true);
+        if (buffer != null && !buffer.isWritable()) {
+            send();
+        }
+        if (buffer == null) {
+            buffer = alloc.directBuffer(bufferSize, bufferSize);
+        }
+        return buffer;
+    }
+
+    private void send() {
+        ByteBuf toSend = buffer;
+        buffer = null;
+        if (toSend.isReadable()) {
+            // the response takes ownership of the buffer, even if the write fails
+            response.writeAndAwaitWritable(toSend);
+        } else {
+            toSend.release();
+        }
     }
 
+    @Override
+    public void flush() {
+        if (buffer != null && !isClosed) {
+            send();
+        }
+    }
+
+    @Override
     public void close() {
+        if (!isClosed) {
+            flush();
+            isClosed = true;
+        }
+    }
+
+    /**
+     * Closes the stream without sending anything that has not been flushed yet
+     */
+    void discard() {
         isClosed = true;
+        if (buffer != null) {
+            buffer.release();
+            buffer = null;
+        }
     }
 
 }
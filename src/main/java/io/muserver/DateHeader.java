@@ -0,0 +1,42 @@
+package io.muserver;
+
+import io.netty.util.AsciiString;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.Date;
+
+/**
+ * The value of the <code>Date</code> response header. As it only changes once a second, it is formatted at most once a
+ * second by each thread that creates responses (which is normally an event loop) and shared by all the responses
+ * created in that second.
+ */
+final class DateHeader {
+    private static final FastThreadLocal<DateHeader> current = new FastThreadLocal<DateHeader>() {
+        @Override
+        protected DateHeader initialValue() {
+            return new DateHeader();
+        }
+    };
+
+    private long second = Long.MIN_VALUE;
+    private CharSequence value;
+
+    private DateHeader() {
+    }
+
+    /**
+     * @return The current time formatted for the <code>Date</code> header
+     */
+    static CharSequence now() {
+        return current.get().valueAt(System.currentTimeMillis());
+    }
+
+    private CharSequence valueAt(long millis) {
+        long second = millis / 1000;
+        if (second != this.second) {
+            this.value = AsciiString.cached(Mutils.toHttpDate(new Date(second * 1000)));
+            this.second = second;
+        }
+        return value;
+    }
+}
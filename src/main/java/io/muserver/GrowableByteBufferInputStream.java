@@ -1,59 +1,102 @@
 package io.muserver;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * <p>The blocking request body stream. Buffers are queued as-is (without copying) and the done callback given
+ * to {@link #handOff(ByteBuf, DoneCallback, Runnable)} is only invoked once the reader has consumed all of the buffer.</p>
+ * <p>The number of bytes queued is bounded by the watermarks in the {@link RequestBodyBudget}: once a high
+ * watermark is reached, callers are told to stop reading from the client until they are resumed.</p>
+ */
 class GrowableByteBufferInputStream extends InputStream {
+    private static final Logger log = LoggerFactory.getLogger(GrowableByteBufferInputStream.class);
 
-    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
-    private static final ByteBuffer LAST = ByteBuffer.allocate(0);
-    private final BlockingQueue<ByteBuffer> queue = new LinkedBlockingQueue<>();
-    private volatile ByteBuffer current = EMPTY;
+    private static final Chunk EMPTY = new Chunk(null, Unpooled.EMPTY_BUFFER, null);
+    private static final Chunk LAST = new Chunk(null, Unpooled.EMPTY_BUFFER, null);
+    private final BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+    private final Object lock = new Object();
+    private Chunk current = EMPTY;
     private RequestBodyListener listener;
-    private final Object listenerLock = new Object();
+    private boolean discarded = false;
+    private long buffered = 0;
+    private long releasedWhileLocked = 0;
+    private List<Runnable> pausedReaders;
+    private boolean waitingForServerBudget = false;
 
     private final long readTimeoutMillis;
     private final long maxSize;
+    private final RequestBodyBudget budget;
     private final AtomicLong bytesRead = new AtomicLong(0);
 
     GrowableByteBufferInputStream(long readTimeoutMillis, long maxSize) {
+        this(readTimeoutMillis, maxSize, RequestBodyBudget.UNLIMITED);
+    }
+
+    GrowableByteBufferInputStream(long readTimeoutMillis, long maxSize, RequestBodyBudget budget) {
         this.readTimeoutMillis = readTimeoutMillis;
         this.maxSize = maxSize;
+        this.budget = budget;
     }
 
-    private ByteBuffer cycleIfNeeded() throws IOException {
-        if (current == LAST) {
-            return current;
+    /**
+     * Blocks until the next chunk is available and makes it the current chunk
+     */
+    private void cycle() throws IOException {
+        Chunk next;
+        try {
+            next = queue.poll(readTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            // given the InputStream API, is this the way to handle interuptions?
+            throw new IOException("Thread was interrupted");
         }
-        synchronized (queue) {
-            ByteBuffer cur = current;
-            if (!cur.hasRemaining()) {
-                try {
-                    current = queue.poll(readTimeoutMillis, TimeUnit.MILLISECONDS);
-                    cur = current;
-                } catch (InterruptedException e) {
-                    // given the InputStream API, is this the way to handle interuptions?
-                    throw new IOException("Thread was interrupted");
-                }
-            }
-            return cur;
+        if (next == null) {
+            throw new IOException("Timed out waiting for request body data");
+        }
+        boolean wasDiscarded;
+        synchronized (lock) {
+            wasDiscarded = discarded;
+            current = wasDiscarded ? LAST : next;
+        }
+        if (wasDiscarded) {
+            next.onConsumed();
         }
     }
 
     public int read() throws IOException {
-        ByteBuffer cur = cycleIfNeeded();
-        if (cur == LAST) {
-            return -1;
+        while (true) {
+            Chunk finished = null;
+            int b = -1;
+            synchronized (lock) {
+                if (current == LAST) {
+                    return -1;
+                }
+                ByteBuf buf = current.buf;
+                if (buf.isReadable()) {
+                    b = buf.readByte() & 0xff;
+                    finished = takeCurrentIfFinished();
+                }
+            }
+            if (b != -1) {
+                if (finished != null) {
+                    finished.onConsumed();
+                }
+                return b;
+            }
+            cycle();
         }
-        return cur.get() & 0xff;
     }
 
     public int read(byte[] b) throws IOException {
@@ -61,75 +104,232 @@ class GrowableByteBufferInputStream extends InputStream {
     }
 
     public int read(byte[] b, int off, int len) throws IOException {
-        ByteBuffer cur = cycleIfNeeded();
-        if (cur == LAST) {
-            return -1;
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            Chunk finished = null;
+            int read = 0;
+            synchronized (lock) {
+                if (current == LAST) {
+                    return -1;
+                }
+                ByteBuf buf = current.buf;
+                if (buf.isReadable()) {
+                    read = Math.min(len, buf.readableBytes());
+                    buf.readBytes(b, off, read);
+                    finished = takeCurrentIfFinished();
+                }
+            }
+            if (read > 0) {
+                if (finished != null) {
+                    finished.onConsumed();
+                }
+                return read;
+            }
+            cycle();
         }
-        int toRead = Math.min(len, cur.remaining());
-        cur.get(b, off, toRead);
-        return toRead;
     }
 
-    public int available() throws IOException {
-        ByteBuffer cur = cycleIfNeeded();
-        return cur.remaining();
+    private Chunk takeCurrentIfFinished() {
+        // Releasing as soon as the last byte is read lets the connection start reading the next chunk straight away
+        if (current.buf.isReadable()) {
+            return null;
+        }
+        Chunk finished = current;
+        current = EMPTY;
+        return finished;
+    }
+
+    public int available() {
+        synchronized (lock) {
+            if (current.buf.isReadable()) {
+                return current.buf.readableBytes();
+            }
+            Chunk next = queue.peek();
+            return next == null ? 0 : next.buf.readableBytes();
+        }
     }
 
     public void close() throws IOException {
         // This is called from the main netty accepter thread so must be non-blocking
-        synchronized (listenerLock) {
+        synchronized (lock) {
+            if (discarded) {
+                return;
+            }
             if (listener == null) {
                 queue.add(LAST);
             } else {
-                sendToListener(listener, LAST, DoneCallback.NoOp);
+                sendToListener(listener, LAST);
             }
         }
+        onLockReleased();
     }
 
     void handOff(ByteBuf data, DoneCallback doneCallback) {
+        handOff(data, doneCallback, () -> {});
+    }
+
+    /**
+     * Adds data to the stream.
+     *
+     * @param data         The data, which must not be released until the done callback is invoked
+     * @param doneCallback Called when the data has been consumed
+     * @param onResume     If this method returns false, this is run once enough buffered data has been consumed
+     *                     that reading can continue
+     * @return <code>true</code> if the caller can read more data from the client straight away; <code>false</code>
+     * if the caller should stop reading until <code>onResume</code> is run
+     */
+    boolean handOff(ByteBuf data, DoneCallback doneCallback, Runnable onResume) {
         // This is called from the main netty accepter thread so must be non-blocking
-        synchronized (listenerLock) {
-            long read = bytesRead.addAndGet(data.readableBytes());
+        Chunk toDiscard = null;
+        boolean paused = false;
+        synchronized (lock) {
+            int size = data.readableBytes();
+            long read = bytesRead.addAndGet(size);
             if (read > maxSize) {
                 throw new MuException();
             }
-            if (listener == null) {
-                ByteBuf copy = data.copy();
-                ByteBuffer byteBuffer = ByteBuffer.allocate(data.capacity());
-                copy.readBytes(byteBuffer).release();
-                byteBuffer.flip();
-                queue.add(byteBuffer);
-                try {
-                    // TODO: only call done when data is used so it doesn't need to be copied
-                    doneCallback.onComplete(null);
-                } catch (Exception ignored) {
-                }
+            if (discarded) {
+                toDiscard = new Chunk(null, data, doneCallback);
             } else {
-                sendToListener(listener, data.nioBuffer(), doneCallback);
+                Chunk chunk = new Chunk(this, data, doneCallback);
+                buffered += size;
+                budget.onBuffered(size);
+                if (listener == null) {
+                    queue.add(chunk);
+                } else {
+                    sendToListener(listener, chunk);
+                }
+                if (pausedReaders == null && (buffered >= budget.requestHighWatermark || budget.serverAtHighWatermark())) {
+                    pausedReaders = new ArrayList<>(1);
+                }
+                if (pausedReaders != null) {
+                    pausedReaders.add(onResume);
+                    paused = true;
+                }
             }
         }
+        if (toDiscard != null) {
+            toDiscard.onConsumed();
+            return true;
+        }
+        // a listener may have already consumed everything, or the server total may have been the reason for pausing
+        onLockReleased();
+        return !paused;
     }
 
     void switchToListener(RequestBodyListener readListener) {
-        synchronized (listenerLock) {
+        synchronized (lock) {
             while (!queue.isEmpty()) {
-                ArrayList<ByteBuffer> existing = new ArrayList<>(queue.size());
+                ArrayList<Chunk> existing = new ArrayList<>(queue.size());
                 queue.drainTo(existing);
-                for (ByteBuffer byteBuffer : existing) {
-                    sendToListener(readListener, byteBuffer, DoneCallback.NoOp);
+                for (Chunk chunk : existing) {
+                    sendToListener(readListener, chunk);
                 }
             }
             this.listener = readListener;
         }
+        onLockReleased();
     }
 
-    private static void sendToListener(RequestBodyListener readListener, ByteBuffer byteBuffer, DoneCallback doneCallback) {
-        if (byteBuffer == LAST) {
+    /**
+     * Called when the request is complete so any unread data can be released and the connection can carry on reading.
+     * Any data handed off after this is released immediately.
+     */
+    void discard() {
+        ArrayList<Chunk> unread;
+        synchronized (lock) {
+            if (discarded) {
+                return;
+            }
+            discarded = true;
+            unread = new ArrayList<>(queue.size() + 1);
+            unread.add(current);
+            current = LAST;
+            queue.drainTo(unread);
+            // wakes up any thread blocked in cycle()
+            queue.add(LAST);
+        }
+        for (Chunk chunk : unread) {
+            chunk.onConsumed();
+        }
+        resumeIfDrained();
+    }
+
+    private void onChunkConsumed(int size) {
+        boolean calledWhileLocked = Thread.holdsLock(lock);
+        synchronized (lock) {
+            buffered -= size;
+            if (calledWhileLocked) {
+                // A listener consumed data synchronously while this stream was locked. Releasing the server budget
+                // may run other streams' resume actions, so that waits until the lock is released.
+                releasedWhileLocked += size;
+                return;
+            }
+        }
+        budget.onReleased(size);
+        resumeIfDrained();
+    }
+
+    private void onLockReleased() {
+        long toRelease;
+        synchronized (lock) {
+            toRelease = releasedWhileLocked;
+            releasedWhileLocked = 0;
+        }
+        if (toRelease > 0) {
+            budget.onReleased(toRelease);
+        }
+        resumeIfDrained();
+    }
+
+    private void resumeIfDrained() {
+        List<Runnable> toResume = null;
+        boolean waitForServer = false;
+        synchronized (lock) {
+            if (pausedReaders == null) {
+                return;
+            }
+            if (!discarded && buffered > budget.requestLowWatermark) {
+                return;
+            }
+            if (!discarded && budget.serverAboveLowWatermark()) {
+                if (waitingForServerBudget) {
+                    return;
+                }
+                waitingForServerBudget = true;
+                waitForServer = true;
+            } else {
+                toResume = pausedReaders;
+                pausedReaders = null;
+            }
+        }
+        if (waitForServer) {
+            budget.runWhenServerDrained(() -> {
+                synchronized (lock) {
+                    waitingForServerBudget = false;
+                }
+                resumeIfDrained();
+            });
+        } else {
+            for (Runnable runnable : toResume) {
+                try {
+                    runnable.run();
+                } catch (Exception e) {
+                    log.warn("Error while resuming request body reading", e);
+                }
+            }
+        }
+    }
+
+    private static void sendToListener(RequestBodyListener readListener, Chunk chunk) {
+        if (chunk == LAST) {
             readListener.onComplete();
         } else {
             try {
-                readListener.onDataReceived(byteBuffer, error -> {
-                    doneCallback.onComplete(error);
+                readListener.onDataReceived(chunk.buf.nioBuffer(), error -> {
+                    chunk.onComplete(error);
                     if (error != null) {
                         readListener.onError(error);
                     }
@@ -139,4 +339,39 @@ class GrowableByteBufferInputStream extends InputStream {
             }
         }
     }
+
+    private static class Chunk {
+        private final GrowableByteBufferInputStream owner;
+        private final ByteBuf buf;
+        private final int size;
+        private final DoneCallback doneCallback;
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+
+        private Chunk(GrowableByteBufferInputStream owner, ByteBuf buf, DoneCallback doneCallback) {
+            this.owner = owner;
+            this.buf = buf;
+            this.size = buf.readableBytes();
+            this.doneCallback = doneCallback;
+        }
+
+        void onConsumed() {
+            try {
+                onComplete(null);
+            } catch (Exception e) {
+                log.debug("Error from request body done callback", e);
+            }
+        }
+
+        void onComplete(Throwable error) throws Exception {
+            if (doneCallback != null && completed.compareAndSet(false, true)) {
+                try {
+                    doneCallback.onComplete(error);
+                } finally {
+                    if (owner != null) {
+                        owner.onChunkConsumed(size);
+                    }
+                }
+            }
+        }
+    }
 }
@@ -44,12 +44,15 @@ class Http1Connection extends SimpleChannelInboundHandler<Object> implements Htt
     private final Instant startTime = Instant.now();
     private ChannelHandlerContext nettyCtx;
     private InetSocketAddress remoteAddress;
+    private final ResponseCompleteListener onResponseComplete;
+    private final ResponseHeaderStorage responseHeaderStorage = new ResponseHeaderStorage();
 
     Http1Connection(NettyHandlerAdapter nettyHandlerAdapter, MuServerImpl server, String proto) {
         this.nettyHandlerAdapter = nettyHandlerAdapter;
         this.serverStats = server.stats;
         this.server = server;
         this.proto = proto;
+        this.onResponseComplete = info -> nettyHandlerAdapter.onResponseComplete(info, serverStats, connectionStats);
     }
 
     static void setAsyncContext(ChannelHandlerContext ctx, AsyncContext value) {
@@ -177,11 +180,9 @@ class Http1Connection extends SimpleChannelInboundHandler<Object> implements Htt
                 serverStats.onRequestStarted(muRequest);
                 connectionStats.onRequestStarted(muRequest);
 
-                Http1Response muResponse = new Http1Response(ctx, muRequest, new Http1Headers());
+                Http1Response muResponse = new Http1Response(ctx, muRequest, new Http1Headers(), settings, responseHeaderStorage);
 
-                AsyncContext asyncContext = new AsyncContext(muRequest, muResponse, (info) -> {
-                    nettyHandlerAdapter.onResponseComplete(info, serverStats, connectionStats);
-                });
+                AsyncContext asyncContext = new AsyncContext(muRequest, muResponse, onResponseComplete);
                 setAsyncContext(ctx, asyncContext);
                 readyToRead = false;
                 DoneCallback addedToExecutorCallback = error -> {
@@ -211,7 +212,8 @@ class Http1Connection extends SimpleChannelInboundHandler<Object> implements Htt
                 log.debug("Got a chunk of message for an unknown request. This can happen when a request is rejected based on headers, and then the rejected body arrives.");
             } else {
                 ByteBuf byteBuf = content.content();
-                NettyHandlerAdapter.passDataToHandler(byteBuf, asyncContext);
+                // If too much of the body is buffered, stop reading from the client until the handler catches up
+                readyToRead = NettyHandlerAdapter.passDataToHandler(byteBuf, asyncContext, () -> ctx.channel().read());
                 if (msg instanceof LastHttpContent) {
                     nettyHandlerAdapter.onRequestComplete(asyncContext);
                 }
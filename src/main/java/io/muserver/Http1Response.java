@@ -1,13 +1,25 @@
 package io.muserver;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.DefaultFileRegion;
 import io.netty.handler.codec.http.*;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.handler.stream.ChunkedWriteHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
@@ -16,22 +28,24 @@ class Http1Response extends NettyResponseAdaptor {
 
     private final ChannelHandlerContext ctx;
     private final Http1Headers headers;
+    private final ResponseHeaderStorage headerStorage;
 
-    Http1Response(ChannelHandlerContext ctx, NettyRequestAdapter request, Http1Headers headers) {
-        super(request, headers);
+    Http1Response(ChannelHandlerContext ctx, NettyRequestAdapter request, Http1Headers headers, ServerSettings settings, ResponseHeaderStorage headerStorage) {
+        super(request, headers, settings);
         this.ctx = ctx;
         this.headers = headers;
+        this.headerStorage = headerStorage;
     }
 
     @Override
     protected void startStreaming() {
         super.startStreaming();
-        HttpResponse response = isHead ? new EmptyHttpResponse(httpStatus()) : new DefaultHttpResponse(HTTP_1_1, httpStatus(), false);
         if (declaredLength == -1) {
             headers.set(HeaderNames.TRANSFER_ENCODING, HeaderValues.CHUNKED);
         }
-        writeHeaders(response);
-        lastAction = ctx.write(response);
+        HttpHeaders nettyHeaders = copyHeaders();
+        HttpResponse response = isHead ? new EmptyHttpResponse(httpStatus(), nettyHeaders) : new DefaultHttpResponse(HTTP_1_1, httpStatus(), nettyHeaders);
+        lastAction = headerStorage.releaseWhenWritten(nettyHeaders, ctx.write(response));
     }
 
     @Override
@@ -42,11 +56,11 @@ class Http1Response extends NettyResponseAdaptor {
             bytesStreamed + " bytes being sent.");
     }
 
-    private void writeHeaders(HttpResponse response) {
-        HttpHeaders rh = response.headers();
-        for (Map.Entry<String, String> header : this.headers) {
-            rh.add(header.getKey(), header.getValue());
-        }
+    private HttpHeaders copyHeaders() {
+        HttpHeaders nettyHeaders = headerStorage.take();
+        // copies the header entries as they are, so the AsciiString names and values are not converted to strings
+        nettyHeaders.set(headers.entries);
+        return nettyHeaders;
     }
 
 
@@ -56,6 +70,42 @@ class Http1Response extends NettyResponseAdaptor {
         return ctx.writeAndFlush(msg);
     }
 
+    @Override
+    ByteBufAllocator alloc() {
+        return ctx.alloc();
+    }
+
+    @Override
+    ChannelFuture writeFile(File file, long position, long count, int chunkSize) throws IOException {
+        if (!claimBody(count)) {
+            return null;
+        }
+        boolean isLast = bytesStreamed == declaredLength;
+        ChannelPipeline pipeline = ctx.pipeline();
+        SelectiveHttpContentCompressor compressor = pipeline.get(SelectiveHttpContentCompressor.class);
+        boolean bytesUnchanged = pipeline.get(SslHandler.class) == null && (compressor == null || !compressor.mightCompress(headers));
+        if (bytesUnchanged) {
+            // sendfile: the file goes straight from the page cache to the socket
+            DefaultFileRegion region = new DefaultFileRegion(file, position, count);
+            if (isLast) {
+                ctx.write(region);
+                lastAction = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+            } else {
+                lastAction = ctx.writeAndFlush(region);
+            }
+        } else {
+            // the bytes need encrypting or compressing, so read them into pooled buffers that are released once written
+            if (pipeline.get(ChunkedWriteHandler.class) == null) {
+                pipeline.addBefore(ctx.name(), "chunkedWriter", new ChunkedWriteHandler());
+            }
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            ChunkedNioFile chunks = new ChunkedNioFile(channel, position, count, chunkSize);
+            lastAction = ctx.writeAndFlush(isLast ? new HttpChunkedInput(chunks) : new HttpContentChunks(chunks));
+        }
+        // a partially sent body cannot be recovered from
+        return lastAction.addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+    }
+
     @Override
     protected boolean onBadRequestSent() {
         if (connectionOpen()) {
@@ -68,31 +118,35 @@ class Http1Response extends NettyResponseAdaptor {
 
     @Override
     protected void writeFullResponse(ByteBuf body) {
-        FullHttpResponse resp = isHead ?
-            new EmptyHttpResponse(httpStatus())
-            : new DefaultFullHttpResponse(HTTP_1_1, httpStatus(), body, false);
-        writeHeaders(resp);
-        lastAction = ctx.writeAndFlush(resp).syncUninterruptibly();
+        HttpHeaders nettyHeaders = copyHeaders();
+        FullHttpResponse resp;
+        if (isHead) {
+            body.release();
+            resp = new EmptyHttpResponse(httpStatus(), nettyHeaders);
+        } else {
+            resp = new DefaultFullHttpResponse(HTTP_1_1, httpStatus(), body, nettyHeaders, EmptyHttpHeaders.INSTANCE);
+        }
+        lastAction = syncUninterruptibly(headerStorage.releaseWhenWritten(nettyHeaders, ctx.writeAndFlush(resp)));
     }
 
 
     @Override
     protected void writeRedirectResponse() {
-        HttpResponse resp = new EmptyHttpResponse(httpStatus());
-        writeHeaders(resp);
-        lastAction = ctx.writeAndFlush(resp);
+        HttpHeaders nettyHeaders = copyHeaders();
+        HttpResponse resp = new EmptyHttpResponse(httpStatus(), nettyHeaders);
+        lastAction = headerStorage.releaseWhenWritten(nettyHeaders, ctx.writeAndFlush(resp));
     }
 
     @Override
     protected void sendEmptyResponse(boolean addContentLengthHeader) {
+        HttpHeaders nettyHeaders = copyHeaders();
         HttpResponse msg = isHead ?
-            new EmptyHttpResponse(httpStatus()) :
-            new DefaultFullHttpResponse(HTTP_1_1, httpStatus(), false);
-        writeHeaders(msg);
+            new EmptyHttpResponse(httpStatus(), nettyHeaders) :
+            new DefaultFullHttpResponse(HTTP_1_1, httpStatus(), Unpooled.buffer(0), nettyHeaders, EmptyHttpHeaders.INSTANCE);
         if (addContentLengthHeader) {
             msg.headers().set(HeaderNames.CONTENT_LENGTH, 0);
         }
-        lastAction = ctx.writeAndFlush(msg);
+        lastAction = headerStorage.releaseWhenWritten(nettyHeaders, ctx.writeAndFlush(msg));
     }
 
     @Override
@@ -118,4 +172,49 @@ class Http1Response extends NettyResponseAdaptor {
             ", status=" + status +
             "}";
     }
+
+    /**
+     * Wraps each chunk of a part of the body that is not the end of it as {@link HttpContent}, so that it passes through
+     * the HTTP codecs (such as the compressor) like other writes. Unlike {@link HttpChunkedInput}, no
+     * {@link LastHttpContent} is sent at the end.
+     */
+    private static class HttpContentChunks implements ChunkedInput<HttpContent> {
+        private final ChunkedInput<ByteBuf> input;
+
+        private HttpContentChunks(ChunkedInput<ByteBuf> input) {
+            this.input = input;
+        }
+
+        @Override
+        public boolean isEndOfInput() throws Exception {
+            return input.isEndOfInput();
+        }
+
+        @Override
+        public void close() throws Exception {
+            input.close();
+        }
+
+        @Deprecated
+        @Override
+        public HttpContent readChunk(ChannelHandlerContext ctx) throws Exception {
+            return readChunk(ctx.alloc());
+        }
+
+        @Override
+        public HttpContent readChunk(ByteBufAllocator allocator) throws Exception {
+            ByteBuf buf = input.readChunk(allocator);
+            return buf == null ? null : new DefaultHttpContent(buf);
+        }
+
+        @Override
+        public long length() {
+            return input.length();
+        }
+
+        @Override
+        public long progress() {
+            return input.progress();
+        }
+    }
 }
@@ -32,6 +32,7 @@ final class Http2Connection extends Http2ConnectionHandler implements Http2Frame
     private InetSocketAddress remoteAddress;
     private final Instant startTime = Instant.now();
     private ChannelHandlerContext nettyContext;
+    private ChannelWriteBatcher writes;
 
     Http2Connection(Http2ConnectionDecoder decoder, Http2ConnectionEncoder encoder,
                     Http2Settings initialSettings, MuServerImpl server, NettyHandlerAdapter nettyHandlerAdapter) {
@@ -46,6 +47,7 @@ final class Http2Connection extends Http2ConnectionHandler implements Http2Frame
         server.stats.onConnectionOpened();
         remoteAddress = (InetSocketAddress) ctx.channel().remoteAddress();
         this.nettyContext = ctx;
+        this.writes = new ChannelWriteBatcher(ctx);
         super.handlerAdded(ctx);
         server.onConnectionStarted(this);
     }
@@ -80,19 +82,25 @@ final class Http2Connection extends Http2ConnectionHandler implements Http2Frame
         headers.status(String.valueOf(code));
         headers.set(HeaderNames.CONTENT_TYPE, ContentTypes.TEXT_PLAIN_UTF8);
         headers.set(HeaderNames.CONTENT_LENGTH, String.valueOf(bytes.length));
-        encoder().writeHeaders(ctx, streamId, headers, 0, false, ctx.newPromise());
-        return Http2Response.writeToChannel(ctx, encoder(), streamId, content, true);
+        writes.write(() -> encoder().writeHeaders(ctx, streamId, headers, 0, false, ctx.newPromise()));
+        return Http2Response.writeToChannel(writes, ctx, encoder(), streamId, content, true);
     }
 
     @Override
     public int onDataRead(ChannelHandlerContext ctx, int streamId, ByteBuf data, int padding, boolean endOfStream) {
-        int processed = data.readableBytes() + padding;
+        int dataLength = data.readableBytes();
+        int processed = dataLength + padding;
 
         AsyncContext asyncContext = contexts.get(streamId);
         if (asyncContext == null) {
             log.debug("Got a chunk of message for an unknown request. This can happen when a request is rejected based on headers, and then the rejected body arrives.");
         } else {
-            NettyHandlerAdapter.passDataToHandler(data, asyncContext);
+            // If too much of the body is buffered, the flow control window for this data is only returned to the
+            // client once the handler has caught up, which stops the client sending more on this stream
+            boolean keepReading = NettyHandlerAdapter.passDataToHandler(data, asyncContext, () -> consumeBytes(ctx, streamId, dataLength));
+            if (!keepReading) {
+                processed = padding;
+            }
             if (endOfStream) {
                 nettyHandlerAdapter.onRequestComplete(asyncContext);
                 contexts.remove(streamId);
@@ -101,6 +109,22 @@ final class Http2Connection extends Http2ConnectionHandler implements Http2Frame
         return processed;
     }
 
+    private void consumeBytes(ChannelHandlerContext ctx, int streamId, int bytes) {
+        if (ctx.executor().inEventLoop()) {
+            try {
+                Http2Stream stream = connection().stream(streamId);
+                if (decoder().flowController().consumeBytes(stream, bytes)) {
+                    ctx.flush();
+                }
+            } catch (Http2Exception e) {
+                log.debug("Error while returning flow control bytes for stream " + streamId, e);
+                closeAllAndDisconnect(ctx, Http2Error.FLOW_CONTROL_ERROR);
+            }
+        } else {
+            ctx.executor().execute(() -> consumeBytes(ctx, streamId, bytes));
+        }
+    }
+
     @Override
     public void onHeadersRead(ChannelHandlerContext ctx, int streamId,
                               io.netty.handler.codec.http2.Http2Headers headers, int padding, boolean endOfStream) {
@@ -153,7 +177,7 @@ final class Http2Connection extends Http2ConnectionHandler implements Http2Frame
 
         server.stats.onRequestStarted(muReq);
         connectionStats.onRequestStarted(muReq);
-        Http2Response resp = new Http2Response(ctx, muReq, new Http2Headers(), encoder(), streamId, settings);
+        Http2Response resp = new Http2Response(ctx, writes, muReq, new Http2Headers(), encoder(), streamId, settings);
 
         AsyncContext asyncContext = new AsyncContext(muReq, resp, (info) -> {
             nettyHandlerAdapter.onResponseComplete(info, server.stats, connectionStats);
@@ -1,26 +1,37 @@
 package io.muserver;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.http2.Http2ConnectionEncoder;
+import io.netty.handler.codec.http2.Http2Stream;
+import io.netty.util.AsciiString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 class Http2Response extends NettyResponseAdaptor {
     private static final Logger log = LoggerFactory.getLogger(Http2Response.class);
+    private static final int MIN_FILE_READ_SIZE = 16 * 1024;
+    private static final CharSequence MU_GZIP = AsciiString.cached("mu-" + HeaderValues.GZIP);
+    private static final CharSequence MU_DEFLATE = AsciiString.cached("mu-" + HeaderValues.DEFLATE);
 
     private final ChannelHandlerContext ctx;
+    private final ChannelWriteBatcher writes;
     private final Http2Headers headers;
     private final Http2ConnectionEncoder encoder;
     private final int streamId;
     private final ServerSettings settings;
+    private final ChannelFutureListener flowControlWindowReader = future -> readFlowControlWindow();
+    private volatile int flowControlWindow = -1;
 
-    Http2Response(ChannelHandlerContext ctx, NettyRequestAdapter request, Http2Headers headers, Http2ConnectionEncoder encoder, int streamId, ServerSettings settings) {
-        super(request, headers);
+    Http2Response(ChannelHandlerContext ctx, ChannelWriteBatcher writes, NettyRequestAdapter request, Http2Headers headers, Http2ConnectionEncoder encoder, int streamId, ServerSettings settings) {
+        super(request, headers, settings);
         this.ctx = ctx;
+        this.writes = writes;
         this.headers = headers;
         this.encoder = encoder;
         this.streamId = streamId;
@@ -29,22 +40,26 @@ class Http2Response extends NettyResponseAdaptor {
 
     @Override
     protected ChannelFuture writeToChannel(boolean isLast, ByteBuf content) {
-        return writeToChannel(ctx, encoder, streamId, content, isLast);
+        ChannelFuture future = writeToChannel(writes, ctx, encoder, streamId, content, isLast);
+        if (!isLast) {
+            future.addListener(flowControlWindowReader);
+        }
+        return future;
     }
 
-    static ChannelFuture writeToChannel(ChannelHandlerContext ctx, Http2ConnectionEncoder encoder, int streamId, ByteBuf content, boolean isLast) {
+    /**
+     * Writes a DATA frame. Frames written from outside the event loop are batched with those from the other streams
+     * on the connection, so that they are flushed together.
+     */
+    static ChannelFuture writeToChannel(ChannelWriteBatcher writes, ChannelHandlerContext ctx, Http2ConnectionEncoder encoder, int streamId, ByteBuf content, boolean isLast) {
         ChannelPromise channelPromise = ctx.newPromise();
-        if (ctx.executor().inEventLoop()) {
-            writeToChannelForReal(ctx, encoder, streamId, content, isLast, channelPromise);
-        } else {
-            ctx.executor().execute(() -> writeToChannelForReal(ctx, encoder, streamId, content, isLast, channelPromise));
-        }
+        writes.write(() -> encoder.writeData(ctx, streamId, content, 0, isLast, channelPromise));
         return channelPromise;
     }
 
-    private static void writeToChannelForReal(ChannelHandlerContext ctx, Http2ConnectionEncoder encoder, int streamId, ByteBuf content, boolean isLast, ChannelPromise channelPromise) {
-        encoder.writeData(ctx, streamId, content, 0, isLast, channelPromise);
-        ctx.channel().flush();
+    @Override
+    ByteBufAllocator alloc() {
+        return ctx.alloc();
     }
 
     @Override
@@ -58,6 +73,31 @@ class Http2Response extends NettyResponseAdaptor {
         writeHeaders(false);
     }
 
+    /**
+     * Limits file reads to the stream's flow control window, as any more than that would wait in memory until the
+     * client allows more data. The window is copied after each write completes, because the connection's streams
+     * and flow control state can only be read on the event loop, so it may be slightly out of date. That only affects
+     * how much is read at a time.
+     */
+    @Override
+    int nextReadSize(int bufferSize) {
+        int window = flowControlWindow;
+        if (window < 0) {
+            return bufferSize;
+        }
+        return Math.min(bufferSize, Math.max(window, MIN_FILE_READ_SIZE));
+    }
+
+    /**
+     * Called on the event loop
+     */
+    private void readFlowControlWindow() {
+        Http2Stream stream = encoder.connection().stream(streamId);
+        if (stream != null) {
+            flowControlWindow = encoder.flowController().windowSize(stream);
+        }
+    }
+
     @Override
     protected void onContentLengthMismatch() {
         // don't really care for http2
@@ -73,22 +113,11 @@ class Http2Response extends NettyResponseAdaptor {
             if (toUse != null && !headers.entries.contains(HeaderNames.CONTENT_ENCODING)) {
                 // By setting the header value, the CompressorHttp2ConnectionEncoder added by the Http2ConnectionBuilder will encode the bytes.
                 // The mu- prefix is what indicates to the compressor that we want to compress it, and MuGzipHttp2ConnectionEncoder removes the mu- prefix.
-                headers.set(HeaderNames.CONTENT_ENCODING, "mu-" + toUse);
+                headers.set(HeaderNames.CONTENT_ENCODING, toUse == HeaderValues.GZIP ? MU_GZIP : MU_DEFLATE);
             }
         }
 
-        if (ctx.executor().inEventLoop()) {
-            writeHeadersForReal(isEnd);
-        } else {
-            ctx.executor().execute(() -> writeHeadersForReal(isEnd));
-        }
-    }
-
-    private void writeHeadersForReal(boolean isEnd) {
-        encoder.writeHeaders(ctx, streamId, headers.entries, 0, isEnd, ctx.newPromise());
-        if (isEnd) {
-            ctx.channel().flush();
-        }
+        writes.write(() -> encoder.writeHeaders(ctx, streamId, headers.entries, 0, isEnd, ctx.newPromise()));
     }
 
     @Override
@@ -110,7 +139,7 @@ class Http2Response extends NettyResponseAdaptor {
 
     @Override
     protected ChannelFuture writeLastContentMarker() {
-        return writeToChannel(true, Unpooled.directBuffer(0));
+        return writeToChannel(true, Unpooled.EMPTY_BUFFER);
     }
 
     @Override
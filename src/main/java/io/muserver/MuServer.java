@@ -151,4 +151,15 @@ public interface MuServer {
      * @return A description of the actual SSL settings used, or null.
      */
     SSLInfo sslInfo();
+
+    /**
+     * <p>The network transport actually used by this server.</p>
+     * <p>This can only be set at point of server creation with {@link MuServerBuilder#withTransport(Transport)}. If
+     * {@link Transport#AUTO} was requested then this returns the transport that was selected.</p>
+     * <p>The default implementation returns {@link Transport#NIO}.</p>
+     * @return The transport used to accept and handle connections.
+     */
+    default Transport transport() {
+        return Transport.NIO;
+    }
 }
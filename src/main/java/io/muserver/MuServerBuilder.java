@@ -5,13 +5,12 @@ import io.muserver.handlers.ResourceType;
 import io.muserver.rest.MuRuntimeDelegate;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.HttpRequestDecoder;
 import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseEncoder;
 import io.netty.handler.codec.http.HttpServerKeepAliveHandler;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.timeout.IdleStateHandler;
@@ -49,6 +48,7 @@ public class MuServerBuilder {
     private int maxUrlSize = 8192 - LENGTH_OF_METHOD_AND_PROTOCOL;
     private int nioThreads = DEFAULT_NIO_THREADS;
     private List<MuHandler> handlers = new ArrayList<>();
+    private RouteTrie.Builder pendingRoutes;
     private boolean gzipEnabled = true;
     private Set<String> mimeTypesToGzip = ResourceType.gzippableMimeTypes(ResourceType.getResourceTypes());
     private boolean addShutdownHook = false;
@@ -57,10 +57,20 @@ public class MuServerBuilder {
     private Http2Config http2Config;
     private long idleTimeoutMills = TimeUnit.MINUTES.toMillis(5);
     private ExecutorService executor;
+    private boolean virtualThreads = false;
     private long maxRequestSize = 24 * 1024 * 1024;
     private List<ResponseCompleteListener> responseCompleteListeners;
     private HashedWheelTimer wheelTimer;
     private List<RateLimiter> rateLimiters;
+    private Transport transport = Transport.NIO;
+    private boolean reusePort = false;
+    private int tcpFastOpenQueueLength = 0;
+    private long requestBodyLowWatermark = 32 * 1024;
+    private long requestBodyHighWatermark = 128 * 1024;
+    private long serverRequestBodyLowWatermark = Long.MAX_VALUE;
+    private long serverRequestBodyHighWatermark = Long.MAX_VALUE;
+    private int responseLowWatermark = 32 * 1024;
+    private int responseHighWatermark = 64 * 1024;
 
     /**
      * @param port The HTTP port to use. A value of 0 will have a random port assigned; a value of -1 will
@@ -245,6 +255,20 @@ public class MuServerBuilder {
         return this;
     }
 
+    /**
+     * <p>Runs each request on its own virtual thread, so that handlers which block (for example while reading
+     * the request body or writing to the response output stream) do not use up a limited pool of threads.</p>
+     * <p>Virtual threads require JDK 21 or later. On earlier JDKs a warning is logged and the default thread pool is used.
+     * This setting is ignored if an executor is set with {@link #withHandlerExecutor(ExecutorService)}.</p>
+     *
+     * @param enabled <code>true</code> to run handlers on virtual threads. The default is <code>false</code>.
+     * @return The current Mu Server builder
+     */
+    public MuServerBuilder withVirtualThreads(boolean enabled) {
+        this.virtualThreads = enabled;
+        return this;
+    }
+
     /**
      * The number of nio threads to handle requests. By default is 2 * processor's count but not more than 16
      *
@@ -256,6 +280,54 @@ public class MuServerBuilder {
         return this;
     }
 
+    /**
+     * <p>Specifies the network transport to use. The default is {@link Transport#NIO}.</p>
+     * <p>The native transports ({@link Transport#EPOLL} and {@link Transport#IO_URING}) only work on Linux and
+     * require the corresponding netty native library on the classpath. Use {@link Transport#AUTO} to pick the
+     * best transport available at runtime, falling back to NIO.</p>
+     *
+     * @param transport The transport to use
+     * @return The current Mu Server builder
+     * @see MuServer#transport()
+     */
+    public MuServerBuilder withTransport(Transport transport) {
+        Mutils.notNull("transport", transport);
+        this.transport = transport;
+        return this;
+    }
+
+    /**
+     * <p>Enables <code>SO_REUSEPORT</code>, which causes one acceptor per nio thread to be bound to each port so that
+     * the kernel spreads new connections across cores.</p>
+     * <p>This is only supported on native transports. When the NIO transport is in use, a warning is logged and
+     * a single acceptor is used.</p>
+     *
+     * @param reusePort <code>true</code> to enable; <code>false</code> to use a single acceptor (the default)
+     * @return The current Mu Server builder
+     * @see #withTransport(Transport)
+     */
+    public MuServerBuilder withReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+        return this;
+    }
+
+    /**
+     * <p>Enables TCP Fast Open on the server sockets, which allows clients to send data in the opening SYN packet.</p>
+     * <p>This is only supported on native transports. When the NIO transport is in use, a warning is logged and
+     * the setting is ignored.</p>
+     *
+     * @param queueLength The maximum number of pending fast open requests, or 0 to disable (the default)
+     * @return The current Mu Server builder
+     * @see #withTransport(Transport)
+     */
+    public MuServerBuilder withTcpFastOpen(int queueLength) {
+        if (queueLength < 0) {
+            throw new IllegalArgumentException("The queue length must be 0 or greater");
+        }
+        this.tcpFastOpenQueueLength = queueLength;
+        return this;
+    }
+
     /**
      * <p>Specifies the maximum size in bytes of the HTTP request headers. Defaults to 8192.</p>
      * <p>If a request has headers exceeding this value, it will be rejected and a <code>431</code>
@@ -295,6 +367,63 @@ public class MuServerBuilder {
         return this;
     }
 
+    /**
+     * <p>Limits how much of a single request's body can be buffered in memory while waiting for the handler to
+     * read it.</p>
+     * <p>When more than the high watermark is buffered, the server stops reading the request body from the client
+     * (for HTTP/2, the stream's flow control window is not replenished) until the handler has read enough of the
+     * body for the amount buffered to drop to the low watermark.</p>
+     *
+     * @param lowWatermark  The number of buffered bytes at or below which reading resumes. The default is 32KB.
+     * @param highWatermark The number of buffered bytes at which reading stops. The default is 128KB.
+     * @return The current Mu Server builder
+     * @throws IllegalArgumentException if the high watermark is less than 1 or the low watermark is not between 0 and the high watermark
+     */
+    public MuServerBuilder withRequestBodyWatermarks(long lowWatermark, long highWatermark) {
+        RequestBodyBudget.validate(lowWatermark, highWatermark);
+        this.requestBodyLowWatermark = lowWatermark;
+        this.requestBodyHighWatermark = highWatermark;
+        return this;
+    }
+
+    /**
+     * <p>Limits how many request body bytes can be buffered in memory across all requests on this server.</p>
+     * <p>When the total buffered reaches the high watermark, any request that receives more body data stops
+     * reading from its client until the server total has dropped to the low watermark.</p>
+     *
+     * @param lowWatermark  The total number of buffered bytes at or below which reading resumes.
+     * @param highWatermark The total number of buffered bytes at which reading stops. By default there is no server-wide limit.
+     * @return The current Mu Server builder
+     * @throws IllegalArgumentException if the high watermark is less than 1 or the low watermark is not between 0 and the high watermark
+     */
+    public MuServerBuilder withServerRequestBodyWatermarks(long lowWatermark, long highWatermark) {
+        RequestBodyBudget.validate(lowWatermark, highWatermark);
+        this.serverRequestBodyLowWatermark = lowWatermark;
+        this.serverRequestBodyHighWatermark = highWatermark;
+        return this;
+    }
+
+    /**
+     * <p>Limits how much of a response can be waiting in memory to be sent to the client.</p>
+     * <p>Writes to a response's output stream or writer do not wait for each chunk to be sent. Instead, once more than
+     * the high watermark of the response has been written but not yet sent (for example because the client is reading
+     * slowly, or for HTTP/2 because the stream's flow control window is used up), writes block until the amount unsent
+     * has dropped to the low watermark. Asynchronous handlers can follow the same limits with
+     * {@link AsyncHandle#isWritable()} and {@link AsyncHandle#setWritabilityListener(WritabilityListener)}.</p>
+     * <p>The same limits are used for each connection's outbound buffer, which determines when its channel is writable.</p>
+     *
+     * @param lowWatermark  The number of unsent bytes at or below which writing resumes. The default is 32KB.
+     * @param highWatermark The number of unsent bytes above which writes wait. The default is 64KB.
+     * @return The current Mu Server builder
+     * @throws IllegalArgumentException if the high watermark is less than 1 or the low watermark is not between 0 and the high watermark
+     */
+    public MuServerBuilder withResponseWatermarks(int lowWatermark, int highWatermark) {
+        RequestBodyBudget.validate(lowWatermark, highWatermark);
+        this.responseLowWatermark = lowWatermark;
+        this.responseHighWatermark = highWatermark;
+        return this;
+    }
+
     /**
      * Sets the idle timeout for requests and responses. If no bytes are sent or received within this time then
      * the connection is closed.
@@ -354,6 +483,8 @@ public class MuServerBuilder {
     public MuServerBuilder addHandler(MuHandler handler) {
         if (handler != null) {
             handler = getContextualHandlerForResourceHandler(handler);
+            addPendingRoutes(handlers);
+            pendingRoutes = null;
             handlers.add(handler);
         }
         return this;
@@ -375,6 +506,9 @@ public class MuServerBuilder {
 
     /**
      * Registers a new handler that will only be called if it matches the given route info
+     * <p>Routes added one after another are looked up together by path segment, so the number of routes
+     * does not affect how long it takes to find the matching route. If more than one route matches a request,
+     * the one added first is used.</p>
      *
      * @param method      The method to match, or <code>null</code> to accept any method.
      * @param uriTemplate A URL template. Supports plain URLs like <code>/abc</code> or paths
@@ -389,7 +523,41 @@ public class MuServerBuilder {
         if (handler == null) {
             return this;
         }
-        return addHandler(Routes.route(method, uriTemplate, handler));
+        return addRoute(false, method, uriTemplate, handler);
+    }
+
+    /**
+     * Registers a new handler that will only be called if it matches the given route info, and which is run
+     * directly on the nio thread that received the request rather than on the handler executor.
+     * <p>The handler must not block. See {@link NonBlockingHandler} for details.</p>
+     *
+     * @param method      The method to match, or <code>null</code> to accept any method.
+     * @param uriTemplate A URL template, as described in {@link #addHandler(Method, String, RouteHandler)}
+     * @param handler     The non-blocking handler to invoke if the method and URI matches. If null, then no handler is added.
+     * @return Returns the server builder
+     */
+    public MuServerBuilder addNonBlockingHandler(Method method, String uriTemplate, RouteHandler handler) {
+        if (handler == null) {
+            return this;
+        }
+        return addRoute(true, method, uriTemplate, handler);
+    }
+
+    private MuServerBuilder addRoute(boolean nonBlocking, Method method, String uriTemplate, RouteHandler handler) {
+        // Consecutive routes share a trie so that finding the matching route does not mean checking each one in turn.
+        // The routes are collected until something else is added (or the server starts) so each trie is built once.
+        if (pendingRoutes == null || pendingRoutes.isNonBlocking() != nonBlocking) {
+            addPendingRoutes(handlers);
+            pendingRoutes = new RouteTrie.Builder(nonBlocking);
+        }
+        pendingRoutes.add(method, uriTemplate, handler);
+        return this;
+    }
+
+    private void addPendingRoutes(List<MuHandler> handlers) {
+        if (pendingRoutes != null) {
+            handlers.add(pendingRoutes.build());
+        }
     }
 
     /**
@@ -482,17 +650,40 @@ public class MuServerBuilder {
             throw new IllegalArgumentException("No ports were configured. Please call MuServerBuilder.withHttpPort(int) or MuServerBuilder.withHttpsPort(int)");
         }
 
-        ServerSettings settings = new ServerSettings(minimumGzipSize, maxHeadersSize, idleTimeoutMills, maxRequestSize, maxUrlSize, gzipEnabled, mimeTypesToGzip, rateLimiters);
+        NettyTransport nettyTransport = NettyTransport.create(transport);
+        log.debug("Using " + nettyTransport + " transport");
+
+        ServerSettings settings = new ServerSettings(minimumGzipSize, maxHeadersSize, idleTimeoutMills, maxRequestSize, maxUrlSize, gzipEnabled, mimeTypesToGzip, rateLimiters,
+            requestBodyLowWatermark, requestBodyHighWatermark, serverRequestBodyLowWatermark, serverRequestBodyHighWatermark,
+            responseLowWatermark, responseHighWatermark);
 
         ExecutorService handlerExecutor = this.executor;
+        if (handlerExecutor == null && virtualThreads) {
+            handlerExecutor = virtualThreadExecutor();
+            if (handlerExecutor == null) {
+                log.warn("Virtual threads are not supported by this JVM so handlers will be run on a thread pool");
+            }
+        }
         if (handlerExecutor == null) {
             DefaultThreadFactory threadFactory = new DefaultThreadFactory("muhandler");
             handlerExecutor = new ThreadPoolExecutor(8, 400, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), threadFactory);
         }
+        List<MuHandler> handlers = new ArrayList<>(this.handlers);
+        addPendingRoutes(handlers);
         NettyHandlerAdapter nettyHandlerAdapter = new NettyHandlerAdapter(handlerExecutor, handlers, settings, responseCompleteListeners);
 
-        NioEventLoopGroup bossGroup = new NioEventLoopGroup(1);
-        NioEventLoopGroup workerGroup = new NioEventLoopGroup(this.nioThreads);
+        boolean useReusePort = reusePort && nettyTransport.supportsReusePort();
+        if (reusePort && !useReusePort) {
+            log.warn("SO_REUSEPORT is not supported by the " + nettyTransport + " transport so a single acceptor will be used");
+        }
+        int fastOpen = tcpFastOpenQueueLength;
+        if (fastOpen > 0 && !nettyTransport.supportsTcpFastOpen()) {
+            log.warn("TCP Fast Open is not supported by the " + nettyTransport + " transport so will not be used");
+            fastOpen = 0;
+        }
+        int acceptorsPerPort = useReusePort ? this.nioThreads : 1;
+        EventLoopGroup bossGroup = nettyTransport.newEventLoopGroup(acceptorsPerPort);
+        EventLoopGroup workerGroup = nettyTransport.newEventLoopGroup(this.nioThreads);
         List<Channel> channels = new ArrayList<>();
 
         ExecutorService finalHandlerExecutor = handlerExecutor;
@@ -519,28 +710,29 @@ public class MuServerBuilder {
             SslContextProvider sslContextProvider = null;
 
             boolean http2Enabled = http2Config != null && http2Config.enabled;
-            MuServerImpl server = new MuServerImpl(stats, http2Enabled, settings);
+            MuServerImpl server = new MuServerImpl(stats, http2Enabled, settings, nettyTransport.type());
+            ChannelOptions options = new ChannelOptions(nettyTransport, acceptorsPerPort, useReusePort, fastOpen);
 
-            Channel httpChannel = httpPort < 0 ? null : createChannel(bossGroup, workerGroup, nettyHandlerAdapter, host, httpPort, null, trafficShapingHandler, server, false, idleTimeoutMills);
-            Channel httpsChannel;
+            List<Channel> httpChannels = httpPort < 0 ? null : createChannels(options, bossGroup, workerGroup, nettyHandlerAdapter, host, httpPort, null, trafficShapingHandler, server, false, idleTimeoutMills);
+            List<Channel> httpsChannels;
             if (httpsPort < 0) {
-                httpsChannel = null;
+                httpsChannels = null;
             } else {
                 SSLContextBuilder toUse = this.sslContextBuilder != null ? this.sslContextBuilder : HttpsConfigBuilder.unsignedLocalhost();
                 SslContext nettySslContext = toUse.toNettySslContext(http2Enabled);
                 log.debug("SSL Context is " + nettySslContext);
                 sslContextProvider = new SslContextProvider(nettySslContext);
-                httpsChannel = createChannel(bossGroup, workerGroup, nettyHandlerAdapter, host, httpsPort, sslContextProvider, trafficShapingHandler, server, http2Enabled, idleTimeoutMills);
+                httpsChannels = createChannels(options, bossGroup, workerGroup, nettyHandlerAdapter, host, httpsPort, sslContextProvider, trafficShapingHandler, server, http2Enabled, idleTimeoutMills);
             }
             URI uri = null;
-            if (httpChannel != null) {
-                channels.add(httpChannel);
-                uri = getUriFromChannel(httpChannel, "http", host);
+            if (httpChannels != null) {
+                channels.addAll(httpChannels);
+                uri = getUriFromChannel(httpChannels.get(0), "http", host);
             }
             URI httpsUri = null;
-            if (httpsChannel != null) {
-                channels.add(httpsChannel);
-                httpsUri = getUriFromChannel(httpsChannel, "https", host);
+            if (httpsChannels != null) {
+                channels.addAll(httpsChannels);
+                httpsUri = getUriFromChannel(httpsChannels.get(0), "https", host);
                 ((SSLInfoImpl) sslContextProvider.sslInfo()).setHttpsUri(httpsUri);
             }
 
@@ -564,12 +756,41 @@ public class MuServerBuilder {
         return URI.create(protocol + "://" + host.toLowerCase() + ":" + a.getPort());
     }
 
-    private static Channel createChannel(NioEventLoopGroup bossGroup, NioEventLoopGroup workerGroup, NettyHandlerAdapter nettyHandlerAdapter, String host, int port, SslContextProvider sslContextProvider, GlobalTrafficShapingHandler trafficShapingHandler, MuServerImpl server, final boolean http2, long idleTimeoutMills) throws InterruptedException {
+    /**
+     * @return An executor that starts a new virtual thread for each task, or null if this JVM does not support them
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            // NoSuchMethodException before JDK 19, or UnsupportedOperationException when they are a disabled preview feature
+            log.debug("Could not create virtual thread executor", e);
+            return null;
+        }
+    }
+
+    private static class ChannelOptions {
+        private final NettyTransport transport;
+        private final int acceptorsPerPort;
+        private final boolean reusePort;
+        private final int tcpFastOpenQueueLength;
+
+        private ChannelOptions(NettyTransport transport, int acceptorsPerPort, boolean reusePort, int tcpFastOpenQueueLength) {
+            this.transport = transport;
+            this.acceptorsPerPort = acceptorsPerPort;
+            this.reusePort = reusePort;
+            this.tcpFastOpenQueueLength = tcpFastOpenQueueLength;
+        }
+    }
+
+    private static List<Channel> createChannels(ChannelOptions options, EventLoopGroup bossGroup, EventLoopGroup workerGroup, NettyHandlerAdapter nettyHandlerAdapter, String host, int port, SslContextProvider sslContextProvider, GlobalTrafficShapingHandler trafficShapingHandler, MuServerImpl server, final boolean http2, long idleTimeoutMills) throws InterruptedException {
         boolean usesSsl = sslContextProvider != null;
         String proto = usesSsl ? "https" : "http";
         ServerBootstrap b = new ServerBootstrap();
+        options.transport.applyServerOptions(b, options.reusePort, options.tcpFastOpenQueueLength);
         b.group(bossGroup, workerGroup)
-            .channel(NioServerSocketChannel.class)
+            .channel(options.transport.serverChannelClass())
+            .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(server.settings().responseLowWatermark, server.settings().responseHighWatermark))
             .childHandler(new ChannelInitializer<SocketChannel>() {
 
                 protected void initChannel(SocketChannel socketChannel) {
@@ -583,6 +804,9 @@ public class MuServerBuilder {
                         sslHandler.engine().setSSLParameters(params);
                         p.addLast("ssl", sslHandler);
                     }
+                    // Flushes from responses written by the event loop (including those queued from other threads) are
+                    // combined into one flush per event loop run, so many small writes become one write to the socket
+                    p.addLast("flusher", new FlushConsolidationHandler(FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true));
                     boolean addAlpn = http2 && usesSsl;
                     if (addAlpn) {
                         p.addLast("http1or2", new AlpnHandler(nettyHandlerAdapter, server, proto));
@@ -600,8 +824,17 @@ public class MuServerBuilder {
 
 
             });
-        ChannelFuture bound = host == null ? b.bind(port) : b.bind(host, port);
-        return bound.sync().channel();
+        List<Channel> channels = new ArrayList<>(options.acceptorsPerPort);
+        for (int i = 0; i < options.acceptorsPerPort; i++) {
+            // Each bind registers with the next boss event loop, so with SO_REUSEPORT every loop gets its own acceptor
+            ChannelFuture bound = host == null ? b.bind(port) : b.bind(host, port);
+            Channel channel = bound.sync().channel();
+            channels.add(channel);
+            if (port == 0) {
+                port = ((InetSocketAddress) channel.localAddress()).getPort();
+            }
+        }
+        return channels;
     }
 
     static void setupHttp1Pipeline(ChannelPipeline p, NettyHandlerAdapter nettyHandlerAdapter, MuServerImpl server, String proto) {
@@ -17,6 +17,7 @@ class MuServerImpl implements MuServer {
     private SslContextProvider sslContextProvider;
     private final boolean http2Enabled;
     private final ServerSettings settings;
+    private final Transport transport;
     private final Set<HttpConnection> connections = ConcurrentHashMap.newKeySet();
 
     void onStarted(URI httpUri, URI httpsUri, Runnable shutdown, InetSocketAddress address, SslContextProvider sslContextProvider) {
@@ -30,10 +31,11 @@ class MuServerImpl implements MuServer {
         this.shutdown = shutdown;
     }
 
-    MuServerImpl(MuStatsImpl stats, boolean http2Enabled, ServerSettings settings) {
+    MuServerImpl(MuStatsImpl stats, boolean http2Enabled, ServerSettings settings, Transport transport) {
         this.stats = stats;
         this.http2Enabled = http2Enabled;
         this.settings = settings;
+        this.transport = transport;
     }
 
     @Override
@@ -131,6 +133,11 @@ class MuServerImpl implements MuServer {
         return sslContextProvider == null ? null : sslContextProvider.sslInfo();
     }
 
+    @Override
+    public Transport transport() {
+        return transport;
+    }
+
     @Override
     public String toString() {
         return "MuServerImpl{" +
@@ -7,6 +7,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ServiceUnavailableException;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
 import java.util.HashMap;
@@ -14,6 +15,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 class NettyHandlerAdapter {
 
@@ -28,24 +30,35 @@ class NettyHandlerAdapter {
     private final ServerSettings settings;
     private final ExecutorService executor;
     private final List<ResponseCompleteListener> completeListeners;
+    private final RequestBodyBudget requestBodyBudget;
 
     NettyHandlerAdapter(ExecutorService executor, List<MuHandler> muHandlers, ServerSettings settings, List<ResponseCompleteListener> completeListeners) {
         this.executor = executor;
         this.muHandlers = muHandlers;
         this.settings = settings;
         this.completeListeners = completeListeners;
+        this.requestBodyBudget = new RequestBodyBudget(settings.requestBodyLowWatermark, settings.requestBodyHighWatermark,
+            settings.serverRequestBodyLowWatermark, settings.serverRequestBodyHighWatermark);
     }
 
-    static void passDataToHandler(ByteBuf data, AsyncContext asyncContext) {
+    /**
+     * Hands request body data to the request's body stream without copying it.
+     * @param data The data, which is retained until it has been consumed
+     * @param asyncContext The request context
+     * @param onResume Run once the buffered request body has drained, if this method returns false
+     * @return <code>true</code> if more data can be read from the client now; <code>false</code> if reading should
+     * stop until <code>onResume</code> is run because too much data is buffered
+     */
+    static boolean passDataToHandler(ByteBuf data, AsyncContext asyncContext, Runnable onResume) {
         if (data.readableBytes() > 0) {
             data.retain();
             try {
-                asyncContext.requestBody.handOff(data, error -> {
+                return asyncContext.requestBody.handOff(data, error -> {
                     data.release();
                     if (error != null) {
                         asyncContext.onCancelled(false);
                     }
-                });
+                }, onResume);
             } catch (Exception e) {
                 data.release();
                 if (e instanceof MuException) {
@@ -61,6 +74,7 @@ class NettyHandlerAdapter {
                 }
             }
         }
+        return true;
     }
 
     void onHeaders(DoneCallback addedToExecutorCallback, AsyncContext muCtx, Headers headers) {
@@ -68,52 +82,81 @@ class NettyHandlerAdapter {
         NettyRequestAdapter request = (NettyRequestAdapter) muCtx.request;
         if (headers.hasBody()) {
             // There will be a request body, so set the streams
-            GrowableByteBufferInputStream requestBodyStream = new GrowableByteBufferInputStream(settings.requestReadTimeoutMillis, settings.maxRequestSize);
+            GrowableByteBufferInputStream requestBodyStream = new GrowableByteBufferInputStream(settings.requestReadTimeoutMillis, settings.maxRequestSize, requestBodyBudget);
             request.inputStream(requestBodyStream);
             muCtx.requestBody = requestBodyStream;
         }
         request.nettyAsyncContext = muCtx;
-        try {
-            executor.execute(() -> {
+        if (canRunOnNioThread(0, request)) {
+            // no need to pay for a thread hop when the handlers say they will not block
+            runHandlers(addedToExecutorCallback, muCtx, 0, true);
+        } else {
+            try {
+                executor.execute(() -> runHandlers(addedToExecutorCallback, muCtx, 0, false));
+            } catch (Exception e) {
+                try {
+                    addedToExecutorCallback.onComplete(e);
+                } catch (Exception ignored) { }
+            }
+        }
+    }
 
+    private boolean canRunOnNioThread(int handlerIndex, MuRequest request) {
+        if (handlerIndex >= muHandlers.size()) {
+            return true;
+        }
+        MuHandler handler = muHandlers.get(handlerIndex);
+        return handler instanceof NonBlockingHandler && ((NonBlockingHandler) handler).canRunOnNioThread(request);
+    }
 
-                boolean error = false;
-                MuResponse response = muCtx.response;
-                try {
-                    addedToExecutorCallback.onComplete(null);
-
-                    boolean handled = false;
-                    for (MuHandler muHandler : muHandlers) {
-                        handled = muHandler.handle(muCtx.request, response);
-                        if (handled) {
-                            break;
-                        }
-                        if (request.isAsync()) {
-                            throw new IllegalStateException(muHandler.getClass() + " returned false however this is not allowed after starting to handle a request asynchronously.");
-                        }
-                    }
-                    if (!handled) {
-                        throw new NotFoundException();
+    private void runHandlers(DoneCallback startedCallback, AsyncContext muCtx, int startIndex, boolean onNioThread) {
+        NettyRequestAdapter request = (NettyRequestAdapter) muCtx.request;
+        boolean error = false;
+        boolean movedToExecutor = false;
+        MuResponse response = muCtx.response;
+        try {
+            startedCallback.onComplete(null);
+
+            boolean handled = false;
+            for (int i = startIndex; i < muHandlers.size(); i++) {
+                if (onNioThread && !canRunOnNioThread(i, request)) {
+                    // the remaining handlers may block, so they cannot run on the nio thread
+                    int nextIndex = i;
+                    try {
+                        executor.execute(() -> runHandlers(DoneCallback.NoOp, muCtx, nextIndex, false));
+                    } catch (RejectedExecutionException e) {
+                        throw new ServiceUnavailableException();
                     }
+                    movedToExecutor = true;
+                    return;
+                }
+                MuHandler muHandler = muHandlers.get(i);
+                handled = muHandler.handle(muCtx.request, response);
+                if (handled) {
+                    break;
+                }
+                if (request.isAsync()) {
+                    throw new IllegalStateException(muHandler.getClass() + " returned false however this is not allowed after starting to handle a request asynchronously.");
+                }
+            }
+            if (!handled) {
+                throw new NotFoundException();
+            }
 
 
-                } catch (Throwable ex) {
-                    error = dealWithUnhandledException(request, response, ex);
-                } finally {
-                    request.clean();
-                    if (error || !request.isAsync()) {
-                        try {
-                            muCtx.complete(error);
-                        } catch (Throwable e) {
-                            log.info("Error while completing request", e);
-                        }
+        } catch (Throwable ex) {
+            error = dealWithUnhandledException(request, response, ex);
+        } finally {
+            if (!movedToExecutor) {
+                request.clean();
+                if (error || !request.isAsync()) {
+                    try {
+                        muCtx.complete(error);
+                    } catch (Throwable e) {
+                        log.info("Error while completing request", e);
                     }
                 }
-            });
-        } catch (Exception e) {
-            try {
-                addedToExecutorCallback.onComplete(e);
-            } catch (Exception ignored) { }
+            }
         }
     }
 
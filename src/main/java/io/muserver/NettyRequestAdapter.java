@@ -25,6 +25,7 @@ import java.io.InputStream;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -509,6 +510,36 @@ class NettyRequestAdapter implements MuRequest {
         @Override
         public void write(ByteBuffer data, DoneCallback callback) {
             ChannelFuture writeFuture = (ChannelFuture) write(data);
+            callWhenDone(writeFuture, callback);
+        }
+
+        @Override
+        public boolean isWritable() {
+            return ((NettyResponseAdaptor) request.nettyAsyncContext.response).isWritable();
+        }
+
+        @Override
+        public void setWritabilityListener(WritabilityListener writabilityListener) {
+            ((NettyResponseAdaptor) request.nettyAsyncContext.response).setWritabilityListener(writabilityListener);
+        }
+
+        @Override
+        public void writeFile(Path file, long position, long count, int bufferSize, DoneCallback callback) {
+            NettyResponseAdaptor response = (NettyResponseAdaptor) request.nettyAsyncContext.response;
+            ChannelFuture writeFuture;
+            try {
+                writeFuture = response.writeFile(file.toFile(), position, count, bufferSize);
+            } catch (Throwable e) {
+                writeFuture = request.channel.newFailedFuture(e);
+            }
+            if (writeFuture == null) {
+                AsyncFileWriter.start(this, file, position, count, bufferSize, response::nextReadSize, callback);
+            } else {
+                callWhenDone(writeFuture, callback);
+            }
+        }
+
+        private void callWhenDone(ChannelFuture writeFuture, DoneCallback callback) {
             writeFuture.addListener(future -> {
                 try {
                     if (future.isSuccess()) {
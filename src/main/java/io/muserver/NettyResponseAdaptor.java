@@ -1,29 +1,44 @@
 package io.muserver;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.EmptyHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.cookie.ServerCookieEncoder;
+import io.netty.util.AsciiString;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.core.MediaType;
-import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static io.muserver.ContentTypes.TEXT_PLAIN_UTF8;
 
 abstract class NettyResponseAdaptor implements MuResponse {
+    private static final Logger log = LoggerFactory.getLogger(NettyResponseAdaptor.class);
     protected final boolean isHead;
     protected OutputState outputState = OutputState.NOTHING;
     protected final NettyRequestAdapter request;
@@ -31,9 +46,16 @@ abstract class NettyResponseAdaptor implements MuResponse {
     private final Headers headers;
     protected int status = 200;
     private PrintWriter writer;
-    private OutputStream outputStream;
+    private ChunkedHttpOutputStream outputStream;
     protected long bytesStreamed = 0;
     protected long declaredLength = -1;
+    private final long lowWatermark;
+    private final long highWatermark;
+    private final AtomicLong unsentBytes = new AtomicLong();
+    private final AtomicBoolean writable = new AtomicBoolean(true);
+    private final Queue<Runnable> writableWaiters = new ConcurrentLinkedQueue<>();
+    private volatile WritabilityListener writabilityListener;
+    private volatile Throwable writeFailure;
 
     protected enum OutputState {
         NOTHING, FULL_SENT, STREAMING, STREAMING_COMPLETE, FINISHED, DISCONNECTED, WEBSOCKET
@@ -49,11 +71,13 @@ abstract class NettyResponseAdaptor implements MuResponse {
         }
     }
 
-    NettyResponseAdaptor(NettyRequestAdapter request, Headers headers) {
+    NettyResponseAdaptor(NettyRequestAdapter request, Headers headers, ServerSettings settings) {
         this.headers = headers;
         this.request = request;
+        this.lowWatermark = settings.responseLowWatermark;
+        this.highWatermark = settings.responseHighWatermark;
         this.isHead = request.method() == Method.HEAD;
-        this.headers.set(HeaderNames.DATE, Mutils.toHttpDate(new Date()));
+        this.headers.set(HeaderNames.DATE, DateHeader.now());
     }
 
     public int status() {
@@ -77,11 +101,43 @@ abstract class NettyResponseAdaptor implements MuResponse {
         outputState = OutputState.STREAMING;
     }
 
+    /**
+     * The same as {@link ChannelFuture#syncUninterruptibly()} except the wait is on a {@link CountDownLatch} rather
+     * than a monitor, so a virtual thread waiting for a write to complete does not pin its carrier thread.
+     * <p>When called from the channel's event loop (i.e. from a {@link NonBlockingHandler}) this does not wait,
+     * as the write cannot complete until the event loop is free. Failures of pending writes are then only reported on the future.</p>
+     */
+    static ChannelFuture syncUninterruptibly(ChannelFuture future) {
+        if (!future.isDone()) {
+            if (future.channel().eventLoop().inEventLoop()) {
+                return future;
+            }
+            CountDownLatch latch = new CountDownLatch(1);
+            future.addListener(f -> latch.countDown());
+            boolean interrupted = false;
+            while (latch.getCount() > 0) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Throwable cause = future.cause();
+        if (cause != null) {
+            PlatformDependent.throwException(cause);
+        }
+        return future;
+    }
+
     static CharSequence getVaryWithAE(String curValue) {
         if (Mutils.nullOrEmpty(curValue)) {
             return HeaderNames.ACCEPT_ENCODING;
         } else {
-            if (!curValue.toLowerCase().contains(HeaderNames.ACCEPT_ENCODING)) {
+            if (!AsciiString.containsIgnoreCase(curValue, HeaderNames.ACCEPT_ENCODING)) {
                 return curValue + ", " + HeaderNames.ACCEPT_ENCODING;
             } else {
                 return curValue;
@@ -106,37 +162,203 @@ abstract class NettyResponseAdaptor implements MuResponse {
         return write(Unpooled.wrappedBuffer(data), false);
     }
 
+    /**
+     * Writes part of the response body
+     * @param data The data to write, which is released once written (or if it cannot be written)
+     * @param sync Whether to wait for the write to complete
+     */
     protected final ChannelFuture write(ByteBuf data, boolean sync) {
-        throwIfFinished();
-        int size = data.writerIndex();
-
-        bytesStreamed += size;
-        ChannelFuture lastAction;
-        boolean isLast = bytesStreamed == declaredLength;
-
-        if (declaredLength > -1 && bytesStreamed > declaredLength) {
-            onContentLengthMismatch();
-            isLast = true;
+        int size;
+        boolean isLast;
+        try {
+            throwIfFinished();
+            size = data.writerIndex();
+
+            bytesStreamed += size;
+            isLast = bytesStreamed == declaredLength;
+
+            if (declaredLength > -1 && bytesStreamed > declaredLength) {
+                onContentLengthMismatch();
+                isLast = true;
+            }
+        } catch (RuntimeException | Error e) {
+            data.release();
+            throw e;
         }
 
         if (isLast) {
             outputState = OutputState.FULL_SENT;
         }
 
-        ByteBuf content = Unpooled.wrappedBuffer(data);
-        lastAction = writeToChannel(isLast, content);
+        ChannelFuture lastAction = writeToChannel(isLast, data);
+        trackUnsent(lastAction, size);
         if (sync) {
             // force exception if writes fail
-            lastAction = lastAction.syncUninterruptibly();
+            lastAction = syncUninterruptibly(lastAction);
         }
         this.lastAction = lastAction;
         return lastAction;
     }
 
+    /**
+     * Writes part of the response body without waiting for it to be sent, unless too much of the response is
+     * already waiting to be sent, in which case this blocks until it is writable again.
+     * @param data The data to write, which is released once written (or if it cannot be written)
+     */
+    final void writeAndAwaitWritable(ByteBuf data) {
+        Throwable failure = writeFailure;
+        if (failure != null) {
+            data.release();
+            PlatformDependent.throwException(failure);
+        }
+        ChannelFuture future = write(data, false);
+        if (!writable.get() && !future.channel().eventLoop().inEventLoop()) {
+            awaitWritable();
+        }
+    }
+
+    /**
+     * Counts the bytes of a write as unsent until its future completes, updating the writability of the response
+     */
+    private void trackUnsent(ChannelFuture future, int size) {
+        unsentBytes.addAndGet(size);
+        updateWritability();
+        future.addListener(f -> {
+            if (!f.isSuccess() && writeFailure == null) {
+                writeFailure = f.cause();
+                wakeWaiters();
+            }
+            unsentBytes.addAndGet(-size);
+            updateWritability();
+        });
+    }
+
+    private void updateWritability() {
+        // checked again after each change in case the number of unsent bytes changed while it was being made
+        while (true) {
+            long unsent = unsentBytes.get();
+            if (writable.get()) {
+                if (unsent <= highWatermark || !writable.compareAndSet(true, false)) {
+                    return;
+                }
+                onWritabilityChanged(false);
+            } else {
+                if (unsent > lowWatermark || !writable.compareAndSet(false, true)) {
+                    return;
+                }
+                wakeWaiters();
+                onWritabilityChanged(true);
+            }
+        }
+    }
+
+    private void onWritabilityChanged(boolean isWritable) {
+        WritabilityListener listener = this.writabilityListener;
+        if (listener != null) {
+            try {
+                listener.onWritabilityChanged(isWritable);
+            } catch (Exception e) {
+                log.warn("Unhandled exception from writability listener", e);
+            }
+        }
+    }
+
+    private void wakeWaiters() {
+        Runnable waiter;
+        while ((waiter = writableWaiters.poll()) != null) {
+            waiter.run();
+        }
+    }
+
+    /**
+     * Waits on a {@link CountDownLatch} (like {@link #syncUninterruptibly(ChannelFuture)}) until the response is
+     * writable again
+     */
+    private void awaitWritable() {
+        boolean interrupted = false;
+        while (!writable.get() && writeFailure == null) {
+            CountDownLatch latch = new CountDownLatch(1);
+            Runnable waiter = latch::countDown;
+            writableWaiters.add(waiter);
+            if (writable.get() || writeFailure != null) {
+                writableWaiters.remove(waiter);
+                break;
+            }
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        Throwable failure = writeFailure;
+        if (failure != null) {
+            PlatformDependent.throwException(failure);
+        }
+    }
+
+    boolean isWritable() {
+        return writable.get();
+    }
+
+    void setWritabilityListener(WritabilityListener writabilityListener) {
+        this.writabilityListener = writabilityListener;
+    }
+
+    /**
+     * Writes part of a file as some or all of the rest of the response body without copying it onto the heap, if that
+     * is possible for this type of response.
+     *
+     * @param chunkSize The size of each read if the file needs to be read into memory
+     * @return The future for the write, or <code>null</code> if nothing was written and the caller should write the
+     * file contents itself
+     */
+    ChannelFuture writeFile(File file, long position, long count, int chunkSize) throws IOException {
+        return null;
+    }
+
+    /**
+     * Gives the number of bytes that should next be read from a file that is being written to this response
+     * @param bufferSize The size of the buffer being read into
+     * @return A number no larger than the buffer size
+     */
+    int nextReadSize(int bufferSize) {
+        return bufferSize;
+    }
+
+    /**
+     * @return True if a response has a declared length with at least <code>count</code> bytes left to send, in which
+     * case those bytes are counted as sent (and the response treated as fully sent if no bytes are left)
+     */
+    protected final boolean claimBody(long count) {
+        throwIfFinished();
+        if (isHead) {
+            return false;
+        }
+        if (outputState == OutputState.NOTHING) {
+            startStreaming();
+        }
+        if (outputState != OutputState.STREAMING || declaredLength == -1 || bytesStreamed + count > declaredLength) {
+            return false;
+        }
+        bytesStreamed += count;
+        if (bytesStreamed == declaredLength) {
+            outputState = OutputState.FULL_SENT;
+        }
+        return true;
+    }
+
     protected abstract void onContentLengthMismatch();
 
     abstract ChannelFuture writeToChannel(boolean isLast, ByteBuf content);
 
+    /**
+     * @return The allocator of the channel that this response is written to
+     */
+    abstract ByteBufAllocator alloc();
+
     public void sendChunk(String text) {
         throwIfFinished();
         if (outputState == OutputState.NOTHING) {
@@ -145,6 +367,9 @@ abstract class NettyResponseAdaptor implements MuResponse {
         lastAction = write(textToBuffer(text), true);
     }
 
+    /**
+     * Encodes text into a pooled direct buffer which is sized to fit exactly, without an intermediate byte array
+     */
     private ByteBuf textToBuffer(String text) {
         if (text == null) text = "";
         Charset charset = StandardCharsets.UTF_8;
@@ -155,7 +380,12 @@ abstract class NettyResponseAdaptor implements MuResponse {
                 charset = Charset.forName(encoding);
             }
         }
-        return Unpooled.copiedBuffer(text, charset);
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            ByteBuf buffer = alloc().directBuffer(ByteBufUtil.utf8Bytes(text));
+            ByteBufUtil.writeUtf8(buffer, text);
+            return buffer;
+        }
+        return ByteBufUtil.encodeString(alloc(), CharBuffer.wrap(text), charset);
     }
 
     public void redirect(String newLocation) {
@@ -178,7 +408,7 @@ abstract class NettyResponseAdaptor implements MuResponse {
     public OutputStream outputStream() {
         if (this.outputStream == null) {
             startStreaming();
-            this.outputStream = new BufferedOutputStream(new ChunkedHttpOutputStream(this), 4096);
+            this.outputStream = new ChunkedHttpOutputStream(this, alloc(), ChunkedHttpOutputStream.DEFAULT_BUFFER_SIZE);
         }
         return this.outputStream;
     }
@@ -221,6 +451,10 @@ abstract class NettyResponseAdaptor implements MuResponse {
             }
             lastAction = writeLastContentMarker();
         }
+        if (outputStream != null) {
+            // anything unsent (such as the body of a HEAD request, or output after a disconnection) is not needed
+            outputStream.discard();
+        }
 
         if (shouldDisconnect) {
             if (lastAction == null) {
@@ -291,8 +525,8 @@ abstract class NettyResponseAdaptor implements MuResponse {
     }
 
     static class EmptyHttpResponse extends DefaultFullHttpResponse {
-        EmptyHttpResponse(HttpResponseStatus status) {
-            super(HttpVersion.HTTP_1_1, status, false);
+        EmptyHttpResponse(HttpResponseStatus status, HttpHeaders headers) {
+            super(HttpVersion.HTTP_1_1, status, Unpooled.buffer(0), headers, EmptyHttpHeaders.INSTANCE);
         }
     }
 
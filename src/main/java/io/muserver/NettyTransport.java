@@ -0,0 +1,230 @@
+package io.muserver;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+/**
+ * The netty classes needed for a {@link Transport}. The native transports are optional dependencies, so
+ * their classes are only touched once it has been verified that they are on the classpath.
+ */
+abstract class NettyTransport {
+
+    private static final String EPOLL_CLASS = "io.netty.channel.epoll.Epoll";
+    private static final String IO_URING_PACKAGE = "io.netty.incubator.channel.uring.";
+
+    abstract Transport type();
+
+    abstract EventLoopGroup newEventLoopGroup(int threads);
+
+    abstract Class<? extends ServerChannel> serverChannelClass();
+
+    /**
+     * @return True if multiple server channels can be bound to the same port so that the kernel balances accepts between them
+     */
+    abstract boolean supportsReusePort();
+
+    abstract boolean supportsTcpFastOpen();
+
+    abstract void applyServerOptions(ServerBootstrap bootstrap, boolean reusePort, int tcpFastOpenQueueLength);
+
+    static NettyTransport create(Transport requested) {
+        Mutils.notNull("transport", requested);
+        switch (requested) {
+            case NIO:
+                return new Nio();
+            case EPOLL:
+                if (!epollAvailable()) {
+                    throw new IllegalStateException("The epoll transport was requested but it is not available. " +
+                        "Make sure you are running on Linux and that io.netty:netty-transport-native-epoll is on the classpath.");
+                }
+                return new EpollTransport();
+            case IO_URING:
+                if (!ioUringAvailable()) {
+                    throw new IllegalStateException("The io_uring transport was requested but it is not available. " +
+                        "Make sure you are running on a recent Linux kernel and that io.netty.incubator:netty-incubator-transport-native-io_uring is on the classpath.");
+                }
+                return new IoUring();
+            default:
+                if (ioUringAvailable()) {
+                    return new IoUring();
+                }
+                if (epollAvailable()) {
+                    return new EpollTransport();
+                }
+                return new Nio();
+        }
+    }
+
+    private static boolean epollAvailable() {
+        return classExists(EPOLL_CLASS) && EpollTransport.isAvailable();
+    }
+
+    private static boolean ioUringAvailable() {
+        if (!classExists(IO_URING_PACKAGE + "IOUring")) {
+            return false;
+        }
+        try {
+            return (Boolean) Class.forName(IO_URING_PACKAGE + "IOUring").getMethod("isAvailable").invoke(null);
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    private static boolean classExists(String name) {
+        try {
+            Class.forName(name, false, NettyTransport.class.getClassLoader());
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type().name();
+    }
+
+    private static class Nio extends NettyTransport {
+        @Override
+        Transport type() {
+            return Transport.NIO;
+        }
+
+        @Override
+        EventLoopGroup newEventLoopGroup(int threads) {
+            return new NioEventLoopGroup(threads);
+        }
+
+        @Override
+        Class<? extends ServerChannel> serverChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        boolean supportsReusePort() {
+            return false;
+        }
+
+        @Override
+        boolean supportsTcpFastOpen() {
+            return false;
+        }
+
+        @Override
+        void applyServerOptions(ServerBootstrap bootstrap, boolean reusePort, int tcpFastOpenQueueLength) {
+        }
+    }
+
+    /**
+     * Only loaded once it is known that the epoll classes are on the classpath.
+     */
+    private static class EpollTransport extends NettyTransport {
+        static boolean isAvailable() {
+            return Epoll.isAvailable();
+        }
+
+        @Override
+        Transport type() {
+            return Transport.EPOLL;
+        }
+
+        @Override
+        EventLoopGroup newEventLoopGroup(int threads) {
+            return new EpollEventLoopGroup(threads);
+        }
+
+        @Override
+        Class<? extends ServerChannel> serverChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        boolean supportsReusePort() {
+            return true;
+        }
+
+        @Override
+        boolean supportsTcpFastOpen() {
+            return true;
+        }
+
+        @Override
+        void applyServerOptions(ServerBootstrap bootstrap, boolean reusePort, int tcpFastOpenQueueLength) {
+            if (reusePort) {
+                bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+            if (tcpFastOpenQueueLength > 0) {
+                bootstrap.option(EpollChannelOption.TCP_FASTOPEN, tcpFastOpenQueueLength);
+            }
+        }
+    }
+
+    /**
+     * The io_uring transport is an incubator module built against newer netty versions, so it is loaded reflectively.
+     */
+    private static class IoUring extends NettyTransport {
+
+        @Override
+        Transport type() {
+            return Transport.IO_URING;
+        }
+
+        @Override
+        EventLoopGroup newEventLoopGroup(int threads) {
+            try {
+                return (EventLoopGroup) Class.forName(IO_URING_PACKAGE + "IOUringEventLoopGroup")
+                    .getConstructor(int.class)
+                    .newInstance(threads);
+            } catch (Exception e) {
+                throw new MuException("Could not create io_uring event loop group", e);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Class<? extends ServerChannel> serverChannelClass() {
+            try {
+                return (Class<? extends ServerChannel>) Class.forName(IO_URING_PACKAGE + "IOUringServerSocketChannel");
+            } catch (ClassNotFoundException e) {
+                throw new MuException("Could not load the io_uring server channel", e);
+            }
+        }
+
+        @Override
+        boolean supportsReusePort() {
+            return true;
+        }
+
+        @Override
+        boolean supportsTcpFastOpen() {
+            return true;
+        }
+
+        @Override
+        void applyServerOptions(ServerBootstrap bootstrap, boolean reusePort, int tcpFastOpenQueueLength) {
+            if (reusePort) {
+                bootstrap.option(option("SO_REUSEPORT"), true);
+            }
+            if (tcpFastOpenQueueLength > 0) {
+                bootstrap.option(option("TCP_FASTOPEN"), tcpFastOpenQueueLength);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> ChannelOption<T> option(String name) {
+            try {
+                return (ChannelOption<T>) Class.forName(IO_URING_PACKAGE + "IOUringChannelOption").getField(name).get(null);
+            } catch (Exception e) {
+                throw new MuException("Could not find io_uring channel option " + name, e);
+            }
+        }
+    }
+}
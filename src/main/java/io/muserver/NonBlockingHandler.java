@@ -0,0 +1,30 @@
+package io.muserver;
+
+/**
+ * <p>A {@link MuHandler} that never blocks, and so can be run directly on the nio thread that received the
+ * request rather than being handed to the handler executor.</p>
+ * <p>This avoids a thread hop for each request, which can be a large part of the latency of handlers that respond
+ * from memory or that immediately start handling a request asynchronously with {@link MuRequest#handleAsync()}.</p>
+ * <p>A handler of this type must not do anything that blocks, such as reading the request body with
+ * {@link MuRequest#inputStream()}, waiting on locks or I/O, or writing large responses with the response
+ * output stream. Doing so will stall every other connection using the same nio thread.</p>
+ * <p>Handlers are run on the nio thread until the first handler that is not a <code>NonBlockingHandler</code> (or that
+ * returns <code>false</code> from {@link #canRunOnNioThread(MuRequest)}), at which point that handler and all the
+ * ones after it are run on the handler executor.</p>
+ *
+ * @see Routes#nonBlockingRoute(Method, String, RouteHandler)
+ */
+public interface NonBlockingHandler extends MuHandler {
+
+    /**
+     * Allows a handler to decide per request whether it can run on the nio thread.
+     *
+     * @param request The request about to be handled.
+     * @return <code>true</code> (the default) to run this handler on the nio thread; <code>false</code> to run it and
+     * all subsequent handlers on the handler executor.
+     */
+    default boolean canRunOnNioThread(MuRequest request) {
+        return true;
+    }
+
+}
@@ -0,0 +1,89 @@
+package io.muserver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>The limits on how many request body bytes can be buffered waiting for handlers to read them.</p>
+ * <p>Each request stops reading from the client when its own buffer reaches the request high watermark, or
+ * when the total for the whole server reaches the server high watermark. Reading resumes once the
+ * request's buffer has drained to the request low watermark and the server total is at or below the
+ * server low watermark.</p>
+ */
+class RequestBodyBudget {
+    private static final Logger log = LoggerFactory.getLogger(RequestBodyBudget.class);
+
+    static final RequestBodyBudget UNLIMITED = new RequestBodyBudget(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+    final long requestLowWatermark;
+    final long requestHighWatermark;
+    final long serverLowWatermark;
+    final long serverHighWatermark;
+    private final AtomicLong serverBuffered = new AtomicLong();
+    private final Queue<Runnable> waiters = new ConcurrentLinkedQueue<>();
+
+    RequestBodyBudget(long requestLowWatermark, long requestHighWatermark, long serverLowWatermark, long serverHighWatermark) {
+        this.requestLowWatermark = requestLowWatermark;
+        this.requestHighWatermark = requestHighWatermark;
+        this.serverLowWatermark = serverLowWatermark;
+        this.serverHighWatermark = serverHighWatermark;
+    }
+
+    static void validate(long lowWatermark, long highWatermark) {
+        if (highWatermark < 1) {
+            throw new IllegalArgumentException("The high watermark must be greater than 0");
+        }
+        if (lowWatermark < 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("The low watermark must be between 0 and the high watermark");
+        }
+    }
+
+    void onBuffered(long bytes) {
+        serverBuffered.addAndGet(bytes);
+    }
+
+    void onReleased(long bytes) {
+        if (serverBuffered.addAndGet(-bytes) <= serverLowWatermark) {
+            runWaiters();
+        }
+    }
+
+    boolean serverAtHighWatermark() {
+        return serverBuffered.get() >= serverHighWatermark;
+    }
+
+    boolean serverAboveLowWatermark() {
+        return serverBuffered.get() > serverLowWatermark;
+    }
+
+    long serverBuffered() {
+        return serverBuffered.get();
+    }
+
+    /**
+     * Runs the given action once the server total is at or below the server low watermark. This must not be
+     * called while holding any locks, as the action may be run immediately.
+     */
+    void runWhenServerDrained(Runnable action) {
+        waiters.add(action);
+        if (!serverAboveLowWatermark()) {
+            runWaiters();
+        }
+    }
+
+    private void runWaiters() {
+        Runnable waiter;
+        while ((waiter = waiters.poll()) != null) {
+            try {
+                waiter.run();
+            } catch (Exception e) {
+                log.warn("Error while resuming request body reading", e);
+            }
+        }
+    }
+
+}
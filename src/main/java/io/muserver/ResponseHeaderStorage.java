@@ -0,0 +1,55 @@
+package io.muserver;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>The header map of the netty messages that start the HTTP/1.1 responses on one connection. Handlers never see it:
+ * they set headers on {@link Http1Headers}, which are copied into this map when the response is written.</p>
+ * <p>One map is kept for the connection and cleared for each response. It is in use from the time it is taken until
+ * the write of the message holding it completes, by which time netty has encoded the message. If a response starts
+ * while the previous message is still being written, it gets a new map instead.</p>
+ */
+class ResponseHeaderStorage implements ChannelFutureListener {
+
+    private final HttpHeaders headers = new DefaultHttpHeaders(false);
+    private final AtomicBoolean inUse = new AtomicBoolean(false);
+
+    /**
+     * @return An empty header map for the next message. It must be given to {@link #releaseWhenWritten(HttpHeaders, ChannelFuture)}
+     * along with the write of that message.
+     */
+    HttpHeaders take() {
+        if (inUse.compareAndSet(false, true)) {
+            headers.clear();
+            return headers;
+        }
+        return new DefaultHttpHeaders(false);
+    }
+
+    /**
+     * Makes the map available to the next response once the write of the message holding it has completed.
+     *
+     * @param taken The map returned by {@link #take()}
+     * @param write The write of the message holding the map
+     * @return The write
+     */
+    ChannelFuture releaseWhenWritten(HttpHeaders taken, ChannelFuture write) {
+        if (taken == headers) {
+            write.addListener(this);
+        }
+        return write;
+    }
+
+    @Override
+    public void operationComplete(ChannelFuture future) {
+        if (!inUse.compareAndSet(true, false)) {
+            throw new IllegalStateException("The response header map was released when it was not in use");
+        }
+    }
+
+}
@@ -0,0 +1,261 @@
+package io.muserver;
+
+import io.muserver.rest.PathMatch;
+import io.muserver.rest.UriPattern;
+
+import java.util.*;
+
+/**
+ * <p>A handler for consecutive routes registered with {@link MuServerBuilder#addHandler(Method, String, RouteHandler)}.</p>
+ * <p>The routes are compiled into a tree of path segments so that literal segments are hash lookups and
+ * <code>{name}</code> segments match any single segment. Routes using custom regexes (or parameters that are only
+ * part of a segment) are placed at the node for their literal prefix and matched against their full pattern.</p>
+ * <p>If several routes match a request then the one registered first is used, which is the same as checking each
+ * route in turn.</p>
+ * <p>Instances are immutable. Routes are collected with a {@link Builder} so that the tree is built once.</p>
+ */
+class RouteTrie implements NonBlockingHandler {
+
+    private static final String[] NO_SEGMENTS = new String[0];
+
+    private final boolean nonBlocking;
+    private final List<Route> routes;
+    private final Node root = new Node();
+
+    private RouteTrie(boolean nonBlocking, List<Route> routes) {
+        this.nonBlocking = nonBlocking;
+        this.routes = routes;
+        for (Route route : routes) {
+            add(route);
+        }
+    }
+
+    @Override
+    public boolean canRunOnNioThread(MuRequest request) {
+        return nonBlocking;
+    }
+
+    @Override
+    public boolean handle(MuRequest request, MuResponse response) throws Exception {
+        Match match = find(request.method(), request.relativePath());
+        if (match == null) {
+            return false;
+        }
+        match.handler().handle(request, response, match.params());
+        return true;
+    }
+
+    private void add(Route route) {
+        Node node = root;
+        node.minOrder = Math.min(node.minOrder, route.order);
+        String[] segments = route.trieSegments;
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            boolean isParam = route.paramNames != null && route.paramNames[i] != null;
+            Node next;
+            if (isParam) {
+                if (node.param == null) {
+                    node.param = new Node();
+                }
+                next = node.param;
+            } else {
+                next = node.literals.computeIfAbsent(segment, s -> new Node());
+            }
+            next.minOrder = Math.min(next.minOrder, route.order);
+            node = next;
+        }
+        if (route.paramNames == null) {
+            node.regexRoutes.add(route);
+        } else {
+            node.endingHere.add(route);
+        }
+    }
+
+    Match find(Method method, String rawPath) {
+        String path = rawPath.startsWith("/") ? rawPath.substring(1) : rawPath;
+        if (path.endsWith("/")) {
+            // the same as the optional trailing slash allowed by UriPattern
+            path = path.substring(0, path.length() - 1);
+        }
+        String[] segments = path.isEmpty() ? NO_SEGMENTS : path.split("/", -1);
+        return search(root, segments, 0, method, rawPath, null);
+    }
+
+    private static Match search(Node node, String[] segments, int index, Method method, String rawPath, Match best) {
+        if (best != null && node.minOrder > best.route.order) {
+            return best;
+        }
+        for (Route route : node.regexRoutes) {
+            if (best != null && route.order > best.route.order) {
+                break;
+            }
+            if (route.matchesMethod(method)) {
+                PathMatch pathMatch = route.pattern.matcher(rawPath);
+                if (pathMatch.fullyMatches()) {
+                    best = new Match(route, segments, pathMatch.params());
+                    break;
+                }
+            }
+        }
+        if (index == segments.length) {
+            for (Route route : node.endingHere) {
+                if (best != null && route.order > best.route.order) {
+                    break;
+                }
+                if (route.matchesMethod(method)) {
+                    best = new Match(route, segments, null);
+                    break;
+                }
+            }
+            return best;
+        }
+        String segment = segments[index];
+        Node literal = node.literals.get(segment);
+        if (literal != null) {
+            best = search(literal, segments, index + 1, method, rawPath, best);
+        }
+        if (node.param != null && !segment.isEmpty()) {
+            best = search(node.param, segments, index + 1, method, rawPath, best);
+        }
+        return best;
+    }
+
+    private static class Node {
+        private final Map<String, Node> literals = new HashMap<>();
+        private Node param;
+        private final List<Route> endingHere = new ArrayList<>(1);
+        private final List<Route> regexRoutes = new ArrayList<>(0);
+        private int minOrder = Integer.MAX_VALUE;
+    }
+
+    static class Match {
+        private final Route route;
+        private final String[] segments;
+        private final Map<String, String> regexParams;
+
+        private Match(Route route, String[] segments, Map<String, String> regexParams) {
+            this.route = route;
+            this.segments = segments;
+            this.regexParams = regexParams;
+        }
+
+        RouteHandler handler() {
+            return route.handler;
+        }
+
+        Map<String, String> params() {
+            if (regexParams != null) {
+                return regexParams;
+            }
+            HashMap<String, String> params = new HashMap<>();
+            String[] names = route.paramNames;
+            for (int i = 0; i < names.length; i++) {
+                if (names[i] != null) {
+                    params.put(names[i], Mutils.urlDecode(segments[i]));
+                }
+            }
+            return params;
+        }
+    }
+
+    /**
+     * Collects routes in priority order so that the tree can be built once they have all been added.
+     */
+    static class Builder {
+        private final boolean nonBlocking;
+        private final List<Route> routes = new ArrayList<>();
+
+        Builder(boolean nonBlocking) {
+            this.nonBlocking = nonBlocking;
+        }
+
+        /**
+         * Adds a route with lower priority than the routes already added
+         * @return This builder
+         */
+        Builder add(Method method, String uriTemplate, RouteHandler handler) {
+            routes.add(Route.create(routes.size(), method, uriTemplate, handler));
+            return this;
+        }
+
+        boolean isNonBlocking() {
+            return nonBlocking;
+        }
+
+        RouteTrie build() {
+            return new RouteTrie(nonBlocking, Collections.unmodifiableList(new ArrayList<>(routes)));
+        }
+    }
+
+    private static class Route {
+        private final int order;
+        private final Method method;
+        private final UriPattern pattern;
+        private final RouteHandler handler;
+        /**
+         * The URL-encoded literal segments, which for regex routes is only the literal prefix
+         */
+        private final String[] trieSegments;
+        /**
+         * The parameter name for each segment (null for literal segments), or null if the full pattern must be used
+         */
+        private final String[] paramNames;
+
+        private Route(int order, Method method, UriPattern pattern, RouteHandler handler, String[] trieSegments, String[] paramNames) {
+            this.order = order;
+            this.method = method;
+            this.pattern = pattern;
+            this.handler = handler;
+            this.trieSegments = trieSegments;
+            this.paramNames = paramNames;
+        }
+
+        boolean matchesMethod(Method requestMethod) {
+            return method == null || method == requestMethod;
+        }
+
+        static Route create(int order, Method method, String uriTemplate, RouteHandler handler) {
+            Mutils.notNull("handler", handler);
+            UriPattern pattern = UriPattern.uriTemplateToRegex(uriTemplate);
+            String template = uriTemplate;
+            if (template.startsWith("/")) {
+                template = template.substring(1);
+            }
+            if (template.endsWith("/")) {
+                template = template.substring(0, template.length() - 1);
+            }
+            String[] parts = template.isEmpty() ? NO_SEGMENTS : template.split("/", -1);
+            String[] names = new String[parts.length];
+            Set<String> seen = new HashSet<>();
+            int leadingLiterals = 0;
+            boolean simple = true;
+            for (int i = 0; i < parts.length; i++) {
+                String part = parts[i];
+                boolean hasBrace = part.indexOf('{') > -1 || part.indexOf('}') > -1;
+                if (!hasBrace) {
+                    if (part.indexOf('%') > -1) {
+                        // encoded literals are normalised by the pattern, so leave them to the regex
+                        simple = false;
+                        break;
+                    }
+                    parts[i] = Mutils.urlEncode(part);
+                    if (leadingLiterals == i) {
+                        leadingLiterals++;
+                    }
+                    continue;
+                }
+                String name = part.startsWith("{") && part.endsWith("}") ? part.substring(1, part.length() - 1).trim() : null;
+                if (name == null || name.isEmpty() || name.indexOf(':') > -1 || name.indexOf('{') > -1 || name.indexOf('}') > -1 || !seen.add(name)) {
+                    simple = false;
+                    break;
+                }
+                names[i] = name;
+            }
+            if (simple) {
+                return new Route(order, method, pattern, handler, parts, names);
+            }
+            // only the literal segments before the first parameter can be used to place a regex route in the tree
+            return new Route(order, method, pattern, handler, Arrays.copyOf(parts, leadingLiterals), null);
+        }
+    }
+}
@@ -37,5 +37,20 @@ public class Routes {
 		};
 	}
 
+    /**
+     * Creates a new handler that will only be called if it matches the given route info, and which is run directly
+     * on the nio thread that received the request. The route handler must not block. See {@link NonBlockingHandler}
+     * for details.
+     * @param method The method to match, or <code>null</code> to accept any method.
+     * @param uriTemplate A URL template, as described in {@link #route(Method, String, RouteHandler)}.
+     * @param muHandler The non-blocking handler to invoke if the method and URI matches.
+     * @return Returns a {@link NonBlockingHandler} that is only called if the request URI and method matches.
+     * @see MuServerBuilder#addNonBlockingHandler(Method, String, RouteHandler)
+     */
+    public static NonBlockingHandler nonBlockingRoute(Method method, String uriTemplate, RouteHandler muHandler) {
+        MuHandler route = route(method, uriTemplate, muHandler);
+        return route::handle;
+    }
+
 	private Routes() {}
 }
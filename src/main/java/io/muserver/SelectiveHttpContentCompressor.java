@@ -3,6 +3,7 @@ package io.muserver;
 import io.netty.handler.codec.http.HttpContentCompressor;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpResponse;
+import io.netty.util.AsciiString;
 
 import static io.muserver.NettyResponseAdaptor.getVaryWithAE;
 
@@ -14,6 +15,17 @@ class SelectiveHttpContentCompressor extends HttpContentCompressor {
         this.settings = settings;
     }
 
+    /**
+     * @return False if a response with the given headers is definitely not going to be compressed
+     */
+    boolean mightCompress(Headers responseHeaders) {
+        String contentEncoding = responseHeaders.get(HeaderNames.CONTENT_ENCODING);
+        if (contentEncoding != null && !AsciiString.contentEqualsIgnoreCase(HeaderValues.IDENTITY, contentEncoding)) {
+            return false;
+        }
+        return settings.shouldCompress(responseHeaders.get(HeaderNames.CONTENT_LENGTH), responseHeaders.get(HeaderNames.CONTENT_TYPE));
+    }
+
     @Override
     protected Result beginEncode(HttpResponse response, String acceptEncoding) throws Exception {
         String declaredLength = response.headers().get(HttpHeaderNames.CONTENT_LENGTH);
@@ -12,8 +12,14 @@ class ServerSettings {
     final boolean gzipEnabled;
     final Set<String> mimeTypesToGzip;
     final List<RateLimiter> rateLimiters;
+    final long requestBodyLowWatermark;
+    final long requestBodyHighWatermark;
+    final long serverRequestBodyLowWatermark;
+    final long serverRequestBodyHighWatermark;
+    final int responseLowWatermark;
+    final int responseHighWatermark;
 
-    ServerSettings(long minimumGzipSize, int maxHeadersSize, long requestReadTimeoutMillis, long maxRequestSize, int maxUrlSize, boolean gzipEnabled, Set<String> mimeTypesToGzip, List<RateLimiter> rateLimiters) {
+    ServerSettings(long minimumGzipSize, int maxHeadersSize, long requestReadTimeoutMillis, long maxRequestSize, int maxUrlSize, boolean gzipEnabled, Set<String> mimeTypesToGzip, List<RateLimiter> rateLimiters, long requestBodyLowWatermark, long requestBodyHighWatermark, long serverRequestBodyLowWatermark, long serverRequestBodyHighWatermark, int responseLowWatermark, int responseHighWatermark) {
         this.minimumGzipSize = minimumGzipSize;
         this.maxHeadersSize = maxHeadersSize;
         this.requestReadTimeoutMillis = requestReadTimeoutMillis;
@@ -22,6 +28,12 @@ class ServerSettings {
         this.gzipEnabled = gzipEnabled;
         this.mimeTypesToGzip = mimeTypesToGzip;
         this.rateLimiters = rateLimiters;
+        this.requestBodyLowWatermark = requestBodyLowWatermark;
+        this.requestBodyHighWatermark = requestBodyHighWatermark;
+        this.serverRequestBodyLowWatermark = serverRequestBodyLowWatermark;
+        this.serverRequestBodyHighWatermark = serverRequestBodyHighWatermark;
+        this.responseLowWatermark = responseLowWatermark;
+        this.responseHighWatermark = responseHighWatermark;
     }
 
     boolean shouldCompress(String declaredLength, String contentType) {
@@ -0,0 +1,31 @@
+package io.muserver;
+
+/**
+ * <p>The network transport used to accept connections and perform socket I/O.</p>
+ * <p>Native transports require the matching netty native library to be on the classpath. For epoll this is
+ * <code>io.netty:netty-transport-native-epoll</code> (with the <code>linux-x86_64</code> or <code>linux-aarch_64</code>
+ * classifier) and for io_uring it is <code>io.netty.incubator:netty-incubator-transport-native-io_uring</code>.</p>
+ * @see MuServerBuilder#withTransport(Transport)
+ */
+public enum Transport {
+
+    /**
+     * Uses io_uring if available, then epoll if available, and otherwise falls back to {@link #NIO}.
+     */
+    AUTO,
+
+    /**
+     * The default JDK NIO based transport, which is available on all platforms.
+     */
+    NIO,
+
+    /**
+     * The Linux-only native epoll transport. Starting the server fails if it is not available.
+     */
+    EPOLL,
+
+    /**
+     * The Linux-only native io_uring transport. Starting the server fails if it is not available.
+     */
+    IO_URING
+}
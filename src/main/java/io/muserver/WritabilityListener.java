@@ -0,0 +1,19 @@
+package io.muserver;
+
+/**
+ * A callback for when a response changes between being writable and having too much data waiting to be sent.
+ * @see AsyncHandle#setWritabilityListener(WritabilityListener)
+ */
+public interface WritabilityListener {
+
+    /**
+     * <p>Called when the amount of data written to a response but not yet sent to the client rises above the high
+     * watermark (in which case <code>writable</code> is false) or drops back to the low watermark (in which case it
+     * is true).</p>
+     * <p>This may be called on the server's event loop, so it should not block. As changes can happen quickly, use
+     * {@link AsyncHandle#isWritable()} to find the current state.</p>
+     * @param writable True if more data can be written without it waiting in memory
+     * @see MuServerBuilder#withResponseWatermarks(int, int)
+     */
+    void onWritabilityChanged(boolean writable);
+}
@@ -1,11 +1,24 @@
 package io.muserver.handlers;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.TreeMap;
 
 import static java.util.Collections.emptyList;
 
 class BytesRange {
+    /**
+     * The most parts that a multi-range request is answered with after {@link #coalesce(List)}. Requests for more
+     * parts than this get the whole resource.
+     */
+    static final int MAX_PARTS = 100;
+
+    /**
+     * Ranges separated by less than this are sent as one part, as the headers for another part would be about as big
+     */
+    private static final long MERGE_GAP = 80;
+
     final long from;
     final long to;
     final long total;
@@ -49,6 +62,42 @@ class BytesRange {
         return ranges;
     }
 
+    /**
+     * Merges any of the given ranges that overlap or are close together, so that requests for many overlapping
+     * ranges cannot be used to make the server send the same bytes many times.
+     * @param ranges Ranges from {@link #parse(long, String)}
+     * @return The ranges to send. They are in the order they were requested, with each merged range taking the
+     * place of the first requested range that it contains.
+     */
+    static List<BytesRange> coalesce(List<BytesRange> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+        List<Integer> byStart = new ArrayList<>(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            byStart.add(i);
+        }
+        byStart.sort(Comparator.comparingLong(i -> ranges.get(i).from));
+        // keyed by the position in the request of the first range that each merged range contains
+        TreeMap<Integer, BytesRange> merged = new TreeMap<>();
+        int firstIndex = byStart.get(0);
+        BytesRange current = ranges.get(firstIndex);
+        for (int i = 1; i < byStart.size(); i++) {
+            int index = byStart.get(i);
+            BytesRange next = ranges.get(index);
+            if (next.from <= current.to + 1 + MERGE_GAP) {
+                current = new BytesRange(current.from, Math.max(current.to, next.to), current.total);
+                firstIndex = Math.min(firstIndex, index);
+            } else {
+                merged.put(firstIndex, current);
+                current = next;
+                firstIndex = index;
+            }
+        }
+        merged.put(firstIndex, current);
+        return new ArrayList<>(merged.values());
+    }
+
     private static long getRangeValue(String bit) {
         bit = bit.trim();
         if (bit.isEmpty()) {
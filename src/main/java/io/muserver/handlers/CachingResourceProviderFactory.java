@@ -0,0 +1,164 @@
+package io.muserver.handlers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+/**
+ * <p>A resource provider factory that keeps the contents of files from another factory in memory. For files that
+ * can be compressed, any pre-compressed versions from the other factory are also kept, and a gzipped copy is made if
+ * there is no pre-gzipped version.</p>
+ * <p>The cache holds at most <code>maxSize</code> bytes (counting all versions of a file) and the least recently
+ * used files are removed when it is full. Files larger than <code>maxFileSize</code> are never cached.</p>
+ * <p>A cached file is checked against the underlying factory at most once per <code>checkIntervalNanos</code>, and
+ * it is reloaded if its entity tag (which is based on the size and last modified date) has changed. Pre-compressed versions are only reloaded along with
+ * the original file.</p>
+ * <p>If several requests need a file that is not cached (or has changed) at once, it is only loaded by one of them
+ * and the others wait for that load.</p>
+ */
+class CachingResourceProviderFactory implements ResourceProviderFactory {
+    private static final Logger log = LoggerFactory.getLogger(CachingResourceProviderFactory.class);
+
+    private final ResourceProviderFactory underlying;
+    private final long maxSize;
+    private final long maxFileSize;
+    private final long checkIntervalNanos;
+    private final Predicate<String> compressible;
+    private final LinkedHashMap<String, CachedResource> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<String, Load> loads = new HashMap<>();
+    private long size = 0;
+
+    CachingResourceProviderFactory(ResourceProviderFactory underlying, long maxSize, long maxFileSize, long checkIntervalNanos, Predicate<String> compressible) {
+        this.underlying = underlying;
+        this.maxSize = maxSize;
+        this.maxFileSize = maxFileSize;
+        this.checkIntervalNanos = checkIntervalNanos;
+        this.compressible = compressible;
+    }
+
+    @Override
+    public ResourceProvider get(String relativePath) {
+        CachedResource entry;
+        synchronized (entries) {
+            entry = entries.get(relativePath);
+        }
+        long now = System.nanoTime();
+        if (entry != null && now - entry.checkedAt < checkIntervalNanos) {
+            return entry.resource.provider();
+        }
+
+        ResourceProvider provider = underlying.get(relativePath);
+        boolean isFile = provider.exists() && !provider.isDirectory();
+        if (entry != null) {
+            String etag = entry.resource.etag();
+            if (isFile && etag != null && etag.equals(provider.etag())) {
+                entry.checkedAt = now;
+                return entry.resource.provider();
+            }
+            remove(relativePath, entry);
+        }
+        Long fileSize = provider.fileSize();
+        if (!isFile || fileSize == null || fileSize > maxFileSize) {
+            return provider;
+        }
+        String etag = provider.etag();
+        Load load;
+        boolean loader = false;
+        synchronized (entries) {
+            load = loads.get(relativePath);
+            if (load == null || etag == null || !etag.equals(load.etag)) {
+                load = new Load(etag);
+                loads.put(relativePath, load);
+                loader = true;
+            }
+        }
+        if (loader) {
+            try {
+                entry = new CachedResource(InMemoryResource.load(provider, compressible.test(relativePath), true, maxFileSize), now);
+                add(relativePath, entry);
+                load.resource.complete(entry);
+            } catch (IOException | RuntimeException e) {
+                load.resource.completeExceptionally(e);
+            } finally {
+                synchronized (entries) {
+                    loads.remove(relativePath, load);
+                }
+            }
+        }
+        try {
+            return ResourceProvider.await(load.resource).resource.provider();
+        } catch (IOException e) {
+            log.info("Could not cache " + relativePath + " so it will be served without caching: " + e.getMessage());
+            return provider;
+        }
+    }
+
+    private void add(String relativePath, CachedResource entry) {
+        if (entry.weight > maxSize) {
+            return;
+        }
+        synchronized (entries) {
+            CachedResource previous = entries.put(relativePath, entry);
+            if (previous != null) {
+                size -= previous.weight;
+            }
+            size += entry.weight;
+            Iterator<Map.Entry<String, CachedResource>> iterator = entries.entrySet().iterator();
+            while (size > maxSize && iterator.hasNext()) {
+                size -= iterator.next().getValue().weight;
+                iterator.remove();
+            }
+        }
+    }
+
+    private void remove(String relativePath, CachedResource entry) {
+        synchronized (entries) {
+            if (entries.remove(relativePath, entry)) {
+                size -= entry.weight;
+            }
+        }
+    }
+
+    boolean isCached(String relativePath) {
+        synchronized (entries) {
+            return entries.containsKey(relativePath);
+        }
+    }
+
+    /**
+     * @return The number of bytes held by the cache
+     */
+    long size() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    private static class Load {
+        private final String etag;
+        private final CompletableFuture<CachedResource> resource = new CompletableFuture<>();
+
+        private Load(String etag) {
+            this.etag = etag;
+        }
+    }
+
+    private static class CachedResource {
+        private final InMemoryResource resource;
+        private final long weight;
+        private volatile long checkedAt;
+
+        private CachedResource(InMemoryResource resource, long checkedAt) {
+            this.resource = resource;
+            this.weight = resource.weight();
+            this.checkedAt = checkedAt;
+        }
+    }
+}
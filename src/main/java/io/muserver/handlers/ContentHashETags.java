@@ -0,0 +1,81 @@
+package io.muserver.handlers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Entity tags made from a SHA-256 hash of the content of each resource, which unlike the size and time based tags
+ * are the same on every server that has a copy of the file.</p>
+ * <p>Each hash is kept (for up to {@link #MAX_ENTRIES} resources) until the size and time based tag of the resource
+ * changes, so each version of a file is only read once.</p>
+ */
+class ContentHashETags {
+    static final int MAX_ENTRIES = 10000;
+
+    private final LinkedHashMap<String, Hash> hashes = new LinkedHashMap<String, Hash>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Hash> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * @param relativePath The path of the resource
+     * @param provider The resource
+     * @return A strong entity tag, or <code>null</code> if the resource has no size and time based tag to validate the hash with
+     */
+    String etag(String relativePath, ResourceProvider provider) throws IOException {
+        String fileETag = provider.etag();
+        if (fileETag == null) {
+            return null;
+        }
+        Hash hash;
+        synchronized (hashes) {
+            hash = hashes.get(relativePath);
+        }
+        if (hash != null && hash.fileETag.equals(fileETag)) {
+            return hash.etag;
+        }
+        hash = new Hash(fileETag, hashOf(provider));
+        synchronized (hashes) {
+            hashes.put(relativePath, hash);
+        }
+        return hash.etag;
+    }
+
+    private static String hashOf(ResourceProvider provider) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        try (ReadableByteChannel channel = provider.openChannel()) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        byte[] hash = Arrays.copyOf(digest.digest(), 16);
+        return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(hash) + "\"";
+    }
+
+    private static class Hash {
+        private final String fileETag;
+        private final String etag;
+
+        private Hash(String fileETag, String etag) {
+            this.fileETag = fileETag;
+            this.etag = etag;
+        }
+    }
+}
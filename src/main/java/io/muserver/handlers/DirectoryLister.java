@@ -4,33 +4,50 @@ import io.muserver.Mutils;
 
 import java.io.IOException;
 import java.io.Writer;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.stream.Stream;
 
 import static io.muserver.Mutils.urlEncode;
 import static java.util.Collections.singletonMap;
 
+/**
+ * Renders one page of a directory listing, sorted by one of the columns.
+ */
 class DirectoryLister {
     private final Writer writer;
     private final String contextPath;
     private final String relativePath;
-    private final ResourceProvider provider;
+    private final List<DirectoryListingCache.Entry> entries;
+    private final DirectoryListingCache.Sort sort;
+    private final boolean descending;
+    private final int page;
+    private final int pageSize;
     private final String directoryListingCss;
     private final DateTimeFormatter dateFormatter;
 
-    DirectoryLister(Writer writer, ResourceProvider provider, String contextPath, String relativePath, String directoryListingCss, DateTimeFormatter dateFormatter) {
+    /**
+     * @param entries All the entries in the directory, sorted in ascending order of the <code>sort</code> column
+     * @param page The 1-based page number to render, which is changed to the nearest page if out of range
+     */
+    DirectoryLister(Writer writer, String contextPath, String relativePath, List<DirectoryListingCache.Entry> entries, DirectoryListingCache.Sort sort, boolean descending, int page, int pageSize, String directoryListingCss, DateTimeFormatter dateFormatter) {
         this.writer = writer;
-        this.provider = provider;
         this.contextPath = contextPath;
         this.relativePath = relativePath;
+        this.entries = entries;
+        this.sort = sort;
+        this.descending = descending;
+        this.pageSize = pageSize;
+        this.page = Math.max(1, Math.min(page, pageCount()));
         this.directoryListingCss = directoryListingCss;
         this.dateFormatter = dateFormatter;
     }
 
+    private int pageCount() {
+        return Math.max(1, (entries.size() + pageSize - 1) / pageSize);
+    }
+
     void render() throws IOException {
         El html = new El("html").open();
         El head = new El("head").open();
@@ -48,9 +65,9 @@ class DirectoryLister {
         El thead = new El("thead").open();
 
         El theadRow = new El("tr").open();
-        render("th", "Filename");
-        new El("th").open(singletonMap("class", "size")).content("Size").close();
-        render("th", "Last modified");
+        renderHeading("Filename", DirectoryListingCache.Sort.NAME, null);
+        renderHeading("Size", DirectoryListingCache.Sort.SIZE, "size");
+        renderHeading("Last modified", DirectoryListingCache.Sort.MODIFIED, null);
         theadRow.close();
         thead.close();
 
@@ -66,77 +83,65 @@ class DirectoryLister {
             parentDirRow.close();
         }
 
-        try (Stream<Path> files = provider.listFiles()) {
-            files.forEach(path -> {
-                    try {
-                        boolean isDir = Files.isDirectory(path);
-                        El tr = new El("tr").open(singletonMap("class", isDir ? "dir" : "file"));
-                        String filename = path.getFileName().toString();
-                        El nameTd = new El("td").open();
-                        new El("a").open(singletonMap("href", urlEncode(filename) + (isDir ? "/" : "")))
-                            .content(isDir ? filename + "/" : filename).close();
-                        nameTd.close();
-                        if (isDir) {
-                            render("td", "");
-                            render("td", "");
-                        } else {
-                            new El("td").open(singletonMap("class", "size")).content(String.valueOf(Files.size(path))).close();
-                            El timeTd = new El("td").open();
-                            Instant lastMod = Files.getLastModifiedTime(path).toInstant();
-                            new El("time").open(singletonMap("datetime", lastMod.toString()))
-                                .content(dateFormatter.format(lastMod)).close();
-                            timeTd.close();
-                        }
-                        tr.close();
-                    } catch (IOException e) {
-                        throw new RuntimeException("Error rendering file", e);
-                    }
-                });
+        int end = Math.min(entries.size(), page * pageSize);
+        for (int i = (page - 1) * pageSize; i < end; i++) {
+            DirectoryListingCache.Entry entry = entries.get(descending ? entries.size() - 1 - i : i);
+            El tr = new El("tr").open(singletonMap("class", entry.isDir ? "dir" : "file"));
+            El nameTd = new El("td").open();
+            new El("a").open(singletonMap("href", urlEncode(entry.name) + (entry.isDir ? "/" : "")))
+                .content(entry.isDir ? entry.name + "/" : entry.name).close();
+            nameTd.close();
+            if (entry.isDir) {
+                render("td", "");
+                render("td", "");
+            } else {
+                new El("td").open(singletonMap("class", "size")).content(String.valueOf(entry.size)).close();
+                El timeTd = new El("td").open();
+                new El("time").open(singletonMap("datetime", entry.lastModified.toString()))
+                    .content(dateFormatter.format(entry.lastModified)).close();
+                timeTd.close();
+            }
+            tr.close();
         }
 
         tbody.close();
         table.close();
 
+        int pageCount = pageCount();
+        if (pageCount > 1) {
+            El nav = new El("nav").open(singletonMap("class", "pages"));
+            if (page > 1) {
+                new El("a").open(singletonMap("href", query(sort, descending, page - 1))).content("Previous").close();
+                writer.write(' ');
+            }
+            new El("span").open().content("Page " + page + " of " + pageCount).close();
+            if (page < pageCount) {
+                writer.write(' ');
+                new El("a").open(singletonMap("href", query(sort, descending, page + 1))).content("Next").close();
+            }
+            nav.close();
+        }
+
         main.close();
         body.close();
+        html.close();
+    }
 
-        new El("script").open()
-            //language=JavaScript 1.6
-            .contentRaw(
-                "document.addEventListener('DOMContentLoaded', () => {\n" +
-                    "    " +
-                    "const getCellValue = (tr, idx) => {\n" +
-                    "        let td = tr.children[idx];\n" +
-                    "        let time = td.querySelector('time');\n" +
-                    "        return time ? time.dateTime : td.textContent;\n" +
-                    "    };\n" +
-                    "\n" +
-                    "    " +
-                    "const comparer = (idx, asc) => (a, b) => ((v1, v2) =>\n" +
-                    "        " +
-                    "    v1 !== '' && v2 !== '' && !isNaN(v1) && !isNaN(v2) ? v1 - v2 : v1.toString().localeCompare(v2)\n" +
-                    "    )(getCellValue(asc ? a : b, idx), getCellValue(asc ? b : a, idx));\n" +
-                    "\n" +
-                    "    let asc = true;\n" +
-                    "    " +
-                    "document.querySelectorAll('th').forEach(th => {\n" +
-                    "            th.style.cursor = 'pointer';\n" +
-                    "            th.title = 'Sort by ' + th.textContent;\n" +
-                    "            th.addEventListener('click', (() => {\n" +
-                    "                const tbody = th.closest('table').querySelector('tbody');\n" +
-                    "                " +
-                    "Array.from(tbody.querySelectorAll('tr'))\n" +
-                    "                    .sort(comparer(Array.from(th.parentNode.children).indexOf(th), asc = !asc))\n" +
-                    "                    .forEach(tr =>" +
-                    " tbody.appendChild(tr)" +
-                    ");\n" +
-                    "            " +
-                    "}))\n" +
-                    "        }\n" +
-                    "    );\n" +
-                "});").close(); // adapted from https://stackoverflow.com/a/49041392/131578
+    /**
+     * Renders a column heading that links to the listing sorted by the column, or in the reverse order if the
+     * listing is already sorted by it.
+     */
+    private void renderHeading(String text, DirectoryListingCache.Sort column, String cssClass) throws IOException {
+        El th = new El("th").open(cssClass == null ? null : singletonMap("class", cssClass));
+        boolean reverse = column == sort && !descending;
+        new El("a").open(singletonMap("href", query(column, reverse, 1))).content(text).close();
+        th.close();
+    }
 
-        html.close();
+    private static String query(DirectoryListingCache.Sort sort, boolean descending, int page) {
+        return "?sort=" + sort.name().toLowerCase(Locale.ROOT)
+            + (descending ? "&order=desc" : "")
+            + (page > 1 ? "&page=" + page : "");
     }
 
     private void render(String tag, String value) throws IOException {
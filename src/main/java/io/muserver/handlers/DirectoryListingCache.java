@@ -0,0 +1,148 @@
+package io.muserver.handlers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * <p>Holds the entries of directories that have been listed, so that a large directory is read once rather than
+ * for every request for its listing.</p>
+ * <p>A listing is read again when the last modified time of the directory changes (which happens when files are added,
+ * removed or renamed) or when it is older than the maximum age, so that changed file sizes are eventually shown. If
+ * several requests need the same listing at once, it is only read by one of them.</p>
+ */
+class DirectoryListingCache {
+    static final int MAX_DIRECTORIES = 100;
+
+    private final long maxAgeNanos;
+    private final LinkedHashMap<String, Listing> listings = new LinkedHashMap<String, Listing>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Listing> eldest) {
+            return size() > MAX_DIRECTORIES;
+        }
+    };
+
+    DirectoryListingCache(long maxAgeNanos) {
+        this.maxAgeNanos = maxAgeNanos;
+    }
+
+    /**
+     * Gets the entries of a directory, reading them if there is no up-to-date listing
+     * @param relativePath The path of the directory
+     * @param directory The directory
+     * @param sort The column to sort by
+     * @return The entries, sorted in ascending order of the given column
+     * @throws IOException If the directory could not be read
+     */
+    List<Entry> get(String relativePath, ResourceProvider directory, Sort sort) throws IOException {
+        Date lastModified = directory.lastModified();
+        long now = System.nanoTime();
+        Listing listing;
+        boolean load = false;
+        synchronized (listings) {
+            listing = listings.get(relativePath);
+            if (listing == null || !Objects.equals(listing.lastModified, lastModified) || now - listing.loadedAt >= maxAgeNanos) {
+                listing = new Listing(lastModified, now);
+                listings.put(relativePath, listing);
+                load = true;
+            }
+        }
+        if (load) {
+            try {
+                listing.entries.complete(read(directory));
+            } catch (IOException | RuntimeException e) {
+                listing.entries.completeExceptionally(e);
+                synchronized (listings) {
+                    listings.remove(relativePath, listing);
+                }
+                throw e;
+            }
+        }
+        List<Entry> entries = ResourceProvider.await(listing.entries);
+        return listing.sorted.computeIfAbsent(sort, s -> {
+            List<Entry> sorted = new ArrayList<>(entries);
+            sorted.sort(s.comparator);
+            return Collections.unmodifiableList(sorted);
+        });
+    }
+
+    private static List<Entry> read(ResourceProvider directory) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> files = directory.listFiles()) {
+            for (Iterator<Path> it = files.iterator(); it.hasNext(); ) {
+                Path path = it.next();
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue; // deleted since it was listed
+                }
+                boolean isDir = attributes.isDirectory();
+                entries.add(new Entry(path.getFileName().toString(), isDir,
+                    isDir ? -1 : attributes.size(), attributes.lastModifiedTime().toInstant()));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * The columns that a listing can be sorted by, named by the value of the <code>sort</code> query string parameter
+     */
+    enum Sort {
+        NAME(Comparator.comparing((Entry e) -> e.name, String.CASE_INSENSITIVE_ORDER).thenComparing(e -> e.name)),
+        SIZE(Comparator.comparingLong((Entry e) -> e.size).thenComparing(NAME.comparator)),
+        MODIFIED(Comparator.comparing((Entry e) -> e.lastModified).thenComparing(NAME.comparator));
+
+        private final Comparator<Entry> comparator;
+
+        Sort(Comparator<Entry> comparator) {
+            this.comparator = comparator;
+        }
+
+        /**
+         * @param value A query string value such as <code>size</code>
+         * @return The matching sort, or {@link #NAME} if the value is not valid
+         */
+        static Sort fromQuery(String value) {
+            for (Sort sort : values()) {
+                if (sort.name().equalsIgnoreCase(value)) {
+                    return sort;
+                }
+            }
+            return NAME;
+        }
+    }
+
+    static class Entry {
+        final String name;
+        final boolean isDir;
+        final long size;
+        final Instant lastModified;
+
+        Entry(String name, boolean isDir, long size, Instant lastModified) {
+            this.name = name;
+            this.isDir = isDir;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static class Listing {
+        private final Date lastModified;
+        private final long loadedAt;
+        private final CompletableFuture<List<Entry>> entries = new CompletableFuture<>();
+        private final ConcurrentHashMap<Sort, List<Entry>> sorted = new ConcurrentHashMap<>();
+
+        private Listing(Date lastModified, long loadedAt) {
+            this.lastModified = lastModified;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
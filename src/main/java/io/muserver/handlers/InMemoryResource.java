@@ -0,0 +1,217 @@
+package io.muserver.handlers;
+
+import io.muserver.AsyncHandle;
+import io.muserver.DoneCallback;
+import io.muserver.MuRequest;
+import io.muserver.MuResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static io.muserver.handlers.ResourceProvider.ENCODED_FILE_EXTENSIONS;
+
+/**
+ * <p>The contents of a file, and of any compressed versions of it, held in read-only buffers. The buffers are never
+ * changed, so any number of requests can send slices of them at the same time.</p>
+ * <p>The buffers are direct but not pooled: a resource that has been removed from a cache may still be being sent
+ * by earlier requests, so there is no point at which a pooled buffer could safely be released. Instead, the garbage
+ * collector frees a buffer once nothing refers to it.</p>
+ */
+class InMemoryResource {
+
+    private final ByteBuffer content;
+    private final Map<String, ByteBuffer> encodedContent;
+    private final Date lastModified;
+    private final String etag;
+
+    private InMemoryResource(ByteBuffer content, Map<String, ByteBuffer> encodedContent, Date lastModified, String etag) {
+        this.content = content;
+        this.encodedContent = encodedContent;
+        this.lastModified = lastModified;
+        this.etag = etag;
+    }
+
+    /**
+     * Reads a file into memory.
+     * @param provider The file to read
+     * @param compressible If <code>true</code> then any pre-compressed versions of the file that are no larger than
+     *                     <code>maxFileSize</code> are also read
+     * @param makeGzipCopy If <code>true</code> and the file is compressible, a gzipped copy is made if there is no
+     *                     pre-gzipped version and gzipping makes the file smaller
+     * @param maxFileSize The size of the largest pre-compressed version to read
+     * @return The file contents
+     * @throws IOException If the file could not be read
+     */
+    static InMemoryResource load(ResourceProvider provider, boolean compressible, boolean makeGzipCopy, long maxFileSize) throws IOException {
+        Date lastModified = provider.lastModified();
+        String etag = provider.etag();
+        ByteBuffer content = provider.readFully();
+        Map<String, ByteBuffer> encodedContent = Collections.emptyMap();
+        if (compressible) {
+            encodedContent = new HashMap<>(4);
+            for (String encoding : ENCODED_FILE_EXTENSIONS.keySet()) {
+                ResourceProvider encoded = provider.encoded(encoding);
+                Long encodedSize = encoded == null ? null : encoded.fileSize();
+                if (encodedSize != null && encodedSize <= maxFileSize) {
+                    encodedContent.put(encoding, encoded.readFully().asReadOnlyBuffer());
+                }
+            }
+            if (makeGzipCopy && !encodedContent.containsKey("gzip")) {
+                ByteBuffer gzipped = gzip(content);
+                if (gzipped.remaining() < content.remaining()) {
+                    encodedContent.put("gzip", gzipped.asReadOnlyBuffer());
+                }
+            }
+        }
+        return new InMemoryResource(content.asReadOnlyBuffer(), encodedContent, lastModified, etag);
+    }
+
+    /**
+     * @return The entity tag of the file when it was read
+     */
+    String etag() {
+        return etag;
+    }
+
+    /**
+     * @return The number of bytes held, including compressed versions
+     */
+    long weight() {
+        long weight = content.capacity();
+        for (ByteBuffer encoded : encodedContent.values()) {
+            weight += encoded.capacity();
+        }
+        return weight;
+    }
+
+    /**
+     * @return A provider for a single request for the file
+     */
+    ResourceProvider provider() {
+        return new InMemoryResourceProvider(this, content);
+    }
+
+    private static ByteBuffer gzip(ByteBuffer content) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(content.remaining() / 2 + 32);
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream(baos) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }; WritableByteChannel channel = Channels.newChannel(gzipStream)) {
+            channel.write(content.duplicate());
+        }
+        ByteBuffer gzipped = ByteBuffer.allocateDirect(baos.size());
+        gzipped.put(baos.toByteArray());
+        gzipped.flip();
+        return gzipped;
+    }
+
+    /**
+     * Serves an in-memory resource. A new instance is used for each request as the start position can be changed.
+     */
+    private static class InMemoryResourceProvider implements ResourceProvider {
+        private static final Logger log = LoggerFactory.getLogger(InMemoryResourceProvider.class);
+        private final InMemoryResource resource;
+        private final ByteBuffer content;
+        private int position = 0;
+
+        private InMemoryResourceProvider(InMemoryResource resource, ByteBuffer content) {
+            this.resource = resource;
+            this.content = content;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public Long fileSize() {
+            return (long) content.remaining();
+        }
+
+        @Override
+        public Date lastModified() {
+            return resource.lastModified;
+        }
+
+        @Override
+        public boolean skipIfPossible(long bytes) {
+            if (bytes > content.remaining()) {
+                return false;
+            }
+            this.position = (int) bytes;
+            return true;
+        }
+
+        @Override
+        public void sendTo(MuRequest request, MuResponse response, boolean sendBody, long maxLen) {
+            if (!sendBody) {
+                return;
+            }
+            ByteBuffer toSend = content.duplicate();
+            toSend.position(position);
+            if (maxLen < toSend.remaining()) {
+                toSend.limit(position + (int) maxLen);
+            }
+            if (!toSend.hasRemaining()) {
+                return;
+            }
+            AsyncHandle handle = request.handleAsync();
+            handle.write(toSend, error -> {
+                if (error != null) {
+                    // client probably disconnected... no big deal
+                    log.debug("Error while sending in-memory resource", error);
+                }
+                handle.complete();
+            });
+        }
+
+        @Override
+        public void writeRange(AsyncHandle handle, long from, long length, DoneCallback callback) {
+            ByteBuffer toSend = content.duplicate();
+            toSend.position((int) from);
+            toSend.limit((int) (from + length));
+            handle.write(toSend, callback);
+        }
+
+        @Override
+        public Stream<Path> listFiles() {
+            return Stream.empty();
+        }
+
+        @Override
+        public ByteBuffer readFully() {
+            return content.duplicate();
+        }
+
+        @Override
+        public ResourceProvider encoded(String contentEncoding) {
+            ByteBuffer encoded = content == resource.content ? resource.encodedContent.get(contentEncoding) : null;
+            return encoded == null ? null : new InMemoryResourceProvider(resource, encoded);
+        }
+
+        @Override
+        public String etag() {
+            return content == resource.content ? resource.etag : null;
+        }
+    }
+}
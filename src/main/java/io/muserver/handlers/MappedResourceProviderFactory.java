@@ -0,0 +1,311 @@
+package io.muserver.handlers;
+
+import io.muserver.AsyncHandle;
+import io.muserver.DoneCallback;
+import io.muserver.MuRequest;
+import io.muserver.MuResponse;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.IllegalReferenceCountException;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * <p>A resource provider factory that serves large files from another factory by mapping them into memory with
+ * {@link FileChannel#map(FileChannel.MapMode, long, long)}. Each file is mapped once and slices of the mapping are
+ * written for every request, so hot files are sent (and encrypted for HTTPS) straight from the page cache without
+ * being read for each request.</p>
+ * <p>At most <code>maxMappedSize</code> bytes are mapped at a time, and the least recently used files are unmapped
+ * when more space is needed. A mapping is also dropped when the size, last modified time or identity of its file
+ * changes, which is checked at most once per <code>checkIntervalNanos</code>. Mappings are reference counted, so
+ * a file is only unmapped once no responses are still being written from it.</p>
+ * <p>Mapped files must not be modified in place (for example truncated) while they are being served; replace them by
+ * moving a new file over the old one instead.</p>
+ */
+class MappedResourceProviderFactory implements ResourceProviderFactory {
+    private static final Logger log = LoggerFactory.getLogger(MappedResourceProviderFactory.class);
+
+    private final ResourceProviderFactory underlying;
+    private final long maxMappedSize;
+    private final long minFileSize;
+    private final long checkIntervalNanos;
+    private final LinkedHashMap<String, Mapping> mappings = new LinkedHashMap<>(16, 0.75f, true);
+    private long mappedSize = 0;
+
+    MappedResourceProviderFactory(ResourceProviderFactory underlying, long maxMappedSize, long minFileSize, long checkIntervalNanos) {
+        this.underlying = underlying;
+        this.maxMappedSize = maxMappedSize;
+        this.minFileSize = minFileSize;
+        this.checkIntervalNanos = checkIntervalNanos;
+    }
+
+    @Override
+    public ResourceProvider get(String relativePath) {
+        ResourceProvider provider = underlying.get(relativePath);
+        if (!(provider instanceof AsyncFileProvider)) {
+            return provider;
+        }
+        Mapping mapping;
+        synchronized (mappings) {
+            mapping = mappings.get(relativePath);
+        }
+        long now = System.nanoTime();
+        if (mapping != null && now - mapping.checkedAt < checkIntervalNanos) {
+            return new MappedFileProvider((AsyncFileProvider) provider, mapping);
+        }
+
+        boolean isFile = provider.exists() && !provider.isDirectory();
+        String etag = isFile ? provider.etag() : null;
+        if (mapping != null) {
+            if (etag != null && etag.equals(mapping.etag)) {
+                mapping.checkedAt = now;
+                return new MappedFileProvider((AsyncFileProvider) provider, mapping);
+            }
+            remove(relativePath, mapping);
+        }
+        Long size = provider.fileSize();
+        if (etag == null || size == null || size < minFileSize || size > Integer.MAX_VALUE || size > maxMappedSize) {
+            return provider;
+        }
+        Path path = ((AsyncFileProvider) provider).localPath();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            mapping = new Mapping(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), provider.lastModified(), etag, now);
+        } catch (IOException e) {
+            log.info("Could not map " + path + " so it will be served without mapping: " + e.getMessage());
+            return provider;
+        }
+        add(relativePath, mapping);
+        return new MappedFileProvider((AsyncFileProvider) provider, mapping);
+    }
+
+    private void add(String relativePath, Mapping mapping) {
+        synchronized (mappings) {
+            Mapping previous = mappings.put(relativePath, mapping);
+            if (previous != null) {
+                mappedSize -= previous.size();
+                previous.release();
+            }
+            mappedSize += mapping.size();
+            Iterator<Map.Entry<String, Mapping>> iterator = mappings.entrySet().iterator();
+            while (mappedSize > maxMappedSize && iterator.hasNext()) {
+                Mapping eldest = iterator.next().getValue();
+                if (eldest == mapping) {
+                    continue;
+                }
+                mappedSize -= eldest.size();
+                iterator.remove();
+                eldest.release();
+            }
+        }
+    }
+
+    private void remove(String relativePath, Mapping mapping) {
+        synchronized (mappings) {
+            if (mappings.remove(relativePath, mapping)) {
+                mappedSize -= mapping.size();
+                mapping.release();
+            }
+        }
+    }
+
+    /**
+     * @return The number of bytes currently mapped
+     */
+    long mappedSize() {
+        synchronized (mappings) {
+            return mappedSize;
+        }
+    }
+
+    boolean isMapped(String relativePath) {
+        synchronized (mappings) {
+            return mappings.containsKey(relativePath);
+        }
+    }
+
+    /**
+     * A mapped file, which is unmapped when it is no longer in the cache and no responses are being written from it
+     */
+    private static class Mapping extends AbstractReferenceCounted {
+        private final ByteBuffer buffer;
+        private final Date lastModified;
+        private final String etag;
+        private volatile long checkedAt;
+
+        private Mapping(ByteBuffer buffer, Date lastModified, String etag, long checkedAt) {
+            this.buffer = buffer;
+            this.lastModified = lastModified;
+            this.etag = etag;
+            this.checkedAt = checkedAt;
+        }
+
+        private int size() {
+            return buffer.capacity();
+        }
+
+        /**
+         * @return A read-only slice of the mapping which must be given back with {@link #release()}, or
+         * <code>null</code> if the file has already been unmapped
+         */
+        private ByteBuffer slice(long from, long length) {
+            try {
+                retain();
+            } catch (IllegalReferenceCountException e) {
+                return null;
+            }
+            ByteBuffer slice = buffer.asReadOnlyBuffer();
+            slice.position((int) from);
+            slice.limit((int) (from + length));
+            return slice;
+        }
+
+        @Override
+        protected void deallocate() {
+            PlatformDependent.freeDirectBuffer(buffer);
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            return this;
+        }
+    }
+
+    /**
+     * Serves a mapped file. Anything other than sending the file is done by the underlying provider.
+     */
+    private static class MappedFileProvider implements ResourceProvider {
+        private final AsyncFileProvider file;
+        private final Mapping mapping;
+        private long position = 0;
+
+        private MappedFileProvider(AsyncFileProvider file, Mapping mapping) {
+            this.file = file;
+            this.mapping = mapping;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public Long fileSize() {
+            return (long) mapping.size();
+        }
+
+        @Override
+        public Date lastModified() {
+            return mapping.lastModified;
+        }
+
+        @Override
+        public String etag() {
+            return mapping.etag;
+        }
+
+        @Override
+        public boolean skipIfPossible(long bytes) {
+            if (bytes > mapping.size()) {
+                return false;
+            }
+            this.position = bytes;
+            return true;
+        }
+
+        @Override
+        public void sendTo(MuRequest request, MuResponse response, boolean sendBody, long maxLen) throws IOException {
+            if (!sendBody) {
+                return;
+            }
+            long count = Math.min(maxLen, mapping.size() - position);
+            if (count <= 0) {
+                return;
+            }
+            ByteBuffer slice = mapping.slice(position, count);
+            if (slice == null) {
+                file.skipIfPossible(position);
+                file.sendTo(request, response, true, maxLen);
+                return;
+            }
+            AsyncHandle handle = request.handleAsync();
+            write(handle, slice, error -> {
+                if (error != null) {
+                    // client probably disconnected... no big deal
+                    log.debug("Error while sending mapped file " + file.localPath(), error);
+                }
+                handle.complete();
+            });
+        }
+
+        @Override
+        public void writeRange(AsyncHandle handle, long from, long length, DoneCallback callback) throws IOException {
+            ByteBuffer slice = mapping.slice(from, length);
+            if (slice == null) {
+                file.writeRange(handle, from, length, callback);
+            } else {
+                write(handle, slice, callback);
+            }
+        }
+
+        /**
+         * Writes a slice from {@link Mapping#slice(long, long)} and gives it back once written. The write can throw
+         * without calling its callback (for example once the client has disconnected), so the slice is also given
+         * back then, but never twice.
+         */
+        private void write(AsyncHandle handle, ByteBuffer slice, DoneCallback callback) {
+            AtomicBoolean released = new AtomicBoolean(false);
+            try {
+                handle.write(slice, error -> {
+                    if (released.compareAndSet(false, true)) {
+                        mapping.release();
+                    }
+                    callback.onComplete(error);
+                });
+            } catch (RuntimeException | Error e) {
+                if (released.compareAndSet(false, true)) {
+                    mapping.release();
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public Stream<Path> listFiles() {
+            return Stream.empty();
+        }
+
+        @Override
+        public ByteBuffer readFully() throws IOException {
+            return file.readFully();
+        }
+
+        @Override
+        public ReadableByteChannel openChannel() throws IOException {
+            return file.openChannel();
+        }
+
+        @Override
+        public ResourceProvider encoded(String contentEncoding) {
+            return file.encoded(contentEncoding);
+        }
+    }
+}
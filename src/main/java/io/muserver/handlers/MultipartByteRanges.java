@@ -0,0 +1,101 @@
+package io.muserver.handlers;
+
+import io.muserver.AsyncHandle;
+import io.muserver.DoneCallback;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A <code>multipart/byteranges</code> response body for a request for several ranges of a resource, as described in
+ * RFC 7233 appendix A. The length of the body is known in advance so it is sent with a <code>Content-Length</code>.
+ */
+class MultipartByteRanges {
+
+    private final List<BytesRange> ranges;
+    private final String boundary;
+    private final List<ByteBuffer> partHeaders;
+    private final ByteBuffer ending;
+
+    MultipartByteRanges(List<BytesRange> ranges, String partContentType) {
+        this.ranges = ranges;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        this.boundary = "mu-" + Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong());
+        this.partHeaders = new ArrayList<>(ranges.size());
+        for (BytesRange range : ranges) {
+            String header = (partHeaders.isEmpty() ? "" : "\r\n") + "--" + boundary + "\r\n"
+                + (partContentType == null ? "" : "Content-Type: " + partContentType + "\r\n")
+                + "Content-Range: " + range + "\r\n\r\n";
+            partHeaders.add(ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII)));
+        }
+        this.ending = ByteBuffer.wrap(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @return The value of the <code>Content-Type</code> header for the whole response
+     */
+    String contentType() {
+        return "multipart/byteranges; boundary=" + boundary;
+    }
+
+    long contentLength() {
+        long length = ending.remaining();
+        for (int i = 0; i < ranges.size(); i++) {
+            length += partHeaders.get(i).remaining() + ranges.get(i).length();
+        }
+        return length;
+    }
+
+    /**
+     * Writes the whole body and then completes the handle. Each part is written once the write before it has
+     * finished, so no thread waits for the client to receive the body.
+     */
+    void writeTo(ResourceProvider provider, AsyncHandle handle) {
+        new PartWriter(provider, handle).onComplete(null);
+    }
+
+    /**
+     * Starts the next write each time the previous one completes: the header of each part followed by its range of
+     * the resource, then the closing boundary.
+     */
+    private class PartWriter implements DoneCallback {
+        private final ResourceProvider provider;
+        private final AsyncHandle handle;
+        private int step = 0;
+
+        private PartWriter(ResourceProvider provider, AsyncHandle handle) {
+            this.provider = provider;
+            this.handle = handle;
+        }
+
+        @Override
+        public void onComplete(Throwable error) {
+            if (error != null) {
+                handle.complete(error);
+                return;
+            }
+            int part = step / 2;
+            boolean header = step % 2 == 0;
+            step++;
+            try {
+                if (part == ranges.size()) {
+                    if (header) {
+                        handle.write(ending.duplicate(), this);
+                    } else {
+                        handle.complete();
+                    }
+                } else if (header) {
+                    handle.write(partHeaders.get(part).duplicate(), this);
+                } else {
+                    BytesRange range = ranges.get(part);
+                    provider.writeRange(handle, range.from, range.length(), this);
+                }
+            } catch (Exception e) {
+                handle.complete(e);
+            }
+        }
+    }
+}
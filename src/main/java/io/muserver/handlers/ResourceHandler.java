@@ -23,8 +23,11 @@ import java.util.Map;
 import static io.muserver.handlers.ResourceType.DEFAULT_EXTENSION_MAPPINGS;
 
 /**
- * A handler to serve static content. To create a handler, using {@link ResourceHandlerBuilder#fileOrClasspath(String, String)},
- * {@link ResourceHandlerBuilder#classpathHandler(String)}, {@link ResourceHandlerBuilder#fileHandler(File)} or one of its variants.
+ * <p>A handler to serve static content. To create a handler, using {@link ResourceHandlerBuilder#fileOrClasspath(String, String)},
+ * {@link ResourceHandlerBuilder#classpathHandler(String)}, {@link ResourceHandlerBuilder#fileHandler(File)} or one of its variants.</p>
+ * <p>For file types that are gzipped (see {@link ResourceType#gzip}), pre-compressed files next to the requested file
+ * are used when the client accepts their encoding, for example <code>app.js.br</code> or <code>app.js.gz</code> for
+ * <code>app.js</code>. These are sent as-is without being compressed again.</p>
  */
 public class ResourceHandler implements MuHandler {
     private static final Logger log = LoggerFactory.getLogger(ResourceHandler.class);
@@ -37,8 +40,11 @@ public class ResourceHandler implements MuHandler {
     private final String directoryListingCss;
     private final DateTimeFormatter dateFormatter;
     private final ResourceCustomizer resourceCustomizer;
+    private final ContentHashETags contentHashETags;
+    private final DirectoryListingCache directoryListings;
+    private final int directoryListingPageSize;
 
-    ResourceHandler(ResourceProviderFactory resourceProviderFactory, String pathToServeFrom, String defaultFile, Map<String, ResourceType> extensionToResourceType, boolean directoryListingEnabled, String directoryListingCss, DateTimeFormatter dateFormatter, ResourceCustomizer resourceCustomizer) {
+    ResourceHandler(ResourceProviderFactory resourceProviderFactory, String pathToServeFrom, String defaultFile, Map<String, ResourceType> extensionToResourceType, boolean directoryListingEnabled, String directoryListingCss, DateTimeFormatter dateFormatter, ResourceCustomizer resourceCustomizer, ContentHashETags contentHashETags, DirectoryListingCache directoryListings, int directoryListingPageSize) {
         this.resourceProviderFactory = resourceProviderFactory;
         this.pathToServeFrom = pathToServeFrom;
         this.extensionToResourceType = extensionToResourceType;
@@ -47,6 +53,9 @@ public class ResourceHandler implements MuHandler {
         this.directoryListingCss = directoryListingCss;
         this.dateFormatter = dateFormatter;
         this.resourceCustomizer = resourceCustomizer;
+        this.contentHashETags = contentHashETags;
+        this.directoryListings = directoryListings;
+        this.directoryListingPageSize = directoryListingPageSize;
     }
 
     @Override
@@ -81,13 +90,35 @@ public class ResourceHandler implements MuHandler {
             }
         } else {
             String filename = requestPath.substring(requestPath.lastIndexOf('/'));
+            ResourceType type = typeFor(filename, extensionToResourceType);
             Date lastModified = provider.lastModified();
+            String etag = contentHashETags == null ? provider.etag() : contentHashETags.etag(decodedRelativePath, provider);
+            String rh = request.headers().get("range");
+            if (type.gzip) {
+                provider = encodedVersionIfAccepted(request, response, provider, rh == null);
+            }
             Long totalSize = provider.fileSize();
-            addHeaders(response, filename, totalSize, lastModified, request);
+            if (etag != null) {
+                String contentEncoding = response.headers().get(HeaderNames.CONTENT_ENCODING);
+                if (contentEncoding != null) {
+                    etag = etag.substring(0, etag.length() - 1) + "-" + contentEncoding + "\"";
+                } else if (mightBeCompressed(request, type, totalSize)) {
+                    // the bytes sent will differ from the file so the tag is only a weak validator
+                    etag = "W/" + etag;
+                }
+            }
+            addHeaders(response, type, totalSize, lastModified, etag, request);
             boolean sendBody = request.method() != Method.HEAD;
 
+            String inm = request.headers().get(HeaderNames.IF_NONE_MATCH);
             String ims = request.headers().get(HeaderNames.IF_MODIFIED_SINCE);
-            if (ims != null) {
+            if (inm != null) {
+                // If-Modified-Since is ignored when If-None-Match is present
+                if (etagMatches(inm, etag, false)) {
+                    response.status(304);
+                    sendBody = false;
+                }
+            } else if (ims != null && lastModified != null) {
                 try {
                     long lastModTime = lastModified.getTime() / 1000;
                     long lastAccessed = Mutils.fromHttpDate(ims).getTime() / 1000;
@@ -100,11 +131,17 @@ public class ResourceHandler implements MuHandler {
                 }
             }
 
-            String rh = request.headers().get("range");
+            String ifRange = rh == null ? null : request.headers().get(HeaderNames.IF_RANGE);
+            if (ifRange != null && !ifRangeMatches(ifRange, etag, lastModified)) {
+                // the client's copy is out of date, so it gets the whole file
+                rh = null;
+            }
+
             long maxAmountToSend = Long.MAX_VALUE;
+            MultipartByteRanges multipart = null;
             if (rh != null && totalSize != null && response.status() != 304) {
                 try {
-                    List<BytesRange> requestedRanges = BytesRange.parse(totalSize, rh);
+                    List<BytesRange> requestedRanges = BytesRange.coalesce(BytesRange.parse(totalSize, rh));
                     if (requestedRanges.size() == 1) {
                         BytesRange range = requestedRanges.get(0);
                         boolean couldSkip = provider.skipIfPossible(range.from);
@@ -114,42 +151,174 @@ public class ResourceHandler implements MuHandler {
                             response.headers().set(HeaderNames.CONTENT_LENGTH, maxAmountToSend);
                             response.headers().set(HeaderNames.CONTENT_RANGE, range.toString());
                         }
+                    } else if (requestedRanges.size() > 1 && requestedRanges.size() <= BytesRange.MAX_PARTS) {
+                        multipart = new MultipartByteRanges(requestedRanges, response.headers().get(HeaderNames.CONTENT_TYPE));
+                        response.status(206);
+                        response.contentType(multipart.contentType());
+                        response.headers().set(HeaderNames.CONTENT_LENGTH, multipart.contentLength());
                     }
                 } catch (IllegalArgumentException e) {
                     log.info("Ignoring range request due to invalid Range header value: " + rh);
                 }
             }
-            try {
-                provider.sendTo(request, response, sendBody, maxAmountToSend);
-            } catch (IOException | IllegalStateException ignored) {
-                log.debug(request + " cancelled before full response sent to the client");
+            if (multipart != null) {
+                if (sendBody) {
+                    multipart.writeTo(provider, request.handleAsync());
+                }
+            } else {
+                try {
+                    provider.sendTo(request, response, sendBody, maxAmountToSend);
+                } catch (IOException | IllegalStateException ignored) {
+                    log.debug(request + " cancelled before full response sent to the client");
+                }
             }
         }
 
         return true;
     }
 
+    /**
+     * Sends one page of the listing of a directory. The <code>sort</code> (<code>name</code>, <code>size</code> or
+     * <code>modified</code>), <code>order</code> (<code>asc</code> or <code>desc</code>) and <code>page</code> query
+     * string parameters choose what is shown.
+     */
     private void listDirectory(MuRequest request, MuResponse response, ResourceProvider provider) throws IOException {
+        RequestParameters query = request.query();
+        DirectoryListingCache.Sort sort = DirectoryListingCache.Sort.fromQuery(query.get("sort"));
+        boolean descending = "desc".equalsIgnoreCase(query.get("order"));
+        int page = query.getInt("page", 1);
+        List<DirectoryListingCache.Entry> entries = directoryListings.get(Mutils.urlDecode(request.relativePath()), provider, sort);
+
         response.contentType(ContentTypes.TEXT_HTML_UTF8);
         response.headers().set("X-UA-Compatible", "IE=edge");
 
         try (OutputStreamWriter osw = new OutputStreamWriter(response.outputStream(), StandardCharsets.UTF_8);
              BufferedWriter writer = new BufferedWriter(osw, 8192)) {
             writer.write("<!DOCTYPE html>\n");
-            new DirectoryLister(writer, provider, request.contextPath(), request.relativePath(), directoryListingCss, dateFormatter).render();
+            new DirectoryLister(writer, request.contextPath(), request.relativePath(), entries, sort, descending, page,
+                directoryListingPageSize, directoryListingCss, dateFormatter).render();
+        }
+    }
+
+
+    /**
+     * Finds the version of the resource with the content encoding (e.g. a <code>.gz</code> or <code>.br</code> file
+     * next to the requested one) that the client most prefers, and sets the encoding headers if one is chosen. Encoded
+     * versions are only looked for when the client accepts their encoding, so that other requests do not check the file
+     * system for files that would not be sent.
+     */
+    private static ResourceProvider encodedVersionIfAccepted(MuRequest request, MuResponse response, ResourceProvider provider, boolean canUseEncoded) {
+        ResourceProvider chosen = provider;
+        String chosenEncoding = null;
+        double chosenQuality = 0;
+        if (canUseEncoded) {
+            for (String encoding : ResourceProvider.ENCODED_FILE_EXTENSIONS.keySet()) {
+                double quality = quality(request, encoding);
+                if (quality > chosenQuality) {
+                    ResourceProvider encoded = provider.encoded(encoding);
+                    if (encoded != null) {
+                        chosen = encoded;
+                        chosenEncoding = encoding;
+                        chosenQuality = quality;
+                    }
+                }
+            }
+        }
+        if (chosenEncoding != null) {
+            Headers headers = response.headers();
+            if (!headers.containsValue(HeaderNames.VARY, HeaderNames.ACCEPT_ENCODING, true)) {
+                headers.add(HeaderNames.VARY, HeaderNames.ACCEPT_ENCODING);
+            }
+            headers.set(HeaderNames.CONTENT_ENCODING, chosenEncoding);
+        }
+        return chosen;
+    }
+
+    private static double quality(MuRequest request, String encoding) {
+        double wildcard = 0;
+        for (ParameterizedHeaderWithValue value : request.headers().acceptEncoding()) {
+            boolean isWildcard = value.value().equals("*");
+            if (isWildcard || value.value().equalsIgnoreCase(encoding)) {
+                double quality;
+                try {
+                    quality = Double.parseDouble(value.parameter("q", "1"));
+                } catch (NumberFormatException e) {
+                    quality = 1;
+                }
+                if (!isWildcard) {
+                    return quality;
+                }
+                wildcard = quality;
+            }
         }
+        return wildcard;
     }
 
+    private static boolean mightBeCompressed(MuRequest request, ResourceType type, Long size) {
+        MuServer server = request.server();
+        if (!server.gzipEnabled() || (size != null && size <= server.minimumGzipSize())) {
+            return false;
+        }
+        String mimeType = type.mimeType.toString();
+        int i = mimeType.indexOf(';');
+        if (i > -1) {
+            mimeType = mimeType.substring(0, i);
+        }
+        return server.mimeTypesToGzip().contains(mimeType.trim()) && (quality(request, "gzip") > 0 || quality(request, "deflate") > 0);
+    }
 
-    private void addHeaders(MuResponse response, String fileName, Long fileSize, Date lastModified, MuRequest request) {
+    /**
+     * Compares a list of entity tags from an If-None-Match or If-Range header with the current tag of the resource
+     */
+    static boolean etagMatches(String headerValue, String etag, boolean strongComparison) {
+        for (String candidate : headerValue.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*")) {
+                return true;
+            }
+            if (etag == null) {
+                continue;
+            }
+            if (strongComparison) {
+                if (!etag.startsWith("W/") && candidate.equals(etag)) {
+                    return true;
+                }
+            } else if (opaqueTag(candidate).equals(opaqueTag(etag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaqueTag(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static boolean ifRangeMatches(String ifRange, String etag, Date lastModified) {
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return !ifRange.startsWith("W/") && etagMatches(ifRange, etag, true);
+        }
+        if (lastModified == null) {
+            return false;
+        }
+        try {
+            return Mutils.fromHttpDate(ifRange).getTime() / 1000 == lastModified.getTime() / 1000;
+        } catch (DateTimeParseException e) {
+            log.info("Ignoring range request due to invalid If-Range header value: " + ifRange);
+            return false;
+        }
+    }
+
+    static ResourceType typeFor(String fileName, Map<String, ResourceType> extensionToResourceType) {
         int ind = fileName.lastIndexOf('.');
-        ResourceType type;
         if (ind == -1) {
-            type = ResourceType.DEFAULT;
-        } else {
-            String extension = fileName.substring(ind + 1).toLowerCase();
-            type = extensionToResourceType.getOrDefault(extension, ResourceType.DEFAULT);
+            return ResourceType.DEFAULT;
         }
+        String extension = fileName.substring(ind + 1).toLowerCase();
+        return extensionToResourceType.getOrDefault(extension, ResourceType.DEFAULT);
+    }
+
+    private void addHeaders(MuResponse response, ResourceType type, Long fileSize, Date lastModified, String etag, MuRequest request) {
         response.contentType(type.mimeType);
         Headers headers = response.headers();
         headers.set(HeaderNames.ACCEPT_RANGES, HeaderValues.BYTES);
@@ -159,6 +328,9 @@ public class ResourceHandler implements MuHandler {
         if (lastModified != null) {
             headers.set(HeaderNames.LAST_MODIFIED, Mutils.toHttpDate(lastModified));
         }
+        if (etag != null) {
+            headers.set(HeaderNames.ETAG, etag);
+        }
         headers.add(type.headers);
         if (this.resourceCustomizer != null) {
             this.resourceCustomizer.beforeHeadersSent(request, headers);
@@ -244,7 +416,7 @@ public class ResourceHandler implements MuHandler {
             }
             return new ResourceHandler(resourceProviderFactory, pathToServeFrom, defaultFile, extensionToResourceType, false, null, DateTimeFormatter.ofPattern("yyyy/MM/dd hh:mm:ss")
                 .withLocale(Locale.US)
-                .withZone(ZoneId.systemDefault()), null);
+                .withZone(ZoneId.systemDefault()), null, null, null, 0);
         }
     }
 
@@ -1,9 +1,11 @@
 package io.muserver.handlers;
 
+import io.muserver.MuException;
 import io.muserver.MuHandlerBuilder;
 import io.muserver.rest.RestHandlerBuilder;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -13,6 +15,8 @@ import java.time.format.DateTimeFormatter;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 import static io.muserver.handlers.ResourceType.DEFAULT_EXTENSION_MAPPINGS;
 
@@ -29,8 +33,19 @@ public class ResourceHandlerBuilder implements MuHandlerBuilder<ResourceHandler>
     private String defaultFile = "index.html";
     private ResourceProviderFactory resourceProviderFactory;
     private boolean directoryListingEnabled = false;
+    private int directoryListingPageSize = 1000;
     private String directoryListingCss = null;
     private ResourceCustomizer resourceCustomizer = null;
+    private long inMemoryCacheMaxSize = 0;
+    private long inMemoryCacheMaxFileSize = 0;
+    private long inMemoryCacheCheckIntervalMillis = 1000;
+    private boolean contentHashETags = false;
+    private long classpathInMemoryMaxFileSize = 1024 * 1024;
+    private boolean classpathGzipCopies = false;
+    private boolean fileSystemWatching = false;
+    private int fileReadBufferSize = AsyncFileProvider.DEFAULT_BUFFER_SIZE;
+    private long maxMappedSize = 0;
+    private long minMappedFileSize = 0;
 
     /**
      * Specify custom filename extension to mime-type mappings. By default {@link ResourceType#DEFAULT_EXTENSION_MAPPINGS}
@@ -83,6 +98,24 @@ public class ResourceHandlerBuilder implements MuHandlerBuilder<ResourceHandler>
         return this;
     }
 
+    /**
+     * <p>Specifies how many files are shown on each page of a directory listing, if directory listing is enabled.</p>
+     * <p>The entries of a listed directory are held in memory and only read again when the directory's last modified
+     * time changes, or when they are older than the {@link #withInMemoryCacheCheckInterval(long, TimeUnit)} interval.
+     * Each page is sorted according to the <code>sort</code> (<code>name</code>, <code>size</code> or
+     * <code>modified</code>) and <code>order</code> (<code>asc</code> or <code>desc</code>) query string parameters,
+     * and the <code>page</code> parameter chooses the page.</p>
+     * @param pageSize The maximum number of files per page. Defaults to 1000.
+     * @return This builder
+     */
+    public ResourceHandlerBuilder withDirectoryListingPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("The page size must be at least 1");
+        }
+        this.directoryListingPageSize = pageSize;
+        return this;
+    }
+
     /**
      * Specifies a custom date format for the "Last modified" column when directory listing is enabled.
      * @param dateTimeFormatter A format object, or null to use the default
@@ -113,6 +146,143 @@ public class ResourceHandlerBuilder implements MuHandlerBuilder<ResourceHandler>
         return this;
     }
 
+    /**
+     * <p>Keeps the contents of served files in memory so that they can be sent without reading from the disk or classpath.
+     * Files where the {@link ResourceType#gzip} setting is <code>true</code> are also held in a gzipped form, which is
+     * sent to clients that accept gzip instead of compressing the file for each request. The gzipped form is taken from
+     * a <code>.gz</code> file next to the original if there is one, and any <code>.br</code> file is also held.</p>
+     * <p>When the cache is full the least recently used files are removed from it. Cached files are checked for changes
+     * at most once per {@link #withInMemoryCacheCheckInterval(long, TimeUnit)} interval.</p>
+     * <p>This is disabled by default.</p>
+     * @param maxSizeInBytes The maximum number of bytes held in memory, including gzipped copies, or <code>0</code> to disable the cache
+     * @param maxFileSizeInBytes The size of the largest file that will be cached
+     * @return This builder
+     */
+    public ResourceHandlerBuilder withInMemoryCache(long maxSizeInBytes, long maxFileSizeInBytes) {
+        if (maxSizeInBytes < 0) {
+            throw new IllegalArgumentException("maxSizeInBytes cannot be negative");
+        }
+        if (maxFileSizeInBytes < 0 || maxFileSizeInBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("maxFileSizeInBytes must be between 0 and " + Integer.MAX_VALUE);
+        }
+        this.inMemoryCacheMaxSize = maxSizeInBytes;
+        this.inMemoryCacheMaxFileSize = maxFileSizeInBytes;
+        return this;
+    }
+
+    /**
+     * Specifies how often files held by the {@link #withInMemoryCache(long, long)} cache are checked for changes. A file
+     * is reloaded if its size or last modified time has changed. This is also the maximum age of the directory listings
+     * held when directory listing is enabled.
+     * @param interval The minimum time between checks of a file, or <code>0</code> to check on every request. Defaults to 1 second.
+     * @param unit The unit of the interval
+     * @return This builder
+     */
+    public ResourceHandlerBuilder withInMemoryCacheCheckInterval(long interval, TimeUnit unit) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("The interval cannot be negative");
+        }
+        this.inMemoryCacheCheckIntervalMillis = unit.toMillis(interval);
+        return this;
+    }
+
+    /**
+     * <p>Specifies whether the <code>ETag</code> response header is a hash of the content of the file rather than a
+     * value based on the file's size, last modified time and inode.</p>
+     * <p>Content hashes are the same on every server that has a copy of a file, which matters when several servers
+     * are behind a load balancer, but each file must be read in full once per change to calculate its hash. Hashes
+     * are kept in memory for up to 10000 files.</p>
+     * @param enabled <code>true</code> to use content hashes; <code>false</code> (the default) to use file attributes
+     * @return This builder
+     */
+    public ResourceHandlerBuilder withContentHashETags(boolean enabled) {
+        this.contentHashETags = enabled;
+        return this;
+    }
+
+    /**
+     * <p>When serving from the classpath, specifies the size of the largest file that is held in memory after it is first
+     * requested. Files held in memory are sent without reading the jar for each request, along with any pre-compressed
+     * <code>.gz</code> and <code>.br</code> versions of them. As classpath resources do not change, these files are
+     * never reloaded.</p>
+     * <p>This setting has no effect when serving from the file system.</p>
+     * @param maxFileSizeInBytes The size of the largest file to hold, or <code>0</code> to read files from the classpath
+     *                           on each request. Defaults to 1MB.
+     * @param makeGzipCopies If <code>true</code>, a gzipped copy of each held file where the {@link ResourceType#gzip}
+     *                       setting is <code>true</code> is also held (unless there is a pre-gzipped version), and is
+     *                       sent to clients that accept gzip instead of compressing the file for each request.
+     *                       Defaults to <code>false</code>.
+     * @return This builder
+     */
+    public ResourceHandlerBuilder withClasspathContentInMemory(long maxFileSizeInBytes, boolean makeGzipCopies) {
+        if (maxFileSizeInBytes < 0 || maxFileSizeInBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("maxFileSizeInBytes must be between 0 and " + Integer.MAX_VALUE);
+        }
+        this.classpathInMemoryMaxFileSize = maxFileSizeInBytes;
+        this.classpathGzipCopies = makeGzipCopies;
+        return this;
+    }
+
+    /**
+     * <p>When serving from the file system, keeps an index of all the files and directories being served, so that the
+     * existence, size and last modified time of files are found in memory rather than from the disk. Requests for
+     * files that do not exist (for example from scanners probing for vulnerable URLs) are answered without touching the
+     * disk at all.</p>
+     * <p>The index is updated by watching the directories for changes with a {@link java.nio.file.WatchService}, so
+     * new files may not be found for a short time after they are created. On platforms that do not support native
+     * file change notifications, such as macOS, this can take several seconds.</p>
+     * <p>This is disabled by default and has no effect when serving from the classpath.</p>
+     * @param enabled <code>true</code> to index and watch the directory being served
+     * @return This builder
+     */
+    public ResourceHandlerBuilder withFileSystemWatching(boolean enabled) {
+        this.fileSystemWatching = enabled;
+        return this;
+    }
+
+    /**
+     * <p>When serving from the file system, specifies the size of the buffers that files are read into when they
+     * cannot be sent directly from the file system to the network, for example over HTTP/2. Two pooled direct buffers
+     * of this size are used per download, so that the next part of the file is read while the previous part is sent.</p>
+     * <p>Larger buffers increase the download speed of large files per connection, at the cost of memory.</p>
+     * @param bufferSize The size of each buffer in bytes. Defaults to 64KB.
+     * @return This builder
+     */
+    public ResourceHandlerBuilder withFileReadBufferSize(int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("The buffer size must be at least 1 byte");
+        }
+        this.fileReadBufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * <p>When serving from the file system, maps large files into memory so that they are sent from the mapped memory
+     * rather than being read for each request. This suits large files that rarely change, such as installers or data
+     * sets, especially over HTTPS where files cannot be sent directly from the file system to the network.</p>
+     * <p>Each file is mapped once and shared by all requests for it. When more than the maximum size would be mapped,
+     * the least recently used files are unmapped. Mapped files are checked for changes at most once per
+     * {@link #withInMemoryCacheCheckInterval(long, TimeUnit)} interval and remapped if they have changed.</p>
+     * <p><strong>Files must not be modified in place while mapped</strong>, as reading past the end of a truncated
+     * mapped file can crash the JVM. Replace files by moving new versions over them instead.</p>
+     * <p>Files smaller than the <code>minFileSizeInBytes</code>, or larger than 2GB, are served as normal. This is
+     * disabled by default and has no effect when serving from the classpath.</p>
+     * @param maxMappedSizeInBytes The maximum number of bytes to map at once, or <code>0</code> to disable mapping
+     * @param minFileSizeInBytes The size of the smallest file to map
+     * @return This builder
+     */
+    public ResourceHandlerBuilder withMemoryMappedFiles(long maxMappedSizeInBytes, long minFileSizeInBytes) {
+        if (maxMappedSizeInBytes < 0) {
+            throw new IllegalArgumentException("maxMappedSizeInBytes cannot be negative");
+        }
+        if (minFileSizeInBytes < 0) {
+            throw new IllegalArgumentException("minFileSizeInBytes cannot be negative");
+        }
+        this.maxMappedSize = maxMappedSizeInBytes;
+        this.minMappedFileSize = minFileSizeInBytes;
+        return this;
+    }
+
     /**
      * Creates the handler
      * @return The built handler
@@ -136,7 +306,38 @@ public class ResourceHandlerBuilder implements MuHandlerBuilder<ResourceHandler>
                 .withZone(ZoneId.systemDefault());
         }
 
-        return new ResourceHandler(resourceProviderFactory, pathToServeFrom, defaultFile, extensionToResourceType, directoryListingEnabled, css, formatterToUse, this.resourceCustomizer);
+        Map<String, ResourceType> types = extensionToResourceType;
+        Predicate<String> compressible = path -> ResourceHandler.typeFor(path.substring(path.lastIndexOf('/') + 1), types).gzip;
+        ResourceProviderFactory factory = resourceProviderFactory;
+        if (factory instanceof FileResourceProviderFactory) {
+            Path baseDirectory = ((FileResourceProviderFactory) factory).baseDirectory;
+            if (fileSystemWatching) {
+                try {
+                    factory = WatchingResourceProviderFactory.start(baseDirectory, fileReadBufferSize);
+                } catch (IOException e) {
+                    throw new MuException("Error while indexing " + baseDirectory, e);
+                }
+            } else {
+                factory = new FileResourceProviderFactory(baseDirectory, fileReadBufferSize);
+            }
+        }
+        if (factory instanceof ClasspathCache && classpathInMemoryMaxFileSize > 0) {
+            factory = ((ClasspathCache) factory).withContentInMemory(classpathInMemoryMaxFileSize, compressible, classpathGzipCopies);
+        }
+        if (inMemoryCacheMaxSize > 0) {
+            factory = new CachingResourceProviderFactory(factory, inMemoryCacheMaxSize, inMemoryCacheMaxFileSize,
+                TimeUnit.MILLISECONDS.toNanos(inMemoryCacheCheckIntervalMillis), compressible);
+        }
+        if (maxMappedSize > 0) {
+            // this wraps the in-memory cache so that only files too large for that cache are mapped
+            factory = new MappedResourceProviderFactory(factory, maxMappedSize, minMappedFileSize,
+                TimeUnit.MILLISECONDS.toNanos(inMemoryCacheCheckIntervalMillis));
+        }
+
+        return new ResourceHandler(factory, pathToServeFrom, defaultFile, extensionToResourceType, directoryListingEnabled, css, formatterToUse, this.resourceCustomizer,
+            contentHashETags ? new ContentHashETags() : null,
+            directoryListingEnabled ? new DirectoryListingCache(TimeUnit.MILLISECONDS.toNanos(inMemoryCacheCheckIntervalMillis)) : null,
+            directoryListingPageSize);
     }
 
 
@@ -4,20 +4,38 @@ import io.muserver.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.ByteBuffer;
-import java.nio.channels.AsynchronousFileChannel;
-import java.nio.channels.CompletionHandler;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 interface ResourceProvider {
+
+    /**
+     * The content encodings that pre-compressed versions of resources can have, mapped to the extension added to the
+     * file name for files holding the encoded version, e.g. <code>app.js.gz</code> for the gzipped version of <code>app.js</code>
+     */
+    Map<String, String> ENCODED_FILE_EXTENSIONS = Collections.unmodifiableMap(new LinkedHashMap<String, String>() {{
+        put("br", ".br");
+        put("gzip", ".gz");
+    }});
+
     boolean exists();
 
     boolean isDirectory();
@@ -30,7 +48,92 @@ interface ResourceProvider {
 
     void sendTo(MuRequest request, MuResponse response, boolean sendBody, long maxLen) throws IOException;
 
+    /**
+     * Writes part of the resource to an async response without blocking, calling the callback once it has been written
+     * or has failed.
+     *
+     * @throws IOException If the write could not be started, in which case the callback is not called
+     */
+    void writeRange(AsyncHandle handle, long from, long length, DoneCallback callback) throws IOException;
+
     Stream<Path> listFiles() throws IOException;
+
+    /**
+     * @return The whole resource in a new buffer, ready to be read
+     */
+    ByteBuffer readFully() throws IOException;
+
+    /**
+     * @param contentEncoding A content encoding, such as <code>gzip</code>
+     * @return The resource encoded with the given encoding, or <code>null</code> if no such version is available
+     */
+    default ResourceProvider encoded(String contentEncoding) {
+        return null;
+    }
+
+    /**
+     * @return A strong entity tag (including the quotes) that changes whenever the content changes, or <code>null</code> if not known
+     */
+    default String etag() {
+        return null;
+    }
+
+    /**
+     * @return A channel to read the whole resource from, which the caller must close
+     */
+    default ReadableByteChannel openChannel() throws IOException {
+        ByteBuffer content = readFully();
+        return new ReadableByteChannel() {
+            private boolean open = true;
+
+            public int read(ByteBuffer dst) {
+                if (!content.hasRemaining()) {
+                    return -1;
+                }
+                int count = Math.min(dst.remaining(), content.remaining());
+                ByteBuffer slice = content.duplicate();
+                slice.limit(slice.position() + count);
+                dst.put(slice);
+                content.position(content.position() + count);
+                return count;
+            }
+
+            public boolean isOpen() {
+                return open;
+            }
+
+            public void close() {
+                open = false;
+            }
+        };
+    }
+
+    /**
+     * Blocks until the given write (or other IO operation) has completed
+     */
+    static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for IO");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException("Error during IO", cause);
+        }
+    }
+
+    /**
+     * Creates an entity tag from the size and last modified time of a file, plus a value (such as the inode) that
+     * identifies the file if available, so that replacing a file with another of the same size and time changes the tag.
+     */
+    static String etag(long lastModifiedMillis, long size, Object fileKey) {
+        String tag = Long.toHexString(lastModifiedMillis) + "-" + Long.toHexString(size);
+        if (fileKey != null) {
+            tag += "-" + Integer.toHexString(fileKey.hashCode());
+        }
+        return "\"" + tag + "\"";
+    }
 }
 
 interface ResourceProviderFactory {
@@ -41,7 +144,7 @@ interface ResourceProviderFactory {
         if (!Files.isDirectory(baseDirectory, LinkOption.NOFOLLOW_LINKS)) {
             throw new MuException(baseDirectory + " is not a directory");
         }
-        return relativePath -> new AsyncFileProvider(baseDirectory, relativePath);
+        return new FileResourceProviderFactory(baseDirectory, AsyncFileProvider.DEFAULT_BUFFER_SIZE);
     }
 
     static ResourceProviderFactory classpathBased(String classpathBase) {
@@ -56,14 +159,59 @@ interface ResourceProviderFactory {
 }
 
 
+class FileResourceProviderFactory implements ResourceProviderFactory {
+    final Path baseDirectory;
+    final int bufferSize;
+
+    FileResourceProviderFactory(Path baseDirectory, int bufferSize) {
+        this.baseDirectory = baseDirectory;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public ResourceProvider get(String relativePath) {
+        return new AsyncFileProvider(baseDirectory, relativePath, bufferSize);
+    }
+}
+
+/**
+ * <p>Serves classpath resources, which are all found when the cache is created.</p>
+ * <p>When created with {@link #withContentInMemory(long, Predicate, boolean)} the contents of each file up to a maximum size
+ * is read the first time the file is requested and then held in memory, as resources on the classpath do not change
+ * while the server is running.</p>
+ */
 class ClasspathCache implements ResourceProviderFactory {
+    private static final Logger log = LoggerFactory.getLogger(ClasspathCache.class);
     private static FileSystem zipFileSystem;
 
     private final String basePath;
-    private final Map<String, ClasspathResourceProvider> all = new HashMap<>();
+    private final Map<String, ClasspathResourceProvider> all;
+    private final long maxInMemoryFileSize;
+    private final Predicate<String> compressible;
+    private final boolean makeGzipCopies;
+    private final ConcurrentHashMap<String, InMemoryResource> contents = new ConcurrentHashMap<>();
 
     ClasspathCache(String basePath) {
+        this(basePath, new HashMap<>(), 0, path -> false, false);
+    }
+
+    private ClasspathCache(String basePath, Map<String, ClasspathResourceProvider> all, long maxInMemoryFileSize, Predicate<String> compressible, boolean makeGzipCopies) {
         this.basePath = basePath;
+        this.all = all;
+        this.maxInMemoryFileSize = maxInMemoryFileSize;
+        this.compressible = compressible;
+        this.makeGzipCopies = makeGzipCopies;
+    }
+
+    /**
+     * @param maxFileSize The size of the largest file to hold in memory, or <code>0</code> to read files on each request
+     * @param compressible Tests whether the file with the given relative path may be sent compressed, in which case
+     *                     any pre-compressed versions of it are also held
+     * @param makeGzipCopies Whether to hold a gzipped copy of compressible files that have no pre-gzipped version
+     * @return A cache of the same resources that holds the contents of files in memory
+     */
+    ClasspathCache withContentInMemory(long maxFileSize, Predicate<String> compressible, boolean makeGzipCopies) {
+        return new ClasspathCache(basePath, all, maxFileSize, compressible, makeGzipCopies);
     }
 
     void cacheItems() throws URISyntaxException, IOException {
@@ -105,10 +253,25 @@ class ClasspathCache implements ResourceProviderFactory {
                 } catch (IOException e) {
                     lastModified = null;
                 }
-                ClasspathResourceProvider crp = new ClasspathResourceProvider(exists, directory, size, lastModified, cur, null);
+                ClasspathResourceProvider crp = new ClasspathResourceProvider(exists, directory, size, lastModified, cur);
                 all.put(relativePath, crp);
             }
             walk.close();
+            for (Map.Entry<String, ClasspathResourceProvider> entry : all.entrySet()) {
+                ClasspathResourceProvider crp = entry.getValue();
+                if (crp.isDirectory()) {
+                    continue;
+                }
+                for (Map.Entry<String, String> encoding : ResourceProvider.ENCODED_FILE_EXTENSIONS.entrySet()) {
+                    ClasspathResourceProvider encoded = all.get(entry.getKey() + encoding.getValue());
+                    if (encoded != null && !encoded.isDirectory()) {
+                        if (crp.encodedVersions.isEmpty()) {
+                            crp.encodedVersions = new HashMap<>();
+                        }
+                        crp.encodedVersions.put(encoding.getKey(), encoded);
+                    }
+                }
+            }
         }
     }
 
@@ -123,11 +286,28 @@ class ClasspathCache implements ResourceProviderFactory {
         if (cur == null) {
             return nullProvider;
         }
-        return cur.newWithInputStream();
+        Long fileSize = cur.fileSize();
+        if (cur.isDirectory() || fileSize == null || maxInMemoryFileSize <= 0 || fileSize > maxInMemoryFileSize) {
+            return cur.newInstance();
+        }
+        InMemoryResource content = contents.get(relativePath);
+        if (content == null) {
+            try {
+                content = InMemoryResource.load(cur, compressible.test(relativePath), makeGzipCopies, maxInMemoryFileSize);
+            } catch (IOException e) {
+                log.info("Could not read " + relativePath + " into memory so it will be read for each request: " + e.getMessage());
+                return cur.newInstance();
+            }
+            InMemoryResource existing = contents.putIfAbsent(relativePath, content);
+            if (existing != null) {
+                content = existing;
+            }
+        }
+        return content.provider();
     }
 
 
-    private static final ResourceProvider nullProvider = new ResourceProvider() {
+    static final ResourceProvider nullProvider = new ResourceProvider() {
         public boolean exists() {
             return false;
         }
@@ -151,59 +331,98 @@ class ClasspathCache implements ResourceProviderFactory {
         public void sendTo(MuRequest request, MuResponse response, boolean sendBody, long maxLen) {
         }
 
+        public void writeRange(AsyncHandle handle, long from, long length, DoneCallback callback) throws IOException {
+            throw new FileNotFoundException();
+        }
+
         public Stream<Path> listFiles() {
             return Stream.empty();
         }
+
+        public ByteBuffer readFully() throws IOException {
+            throw new FileNotFoundException();
+        }
     };
 }
 
 
-class AsyncFileProvider implements ResourceProvider, CompletionHandler<Integer, Object> {
+/**
+ * Serves a file from the file system. The attributes of the file are read once, when first needed, so the existence,
+ * type, size, modification time and entity tag given for one request all describe the same version of the file.
+ */
+class AsyncFileProvider implements ResourceProvider {
     private static final Logger log = LoggerFactory.getLogger(AsyncFileProvider.class);
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
     private final Path localPath;
-    private AsynchronousFileChannel channel;
+    private final int bufferSize;
     private long curPos = 0;
-    private ByteBuffer buf;
-    private AsyncHandle handle;
-    private long maxLen;
-    private long bytesSent = 0;
+    private BasicFileAttributes attributes;
+    private boolean attributesRead;
 
-    AsyncFileProvider(Path baseDirectory, String relativePath) {
+    AsyncFileProvider(Path baseDirectory, String relativePath, int bufferSize) {
         if (relativePath.startsWith("/")) {
             relativePath = "." + relativePath;
         }
         this.localPath = baseDirectory.resolve(relativePath);
+        this.bufferSize = bufferSize;
     }
 
-    public boolean exists() {
-        return Files.exists(localPath);
+    AsyncFileProvider(Path localPath, int bufferSize) {
+        this.localPath = localPath;
+        this.bufferSize = bufferSize;
     }
 
-    @Override
-    public boolean isDirectory() {
-        return Files.isDirectory(localPath);
+    private AsyncFileProvider(Path localPath, int bufferSize, BasicFileAttributes attributes) {
+        this(localPath, bufferSize);
+        this.attributes = attributes;
+        this.attributesRead = true;
     }
 
-    public Long fileSize() {
+    Path localPath() {
+        return localPath;
+    }
+
+    /**
+     * @return The attributes of the file, or <code>null</code> if it does not exist or cannot be read
+     */
+    private BasicFileAttributes attributes() {
+        if (!attributesRead) {
+            attributes = readAttributes(localPath);
+            attributesRead = true;
+        }
+        return attributes;
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) {
         try {
-            long size = Files.size(localPath);
-            if (size == 0L && isDirectory()) {
-                return null;
-            }
-            return size;
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
         } catch (IOException e) {
-            log.error("Error finding file size: " + e.getMessage());
+            log.error("Error reading attributes of " + path + ": " + e.getMessage());
             return null;
         }
     }
 
+    public boolean exists() {
+        return attributes() != null;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        BasicFileAttributes attributes = attributes();
+        return attributes != null && attributes.isDirectory();
+    }
+
+    public Long fileSize() {
+        BasicFileAttributes attributes = attributes();
+        return attributes == null || attributes.isDirectory() ? null : attributes.size();
+    }
+
     @Override
     public Date lastModified() {
-        try {
-            return new Date(Files.getLastModifiedTime(localPath).toMillis());
-        } catch (IOException e) {
-            return null;
-        }
+        BasicFileAttributes attributes = attributes();
+        return attributes == null ? null : new Date(attributes.lastModifiedTime().toMillis());
     }
 
     @Override
@@ -215,60 +434,61 @@ class AsyncFileProvider implements ResourceProvider, CompletionHandler<Integer,
     @Override
     public void sendTo(MuRequest request, MuResponse response, boolean sendBody, long maxLen) throws IOException {
         if (sendBody) {
-            this.maxLen = maxLen;
-            handle = request.handleAsync();
-            channel = AsynchronousFileChannel.open(localPath, StandardOpenOption.READ);
-            buf = ByteBuffer.allocate(8192);
-            channel.read(buf, curPos, handle, this);
+            Long size = fileSize();
+            if (size == null) {
+                throw new FileNotFoundException(localPath.toString());
+            }
+            long count = Math.min(maxLen, size - curPos);
+            AsyncHandle handle = request.handleAsync();
+            handle.writeFile(localPath, curPos, count, bufferSize, error -> {
+                if (error == null) {
+                    handle.complete();
+                } else if (response.hasStartedSendingData()) {
+                    // client probably disconnected... no big deal
+                    log.debug("Error while sending " + localPath, error);
+                    handle.complete();
+                } else {
+                    handle.complete(error);
+                }
+            });
         }
     }
 
+    @Override
+    public void writeRange(AsyncHandle handle, long from, long length, DoneCallback callback) {
+        handle.writeFile(localPath, from, length, bufferSize, callback);
+    }
+
     @Override
     public Stream<Path> listFiles() throws IOException {
         return Files.list(localPath);
     }
 
     @Override
-    public void completed(Integer bytesRead, Object a) {
-        buf.flip();
-        if (bytesRead == -1) {
-            handle.complete();
-            closeChannelQuietly();
-        } else {
-
-            // for range requests, more bytes may be read than should be written, so the write is limited
-            long remaining = maxLen - bytesSent;
-            if (remaining < buf.limit()) {
-                buf.limit((int) remaining);
-            }
+    public ByteBuffer readFully() throws IOException {
+        return ClasspathResourceProvider.readFully(localPath);
+    }
 
-            handle.write(buf, error -> {
-                if (error == null) {
-                    buf.clear();
-                    curPos += bytesRead;
-                    bytesSent += bytesRead;
-                    channel.read(buf, curPos, null, AsyncFileProvider.this);
-                } else {
-                    // client probably disconnected... no big deal
-                    closeChannelQuietly();
-                    handle.complete();
-                }
-            });
-        }
+    @Override
+    public String etag() {
+        BasicFileAttributes attributes = attributes();
+        return attributes == null ? null : ResourceProvider.etag(attributes.lastModifiedTime().toMillis(), attributes.size(), attributes.fileKey());
     }
 
-    private void closeChannelQuietly() {
-        try {
-            channel.close();
-        } catch (IOException e) {
-            log.debug("Error while closing file channel " + localPath, e);
-        }
+    @Override
+    public ReadableByteChannel openChannel() throws IOException {
+        return Files.newByteChannel(localPath, StandardOpenOption.READ);
     }
 
     @Override
-    public void failed(Throwable exc, Object a) {
-        log.info("File read failure for " + localPath, exc);
-        handle.complete(exc);
+    public ResourceProvider encoded(String contentEncoding) {
+        String extension = ENCODED_FILE_EXTENSIONS.get(contentEncoding);
+        if (extension == null) {
+            return null;
+        }
+        Path encodedPath = localPath.resolveSibling(localPath.getFileName() + extension);
+        BasicFileAttributes encodedAttributes = readAttributes(encodedPath);
+        return encodedAttributes != null && encodedAttributes.isRegularFile() ? new AsyncFileProvider(encodedPath, bufferSize, encodedAttributes) : null;
     }
 }
 
@@ -278,25 +498,33 @@ class ClasspathResourceProvider implements ResourceProvider {
     private final Long fileSize;
     private final Date lastModified;
     private final Path path;
-    private final InputStream inputStream;
+    private InputStream inputStream;
+    private ByteBuffer content;
+    Map<String, ClasspathResourceProvider> encodedVersions = Collections.emptyMap();
 
-    ClasspathResourceProvider(boolean exists, boolean isDir, Long fileSize, Date lastModified, Path path, InputStream inputStream) {
+    ClasspathResourceProvider(boolean exists, boolean isDir, Long fileSize, Date lastModified, Path path) {
         this.exists = exists;
         this.isDir = isDir;
         this.path = path;
-        this.inputStream = inputStream;
         this.fileSize = isDir ? null : fileSize;
         this.lastModified = lastModified;
     }
 
-    ClasspathResourceProvider newWithInputStream() {
-        InputStream inputStream;
-        try {
-            inputStream = isDir ? null : Files.newInputStream(path, StandardOpenOption.READ);
-        } catch (IOException e) {
-            throw new MuException("Error while opening " + path + " from the classpath", e);
+    ClasspathResourceProvider newInstance() {
+        ClasspathResourceProvider copy = new ClasspathResourceProvider(exists, isDir, fileSize, lastModified, path);
+        copy.encodedVersions = encodedVersions;
+        return copy;
+    }
+
+    /**
+     * The stream is only opened when the content is needed, so that requests such as HEAD requests and
+     * cache revalidations do not open the jar entry.
+     */
+    private InputStream inputStream() throws IOException {
+        if (inputStream == null) {
+            inputStream = Files.newInputStream(path, StandardOpenOption.READ);
         }
-        return new ClasspathResourceProvider(exists, isDir, fileSize, lastModified, path, inputStream);
+        return inputStream;
     }
 
     public boolean exists() {
@@ -325,7 +553,7 @@ class ClasspathResourceProvider implements ResourceProvider {
             while (totalSkipped < bytes) {
                 long skipped;
                 try {
-                    skipped = inputStream.skip(bytes);
+                    skipped = inputStream().skip(bytes);
                 } catch (IOException e) {
                     return false;
                 }
@@ -342,7 +570,7 @@ class ClasspathResourceProvider implements ResourceProvider {
     public void sendTo(MuRequest request, MuResponse response, boolean sendBody, long maxLen) throws IOException {
         try {
             if (sendBody) {
-
+                InputStream inputStream = inputStream();
                 try (OutputStream out = response.outputStream()) {
                     byte[] buffer = new byte[8192];
                     long soFar = 0;
@@ -359,8 +587,25 @@ class ClasspathResourceProvider implements ResourceProvider {
                 }
             }
         } finally {
-            inputStream.close();
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        }
+    }
+
+    @Override
+    public void writeRange(AsyncHandle handle, long from, long length, DoneCallback callback) throws IOException {
+        if (content == null) {
+            // the ranges of a multipart response can be in any order, so the entry is read once and each range cut from it
+            content = ByteBuffer.wrap(Files.readAllBytes(path));
+        }
+        if (from + length > content.limit()) {
+            throw new EOFException("Unexpected end of " + path);
         }
+        ByteBuffer toSend = content.duplicate();
+        toSend.position((int) from);
+        toSend.limit((int) (from + length));
+        handle.write(toSend, callback);
     }
 
     @Override
@@ -368,4 +613,42 @@ class ClasspathResourceProvider implements ResourceProvider {
         return Files.list(path);
     }
 
+    @Override
+    public ByteBuffer readFully() throws IOException {
+        return readFully(path);
+    }
+
+    @Override
+    public String etag() {
+        return isDir ? null : ResourceProvider.etag(lastModified == null ? 0 : lastModified.getTime(), fileSize == null ? 0 : fileSize, null);
+    }
+
+    @Override
+    public ReadableByteChannel openChannel() throws IOException {
+        return Files.newByteChannel(path, StandardOpenOption.READ);
+    }
+
+    @Override
+    public ResourceProvider encoded(String contentEncoding) {
+        ClasspathResourceProvider encoded = encodedVersions.get(contentEncoding);
+        return encoded == null ? null : encoded.newInstance();
+    }
+
+    static ByteBuffer readFully(Path path) throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to read into memory");
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) == -1) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,374 @@
+package io.muserver.handlers;
+
+import io.muserver.HeaderNames;
+import io.muserver.MuRequest;
+import io.muserver.MuResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static io.muserver.handlers.ResourceProvider.ENCODED_FILE_EXTENSIONS;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * <p>A file-based resource provider factory that keeps an index of every file and directory under the base directory,
+ * so that whether a file exists, and its size and last modified time, are known without touching the disk. Requests
+ * for paths that do not exist, such as those made by scanners probing for random paths, are also answered from the
+ * index.</p>
+ * <p>The index is kept up to date by a {@link WatchService}. All factories on a file system share one watch service
+ * and one daemon thread, which stops when no factory that is still in use is watching anything. Changes are seen
+ * shortly after they happen, although on platforms without native file notifications (such as macOS) this can take
+ * several seconds.</p>
+ * <p>Because responses are described by the index, a file is sent with the length it had when it was indexed. If a
+ * file is found to have changed when it is sent, its index entry is updated straight away and, if nothing has been
+ * sent yet, the validators are removed from the response so that caches do not store the new bytes under the old
+ * entity tag.</p>
+ */
+class WatchingResourceProviderFactory implements ResourceProviderFactory {
+    private static final Logger log = LoggerFactory.getLogger(WatchingResourceProviderFactory.class);
+
+    private final Path baseDirectory;
+    private final int bufferSize;
+    private final FileIndex index;
+
+    private WatchingResourceProviderFactory(Path baseDirectory, int bufferSize) {
+        this.baseDirectory = baseDirectory;
+        this.bufferSize = bufferSize;
+        this.index = new FileIndex(baseDirectory, new WeakReference<>(this));
+    }
+
+    /**
+     * Indexes the base directory and starts watching it for changes
+     * @param baseDirectory The directory to serve from
+     * @param bufferSize The size of the buffers used when files need to be read into memory to be sent
+     * @return A new factory
+     * @throws IOException If the directory could not be indexed or watched
+     */
+    static WatchingResourceProviderFactory start(Path baseDirectory, int bufferSize) throws IOException {
+        WatchingResourceProviderFactory factory = new WatchingResourceProviderFactory(baseDirectory.toAbsolutePath().normalize(), bufferSize);
+        try {
+            factory.index.scan(factory.baseDirectory);
+        } catch (IOException e) {
+            factory.index.owner.clear();
+            throw e;
+        }
+        return factory;
+    }
+
+    @Override
+    public ResourceProvider get(String relativePath) {
+        if (relativePath.startsWith("/")) {
+            relativePath = "." + relativePath;
+        }
+        Path path = baseDirectory.resolve(relativePath).normalize();
+        if (!path.startsWith(baseDirectory)) {
+            return new AsyncFileProvider(baseDirectory, relativePath, bufferSize);
+        }
+        IndexEntry entry = index.entries.get(index.keyOf(path));
+        return entry == null ? ClasspathCache.nullProvider : new IndexedFileProvider(path, entry);
+    }
+
+    /**
+     * @return The number of files and directories in the index
+     */
+    int indexSize() {
+        return index.entries.size();
+    }
+
+    private class IndexedFileProvider extends AsyncFileProvider {
+        private final IndexEntry entry;
+        private long position = 0;
+
+        private IndexedFileProvider(Path localPath, IndexEntry entry) {
+            super(localPath, bufferSize);
+            this.entry = entry;
+        }
+
+        @Override
+        public boolean skipIfPossible(long bytes) {
+            this.position = bytes;
+            return super.skipIfPossible(bytes);
+        }
+
+        @Override
+        public void sendTo(MuRequest request, MuResponse response, boolean sendBody, long maxLen) throws IOException {
+            if (sendBody) {
+                if (index.updateIfChanged(localPath(), entry) && !response.hasStartedSendingData()) {
+                    response.headers().remove(HeaderNames.ETAG);
+                    response.headers().remove(HeaderNames.LAST_MODIFIED);
+                }
+                // the content length was set from the index entry
+                super.sendTo(request, response, true, Math.min(maxLen, entry.size - position));
+            }
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return entry.isDir;
+        }
+
+        @Override
+        public Long fileSize() {
+            return entry.isDir ? null : entry.size;
+        }
+
+        @Override
+        public Date lastModified() {
+            return new Date(entry.lastModifiedMillis);
+        }
+
+        @Override
+        public String etag() {
+            return ResourceProvider.etag(entry.lastModifiedMillis, entry.size, entry.fileKey);
+        }
+
+        @Override
+        public ResourceProvider encoded(String contentEncoding) {
+            String extension = ENCODED_FILE_EXTENSIONS.get(contentEncoding);
+            if (extension == null) {
+                return null;
+            }
+            Path encodedPath = localPath().resolveSibling(localPath().getFileName() + extension);
+            IndexEntry encoded = index.entries.get(index.keyOf(encodedPath));
+            return encoded == null || encoded.isDir ? null : new IndexedFileProvider(encodedPath, encoded);
+        }
+    }
+
+    private static class IndexEntry {
+        private final boolean isDir;
+        private final long size;
+        private final long lastModifiedMillis;
+        private final Object fileKey;
+
+        private IndexEntry(BasicFileAttributes attributes) {
+            this.isDir = attributes.isDirectory();
+            this.size = attributes.size();
+            this.lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+            this.fileKey = attributes.fileKey();
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return isDir == attributes.isDirectory() && size == attributes.size()
+                && lastModifiedMillis == attributes.lastModifiedTime().toMillis()
+                && Objects.equals(fileKey, attributes.fileKey());
+        }
+    }
+
+    /**
+     * The files under the base directory, keyed by their paths relative to it with <code>/</code> as the separator.
+     */
+    private static class FileIndex {
+        private final Path base;
+        private final WeakReference<WatchingResourceProviderFactory> owner;
+        private final Map<String, IndexEntry> entries = new ConcurrentHashMap<>();
+
+        private FileIndex(Path base, WeakReference<WatchingResourceProviderFactory> owner) {
+            this.base = base;
+            this.owner = owner;
+        }
+
+        private String keyOf(Path path) {
+            return base.relativize(path).toString().replace('\\', '/');
+        }
+
+        private boolean inUse() {
+            return owner.get() != null;
+        }
+
+        private void scan(Path start) throws IOException {
+            Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    DirectoryWatcher.watch(dir, FileIndex.this);
+                    entries.put(keyOf(dir), new IndexEntry(attrs));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    entries.put(keyOf(file), new IndexEntry(attrs));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    // deleted while scanning, a broken link, or a link back to a parent directory
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        private void process(Path dir, List<WatchEvent<?>> events) {
+            for (WatchEvent<?> event : events) {
+                if (event.kind() == OVERFLOW) {
+                    remove(dir);
+                    update(dir);
+                } else {
+                    update(dir.resolve((Path) event.context()));
+                }
+            }
+            // the directory's own last modified time changes when its contents change
+            update(dir);
+        }
+
+        /**
+         * Updates the entry for a file if the file no longer matches it, without waiting for the watch service
+         * @return <code>true</code> if the file has changed
+         */
+        private boolean updateIfChanged(Path path, IndexEntry entry) {
+            try {
+                if (entry.matches(Files.readAttributes(path, BasicFileAttributes.class))) {
+                    return false;
+                }
+            } catch (IOException ignored) {
+                // it has been deleted, which update will find
+            }
+            update(path);
+            return true;
+        }
+
+        private void update(Path path) {
+            String key = keyOf(path);
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                IndexEntry previous = entries.put(key, new IndexEntry(attributes));
+                if (attributes.isDirectory() && (previous == null || !previous.isDir)) {
+                    scan(path);
+                }
+            } catch (IOException e) {
+                remove(path);
+            }
+        }
+
+        private void remove(Path path) {
+            String key = keyOf(path);
+            entries.remove(key);
+            String prefix = key.isEmpty() ? "" : key + "/";
+            entries.keySet().removeIf(k -> k.startsWith(prefix));
+        }
+    }
+
+    /**
+     * Watches the directories of every index on one file system with a single watch service and thread. The thread
+     * stops, and the watch service is closed, once every index it was watching for is no longer in use.
+     */
+    private static class DirectoryWatcher implements Runnable {
+        private static final Map<FileSystem, DirectoryWatcher> watchers = new HashMap<>();
+        private static final long PURGE_INTERVAL_MILLIS = 1000;
+
+        private final FileSystem fileSystem;
+        private final WatchService watchService;
+        private final Map<WatchKey, Map<FileIndex, Path>> watched = new ConcurrentHashMap<>();
+
+        private DirectoryWatcher(FileSystem fileSystem, WatchService watchService) {
+            this.fileSystem = fileSystem;
+            this.watchService = watchService;
+        }
+
+        /**
+         * Starts watching a directory for an index, starting the watcher for the directory's file system if needed
+         */
+        static void watch(Path dir, FileIndex index) throws IOException {
+            synchronized (watchers) {
+                FileSystem fileSystem = dir.getFileSystem();
+                DirectoryWatcher watcher = watchers.get(fileSystem);
+                if (watcher == null) {
+                    watcher = new DirectoryWatcher(fileSystem, fileSystem.newWatchService());
+                    watchers.put(fileSystem, watcher);
+                    Thread thread = new Thread(watcher, "mu-resource-watcher");
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+                WatchKey key = dir.register(watcher.watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                // the same key is returned when different indexes watch the same directory
+                watcher.watched.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).put(index, dir);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                long lastPurge = System.currentTimeMillis();
+                while (true) {
+                    WatchKey key = watchService.poll(PURGE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        process(key);
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now - lastPurge >= PURGE_INTERVAL_MILLIS) {
+                        lastPurge = now;
+                        if (stopIfUnused()) {
+                            return;
+                        }
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                log.info("Stopped watching for file changes");
+            } catch (Exception e) {
+                log.warn("Error while watching for file changes so changes will no longer be seen", e);
+            }
+            synchronized (watchers) {
+                watchers.remove(fileSystem, this);
+                try {
+                    watchService.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void process(WatchKey key) {
+            List<WatchEvent<?>> events = key.pollEvents();
+            Map<FileIndex, Path> indexes = watched.get(key);
+            if (indexes != null) {
+                for (Map.Entry<FileIndex, Path> entry : indexes.entrySet()) {
+                    FileIndex index = entry.getKey();
+                    if (index.inUse()) {
+                        try {
+                            index.process(entry.getValue(), events);
+                        } catch (Exception e) {
+                            log.warn("Error while updating the index of " + index.base, e);
+                        }
+                    }
+                }
+            }
+            if (!key.reset()) {
+                watched.remove(key);
+            }
+        }
+
+        /**
+         * Stops watching for indexes that are no longer used, and closes the watch service if none are left
+         * @return <code>true</code> if the watch service was closed
+         */
+        private boolean stopIfUnused() throws IOException {
+            synchronized (watchers) {
+                for (Iterator<Map.Entry<WatchKey, Map<FileIndex, Path>>> it = watched.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<WatchKey, Map<FileIndex, Path>> entry = it.next();
+                    entry.getValue().keySet().removeIf(index -> !index.inUse());
+                    if (entry.getValue().isEmpty()) {
+                        entry.getKey().cancel();
+                        it.remove();
+                    }
+                }
+                if (watched.isEmpty()) {
+                    watchers.remove(fileSystem, this);
+                    watchService.close();
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+}
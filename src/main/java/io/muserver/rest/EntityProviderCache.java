@@ -0,0 +1,94 @@
+package io.muserver.rest;
+
+import javax.ws.rs.core.MediaType;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Caches the entity provider selected for each combination of class, generic type, annotations and media type.
+ * <p>The annotations are part of the key as providers may decide whether they can read or write a type based
+ * on them. Failures to find a provider are not cached.</p>
+ * <p>As the class of a response entity is its runtime type, the number of keys is unbounded in theory, so once
+ * the cache is full, providers for new keys are still selected but not cached.</p>
+ */
+class EntityProviderCache<T> implements EntityProviderCacheStats {
+
+    static final int MAX_SIZE = 2000;
+
+    private final ConcurrentHashMap<Key, T> cache = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    T get(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, Supplier<T> selector) {
+        Key key = new Key(type, genericType, annotations, mediaType);
+        T provider = cache.get(key);
+        if (provider != null) {
+            hits.increment();
+            return provider;
+        }
+        misses.increment();
+        provider = selector.get();
+        if (cache.size() < MAX_SIZE) {
+            cache.putIfAbsent(key, provider);
+        }
+        return provider;
+    }
+
+    @Override
+    public long hits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long misses() {
+        return misses.sum();
+    }
+
+    @Override
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public String toString() {
+        return "EntityProviderCache{hits=" + hits() + ", misses=" + misses() + ", size=" + size() + '}';
+    }
+
+    private static final class Key {
+        private final Class<?> type;
+        private final Type genericType;
+        private final Annotation[] annotations;
+        private final MediaType mediaType;
+        private final int hash;
+
+        private Key(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+            this.type = type;
+            this.genericType = genericType;
+            this.annotations = annotations;
+            this.mediaType = mediaType;
+            this.hash = Objects.hash(type, genericType, Arrays.hashCode(annotations), mediaType);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return hash == key.hash
+                && type == key.type
+                && Objects.equals(genericType, key.genericType)
+                && Objects.equals(mediaType, key.mediaType)
+                && Arrays.equals(annotations, key.annotations);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
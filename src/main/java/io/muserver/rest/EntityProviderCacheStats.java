@@ -0,0 +1,26 @@
+package io.muserver.rest;
+
+/**
+ * Statistics about the cache of selected {@link javax.ws.rs.ext.MessageBodyReader} or
+ * {@link javax.ws.rs.ext.MessageBodyWriter} providers of a {@link RestHandler}.
+ * @see RestHandler#messageBodyReaderCacheStats()
+ * @see RestHandler#messageBodyWriterCacheStats()
+ */
+public interface EntityProviderCacheStats {
+
+    /**
+     * @return The number of times a provider was found in the cache
+     */
+    long hits();
+
+    /**
+     * @return The number of times a provider had to be selected from the full list of providers
+     */
+    long misses();
+
+    /**
+     * @return The number of entries currently cached
+     */
+    int size();
+
+}
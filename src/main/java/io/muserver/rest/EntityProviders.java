@@ -19,12 +19,19 @@ class EntityProviders {
 
     private final List<ProviderWrapper<MessageBodyReader<?>>> readers;
     final List<ProviderWrapper<MessageBodyWriter<?>>> writers;
+    final EntityProviderCache<MessageBodyReader<?>> readerCache = new EntityProviderCache<>();
+    final EntityProviderCache<MessageBodyWriter<?>> writerCache = new EntityProviderCache<>();
 
     public EntityProviders(List<MessageBodyReader> readers, List<MessageBodyWriter> writers) {
         this.readers = readers.stream().map(ProviderWrapper::reader).sorted().collect(Collectors.toList());
         this.writers = writers.stream().map(ProviderWrapper::writer).sorted().collect(Collectors.toList());
     }
+
     public MessageBodyReader<?> selectReader(Class<?> type, Type genericType, Annotation[] annotations, MediaType requestBodyMediaType) {
+        return readerCache.get(type, genericType, annotations, requestBodyMediaType, () -> findReader(type, genericType, annotations, requestBodyMediaType));
+    }
+
+    private MessageBodyReader<?> findReader(Class<?> type, Type genericType, Annotation[] annotations, MediaType requestBodyMediaType) {
         for (ProviderWrapper<MessageBodyReader<?>> reader : readers) {
             boolean mediaTypeSupported = reader.mediaTypes.stream().anyMatch(mt -> mt.isCompatible(requestBodyMediaType));
             if (mediaTypeSupported && reader.provider.isReadable(type, genericType, annotations, requestBodyMediaType)) {
@@ -34,6 +41,10 @@ class EntityProviders {
         throw new NotSupportedException("Could not find a suitable entity provider to read " + type);
     }
     public MessageBodyWriter<?> selectWriter(Class<?> type, Type genericType, Annotation[] annotations, MediaType responseMediaType) {
+        return writerCache.get(type, genericType, annotations, responseMediaType, () -> findWriter(type, genericType, annotations, responseMediaType));
+    }
+
+    private MessageBodyWriter<?> findWriter(Class<?> type, Type genericType, Annotation[] annotations, MediaType responseMediaType) {
         // From 4.2.2
 
         // 3. SelectthesetofMessageBodyWriterprovidersthatsupport(seeSection4.2.3)theobjectandmedia type of the message entity body.
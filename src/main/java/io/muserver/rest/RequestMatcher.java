@@ -1,6 +1,7 @@
 package io.muserver.rest;
 
 import io.muserver.Method;
+import io.muserver.Mutils;
 
 import javax.ws.rs.NotAcceptableException;
 import javax.ws.rs.NotAllowedException;
@@ -10,8 +11,6 @@ import java.net.URI;
 import java.util.*;
 
 import static java.util.Collections.singletonList;
-import static java.util.stream.Collectors.toList;
-import static java.util.stream.Collectors.toSet;
 
 /**
  * <p>
@@ -28,13 +27,63 @@ class RequestMatcher {
     }
 
     static final List<MediaType> WILDCARD_AS_LIST = singletonList(MediaType.WILDCARD_TYPE);
-    private final List<ResourceClass> roots;
+
+    /**
+     * For each possible first path segment, the roots that may match it in the order they should be tried
+     */
+    private final Map<String, List<RootClass>> rootsByFirstSegment = new HashMap<>();
+    /**
+     * The roots whose paths start with a template, which may match any first segment
+     */
+    private final List<RootClass> rootsForAnyFirstSegment = new ArrayList<>();
+    private final Map<ResourceClass, ClassMethods> methodsByClass = new IdentityHashMap<>();
 
     RequestMatcher(List<ResourceClass> roots) {
         if (roots == null) {
             throw new NullPointerException("roots cannot be null");
         }
-        this.roots = roots;
+        // The sorting in step 1 only depends on the root classes, so it is done once here
+        List<RootClass> sorted = new ArrayList<>(roots.size());
+        for (ResourceClass root : roots) {
+            sorted.add(new RootClass(root));
+            methodsByClass.put(root, new ClassMethods(root));
+        }
+        sorted.sort((o1, o2) -> {
+            UriPattern o1pp = o1.resourceClass.pathPattern;
+            UriPattern o2pp = o2.resourceClass.pathPattern;
+            // "Sort E using the number of literal characters in each member as the primary key (descending order)"
+            int c = Integer.compare(o2pp.numberOfLiterals, o1pp.numberOfLiterals);
+            if (c == 0) {
+                // "the number of capturing groups as a secondary key (descending order)"
+                c = Integer.compare(o2pp.namedGroups().size(), o1pp.namedGroups().size());
+            }
+            if (c == 0) {
+                // " and the number of capturing groups with non-default regular expressions (i.e. not ‘([ˆ/]+?)’) as the tertiary key (descending order)"
+                c = Integer.compare(countNonDefaultGroups(o2.resourceClass.pathTemplate), countNonDefaultGroups(o1.resourceClass.pathTemplate));
+            }
+            return c;
+        });
+        for (RootClass root : sorted) {
+            for (RootClass other : sorted) {
+                if (other.resourceClass.pathPattern.equalModuloVariableNames(root.resourceClass.pathPattern)) {
+                    root.sameTemplate.add(other);
+                }
+            }
+            if (root.firstSegment == null) {
+                rootsForAnyFirstSegment.add(root);
+            }
+        }
+        for (RootClass root : sorted) {
+            if (root.firstSegment != null && !rootsByFirstSegment.containsKey(root.firstSegment)) {
+                List<RootClass> forSegment = new ArrayList<>();
+                for (RootClass candidate : sorted) {
+                    if (candidate.firstSegment == null || candidate.firstSegment.equals(root.firstSegment)) {
+                        forSegment.add(candidate);
+                    }
+                }
+                rootsByFirstSegment.put(root.firstSegment, forSegment);
+            }
+        }
     }
 
     MatchedMethod findResourceMethod(Method httpMethod, String path, List<MediaType> acceptHeaders, String requestBodyContentType) throws NotAllowedException, NotAcceptableException, NotSupportedException, NotMatchedException {
@@ -49,43 +98,29 @@ class RequestMatcher {
     }
 
     StepOneOutput stepOneIdentifyASetOfCandidateRootResourceClassesMatchingTheRequest(String uri) throws NotMatchedException {
-        List<MatchedClass> candidates = roots.stream()
-            .map(rc -> new MatchedClass(rc, rc.pathPattern.matcher(uri)))
-            .filter(rc -> {
-                PathMatch matcher = rc.pathMatch;
-                // Remove members that do not match U.
-                // Remove members for which the final regular expression capturing group value is neither empty nor ‘/’ and the class has no subresource methods or locators.
-                return matcher.prefixMatches() && !(matcher.lastGroup() != null && rc.resourceClass.subResourceMethods().isEmpty());
-            })
-            .sorted((o1, o2) -> {
-                UriPattern o1pp = o1.resourceClass.pathPattern;
-                UriPattern o2pp = o2.resourceClass.pathPattern;
-                // "Sort E using the number of literal characters in each member as the primary key (descending order)"
-                int c = Integer.compare(o2pp.numberOfLiterals, o1pp.numberOfLiterals);
-                if (c == 0) {
-                    // "the number of capturing groups as a secondary key (descending order)"
-                    c = Integer.compare(o2pp.namedGroups().size(), o1pp.namedGroups().size());
-                }
-                if (c == 0) {
-                    // " and the number of capturing groups with non-default regular expressions (i.e. not ‘([ˆ/]+?)’) as the tertiary key (descending order)"
-                    c = Integer.compare(countNonDefaultGroups(o2.resourceClass.pathTemplate), countNonDefaultGroups(o1.resourceClass.pathTemplate));
+        List<RootClass> sortedCandidates = rootsByFirstSegment.getOrDefault(firstSegment(uri), rootsForAnyFirstSegment);
+        for (RootClass candidate : sortedCandidates) {
+            PathMatch matcher = candidate.resourceClass.pathPattern.matcher(uri);
+            if (candidate.accepts(matcher)) {
+                // Set Rmatch to be the first member of E and set U to be the value of the final capturing group of Rmatch when matched against U
+                // Let C0 be the set of classes Z such that R(TZ) = Rmatch. By definition, all root resource classes in C0 must be annotated with the same URI path template modulo variable names
+                List<MatchedClass> c0 = new ArrayList<>(candidate.sameTemplate.size());
+                for (RootClass sameTemplate : candidate.sameTemplate) {
+                    PathMatch sameTemplateMatcher = sameTemplate == candidate ? matcher : sameTemplate.resourceClass.pathPattern.matcher(uri);
+                    if (sameTemplate.accepts(sameTemplateMatcher)) {
+                        c0.add(new MatchedClass(sameTemplate.resourceClass, sameTemplateMatcher));
+                    }
                 }
-                return c;
-            })
-            .collect(toList());
-        if (candidates.isEmpty()) {
-            throw new NotMatchedException();
+                return new StepOneOutput(matcher.lastGroup(), c0);
+            }
         }
-        // Set Rmatch to be the first member of E and set U to be the value of the final capturing group of Rmatch when matched against U
-        UriPattern rMatch = candidates.get(0).resourceClass.pathPattern;
-        String u = rMatch.matcher(uri).lastGroup();
-
-        // Let C0 be the set of classes Z such that R(TZ) = Rmatch. By definition, all root resource classes in C0 must be annotated with the same URI path template modulo variable names
+        throw new NotMatchedException();
+    }
 
-        List<MatchedClass> c0 = candidates.stream()
-            .filter(rc -> rc.resourceClass.pathPattern.equalModuloVariableNames(rMatch))
-            .collect(toList());
-        return new StepOneOutput(u, c0);
+    private static String firstSegment(String uri) {
+        int start = uri.startsWith("/") ? 1 : 0;
+        int end = uri.indexOf('/', start);
+        return end == -1 ? uri.substring(start) : uri.substring(start, end);
     }
 
     private Set<MatchedMethod> stepTwoObtainASetOfCandidateResourceMethodsForTheRequest(URI relativeUri, List<MatchedClass> candidateClasses) throws NotMatchedException {
@@ -93,65 +128,119 @@ class RequestMatcher {
             // handle section 3.7.2 - 2(a)
             Set<MatchedMethod> candidates = new HashSet<>();
             for (MatchedClass mc : candidateClasses) {
-                for (ResourceMethod resourceMethod : mc.resourceClass.resourceMethods) {
-                    if (!resourceMethod.isSubResource() && !resourceMethod.isSubResourceLocator()) {
-                        MatchedMethod matchedMethod = new MatchedMethod(mc, resourceMethod, true, mc.pathMatch.params(), mc.pathMatch);
-                        candidates.add(matchedMethod);
-                    }
+                for (ResourceMethod resourceMethod : methodsByClass.get(mc.resourceClass).resourceMethods) {
+                    candidates.add(new MatchedMethod(mc, resourceMethod, true, mc.pathMatch.params(), mc.pathMatch));
                 }
             }
             if (!candidates.isEmpty()) {
                 return candidates;
             }
+            throw new NotMatchedException();
         }
 
-        List<MatchedMethod> candidates = new ArrayList<>();
+        // Each class's sub-resource methods are already sorted, so the first that matches is the best for that class
+        ResourceMethod best = null;
+        PathMatch bestMatch = null;
         for (MatchedClass candidateClass : candidateClasses) {
-            for (ResourceMethod resourceMethod : candidateClass.resourceClass.resourceMethods) {
-                if (resourceMethod.isSubResource() || resourceMethod.isSubResourceLocator()) {
-                    if (relativeUri != null) {
-                        PathMatch matcher = resourceMethod.pathPattern.matcher(relativeUri);
-                        if (matcher.prefixMatches()) {
-                            Map<String, String> combinedParams = new HashMap<>(candidateClass.pathMatch.params());
-                            combinedParams.putAll(matcher.params());
-                            candidates.add(new MatchedMethod(candidateClass, resourceMethod, true, combinedParams, matcher));
-                        }
-                    }
+            for (ResourceMethod resourceMethod : methodsByClass.get(candidateClass.resourceClass).sortedSubResourceMethods) {
+                if (best != null && compareSubResourceMethods(resourceMethod, best) >= 0) {
+                    break;
+                }
+                PathMatch matcher = resourceMethod.pathPattern.matcher(relativeUri);
+                if (matcher.prefixMatches()) {
+                    best = resourceMethod;
+                    bestMatch = matcher;
+                    break;
                 }
             }
         }
+        if (best == null) {
+            throw new NotMatchedException();
+        }
 
-        candidates.sort((o1, o2) -> {
-            ResourceMethod rm1 = o1.resourceMethod;
-            ResourceMethod rm2 = o2.resourceMethod;
-            // "Sort E using the number of literal characters4 in each member as the primary key (descending order)"
-            int c = Integer.compare(rm2.pathPattern.numberOfLiterals, rm1.pathPattern.numberOfLiterals);
-            if (c == 0) {
-                // "the number of capturing groups as a secondary key (descending order)"
-                c = Integer.compare(rm2.pathPattern.namedGroups().size(), rm1.pathPattern.namedGroups().size());
-            }
-            if (c == 0) {
-                // " and the number of capturing groups with non-default regular expressions (i.e. not ‘([ˆ/]+?)’) as the tertiary key (descending order)"
-                c = Integer.compare(countNonDefaultGroups(rm2.pathTemplate), countNonDefaultGroups(rm1.pathTemplate));
-            }
-            if (c == 0) {
-                // "and the source of each member as quaternary key sorting those derived from sub-resource methods ahead of those derived from sub-resource locators"
-                // TODO: test that this is around the right way
-                c = Boolean.compare(o1.resourceMethod.isSubResourceLocator(), o2.resourceMethod.isSubResourceLocator());
+        Set<MatchedMethod> m = new HashSet<>();
+        for (MatchedClass candidateClass : candidateClasses) {
+            List<ResourceMethod> samePattern = methodsByClass.get(candidateClass.resourceClass).subResourceMethodsByPattern.get(best.pathPattern);
+            if (samePattern != null) {
+                Map<String, String> combinedParams = new HashMap<>(candidateClass.pathMatch.params());
+                combinedParams.putAll(bestMatch.params());
+                for (ResourceMethod resourceMethod : samePattern) {
+                    m.add(new MatchedMethod(candidateClass, resourceMethod, true, combinedParams, bestMatch));
+                }
             }
-            return c;
-        });
+        }
+        return m;
+    }
 
-        if (candidates.isEmpty()) {
-            throw new NotMatchedException();
+    private static int compareSubResourceMethods(ResourceMethod rm1, ResourceMethod rm2) {
+        // "Sort E using the number of literal characters4 in each member as the primary key (descending order)"
+        int c = Integer.compare(rm2.pathPattern.numberOfLiterals, rm1.pathPattern.numberOfLiterals);
+        if (c == 0) {
+            // "the number of capturing groups as a secondary key (descending order)"
+            c = Integer.compare(rm2.pathPattern.namedGroups().size(), rm1.pathPattern.namedGroups().size());
         }
+        if (c == 0) {
+            // " and the number of capturing groups with non-default regular expressions (i.e. not ‘([ˆ/]+?)’) as the tertiary key (descending order)"
+            c = Integer.compare(countNonDefaultGroups(rm2.pathTemplate), countNonDefaultGroups(rm1.pathTemplate));
+        }
+        if (c == 0) {
+            // "and the source of each member as quaternary key sorting those derived from sub-resource methods ahead of those derived from sub-resource locators"
+            // TODO: test that this is around the right way
+            c = Boolean.compare(rm1.isSubResourceLocator(), rm2.isSubResourceLocator());
+        }
+        return c;
+    }
 
-        UriPattern matcher = candidates.get(0).resourceMethod.pathPattern;
-        Set<MatchedMethod> m = candidates.stream().filter(rm -> rm.resourceMethod.pathPattern.equals(matcher)).collect(toSet());
-        if (!m.isEmpty()) {
-            return m;
+    /**
+     * A root resource class along with the data needed to match it that can be calculated ahead of time
+     */
+    private static class RootClass {
+        final ResourceClass resourceClass;
+        final boolean hasSubResourceMethods;
+        /**
+         * The URL-encoded first segment of the class's path, or null if it starts with a template
+         */
+        final String firstSegment;
+        /**
+         * All the roots (including this one) with the same path template modulo variable names, in sorted order
+         */
+        final List<RootClass> sameTemplate = new ArrayList<>(1);
+
+        RootClass(ResourceClass resourceClass) {
+            this.resourceClass = resourceClass;
+            this.hasSubResourceMethods = !resourceClass.subResourceMethods().isEmpty();
+            String template = UriPattern.trimSlashes(resourceClass.pathTemplate);
+            int slash = template.indexOf('/');
+            String first = slash == -1 ? template : template.substring(0, slash);
+            this.firstSegment = first.isEmpty() || first.contains("{") ? null : Mutils.urlEncode(Jaxutils.leniantUrlDecode(first));
+        }
+
+        boolean accepts(PathMatch matcher) {
+            // Remove members that do not match U.
+            // Remove members for which the final regular expression capturing group value is neither empty nor ‘/’ and the class has no subresource methods or locators.
+            return matcher.prefixMatches() && !(matcher.lastGroup() != null && !hasSubResourceMethods);
+        }
+    }
+
+    /**
+     * The resource methods of a class, grouped and sorted ahead of time for step 2
+     */
+    private static class ClassMethods {
+        final List<ResourceMethod> resourceMethods = new ArrayList<>();
+        final List<ResourceMethod> sortedSubResourceMethods = new ArrayList<>();
+        final Map<UriPattern, List<ResourceMethod>> subResourceMethodsByPattern = new HashMap<>();
+
+        ClassMethods(ResourceClass resourceClass) {
+            for (ResourceMethod resourceMethod : resourceClass.resourceMethods) {
+                if (resourceMethod.isSubResource() || resourceMethod.isSubResourceLocator()) {
+                    sortedSubResourceMethods.add(resourceMethod);
+                    subResourceMethodsByPattern.computeIfAbsent(resourceMethod.pathPattern, p -> new ArrayList<>()).add(resourceMethod);
+                } else {
+                    resourceMethods.add(resourceMethod);
+                }
+            }
+            sortedSubResourceMethods.sort(RequestMatcher::compareSubResourceMethods);
         }
-        throw new NotMatchedException();
     }
 
     static class MatchedClass {
@@ -190,9 +279,20 @@ class RequestMatcher {
     }
 
     private MatchedMethod stepThreeIdentifyTheMethodThatWillHandleTheRequest(Method method, Set<MatchedMethod> candidates, String requestBodyContentType, List<MediaType> acceptHeaders) throws NotAllowedException, NotAcceptableException, NotSupportedException {
-        List<MatchedMethod> result = candidates.stream().filter(rm -> rm.resourceMethod.httpMethod == method).collect(toList());
+        List<MatchedMethod> result = new ArrayList<>(candidates.size());
+        for (MatchedMethod candidate : candidates) {
+            if (candidate.resourceMethod.httpMethod == method) {
+                result.add(candidate);
+            }
+        }
         if (result.isEmpty()) {
-            List<String> allowed = candidates.stream().map(c -> c.resourceMethod.httpMethod.name()).distinct().collect(toList());
+            List<String> allowed = new ArrayList<>();
+            for (MatchedMethod candidate : candidates) {
+                String name = candidate.resourceMethod.httpMethod.name();
+                if (!allowed.contains(name)) {
+                    allowed.add(name);
+                }
+            }
             throw new NotAllowedException(allowed.get(0), allowed.subList(1, allowed.size()).toArray(new String[0]));
         }
 
@@ -200,7 +300,7 @@ class RequestMatcher {
         // If no methods support the media type of the request entity body an implementation MUST generate a
         // NotSupportedException (415 status) and no entity.
         MediaType requestBodyMediaType = requestBodyContentType == null ? MediaTypeHeaderDelegate.NONE : MediaType.valueOf(requestBodyContentType);
-        result = result.stream().filter(rm -> rm.resourceMethod.canConsume(requestBodyMediaType)).collect(toList());
+        result.removeIf(rm -> !rm.resourceMethod.canConsume(requestBodyMediaType));
         if (result.isEmpty()) {
             throw new NotSupportedException();
         }
@@ -209,7 +309,7 @@ class RequestMatcher {
         // If no methods support one of the acceptable response entity body media types an implementation MUST generate a
         // NotAcceptableException (406 status) and no entity.
         List<MediaType> clientAccepts = acceptHeaders.isEmpty() ? WILDCARD_AS_LIST : acceptHeaders;
-        result = result.stream().filter(rm -> rm.resourceMethod.canProduceFor(clientAccepts)).collect(toList());
+        result.removeIf(rm -> !rm.resourceMethod.canProduceFor(clientAccepts));
         if (result.isEmpty()) {
             throw new NotAcceptableException();
         }
@@ -219,22 +319,33 @@ class RequestMatcher {
         }
 
         List<MediaType> requestBodyTypeAsList = Collections.singletonList(requestBodyMediaType);
-        return result.stream()
-            .max((o1, o2) -> {
-                int compare = bestMediaType(requestBodyTypeAsList, o1.resourceMethod.effectiveConsumes).compareTo(bestMediaType(requestBodyTypeAsList, o2.resourceMethod.effectiveConsumes));
-                if (compare != 0) {
-                    return compare;
-                }
-                return bestMediaType(clientAccepts, o1.resourceMethod.effectiveProduces).compareTo(bestMediaType(clientAccepts, o2.resourceMethod.effectiveProduces));
-            }).get();
-
+        MatchedMethod best = result.get(0);
+        for (int i = 1; i < result.size(); i++) {
+            MatchedMethod candidate = result.get(i);
+            int compare = bestMediaType(requestBodyTypeAsList, best.resourceMethod.effectiveConsumes).compareTo(bestMediaType(requestBodyTypeAsList, candidate.resourceMethod.effectiveConsumes));
+            if (compare == 0) {
+                compare = bestMediaType(clientAccepts, best.resourceMethod.effectiveProduces).compareTo(bestMediaType(clientAccepts, candidate.resourceMethod.effectiveProduces));
+            }
+            if (compare < 0) {
+                best = candidate;
+            }
+        }
+        return best;
     }
 
 
     private static CombinedMediaType bestMediaType(List<MediaType> requestedTypes, List<MediaType> serverProvided) {
-        return serverProvided.stream()
-            .map(serverType -> requestedTypes.stream().map(clientType -> CombinedMediaType.s(clientType, serverType)).max(Comparator.reverseOrder()).get())
-            .max(Comparator.reverseOrder()).get();
+        // lower values are better, and the first is kept if there is a tie
+        CombinedMediaType best = null;
+        for (MediaType serverType : serverProvided) {
+            for (MediaType clientType : requestedTypes) {
+                CombinedMediaType combined = CombinedMediaType.s(clientType, serverType);
+                if (best == null || combined.compareTo(best) < 0) {
+                    best = combined;
+                }
+            }
+        }
+        return best;
     }
 
     static class StepOneOutput {
@@ -248,7 +359,7 @@ class RequestMatcher {
 
     }
 
-    private int countNonDefaultGroups(String pathTemplate) {
+    private static int countNonDefaultGroups(String pathTemplate) {
         int count = 0;
         for (String bit : pathTemplate.split("/")) {
             if (bit.startsWith("{") && bit.endsWith("}") && bit.contains(":")) {
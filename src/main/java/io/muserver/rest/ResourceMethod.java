@@ -10,6 +10,9 @@ import io.muserver.openapi.SchemaObjectBuilder;
 import javax.ws.rs.HttpMethod;
 import javax.ws.rs.core.MediaType;
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -41,6 +44,11 @@ class ResourceMethod {
     private final DescriptionData descriptionData;
     private final boolean isDeprecated;
     private final List<Class<? extends Annotation>> nameBindingAnnotations;
+    private final int parameterCount;
+    /**
+     * The java method bound to the resource instance, taking the arguments as a single Object array and returning an Object
+     */
+    private final MethodHandle invoker;
 
     ResourceMethod(ResourceClass resourceClass, UriPattern pathPattern, java.lang.reflect.Method methodHandle, List<ResourceMethodParam> params, Method httpMethod, String pathTemplate, List<MediaType> produces, List<MediaType> consumes, DescriptionData descriptionData, boolean isDeprecated, List<Class<? extends Annotation>> nameBindingAnnotations) {
         this.resourceClass = resourceClass;
@@ -55,6 +63,19 @@ class ResourceMethod {
         this.nameBindingAnnotations = nameBindingAnnotations;
         this.effectiveProduces = !produces.isEmpty() ? produces : (!resourceClass.produces.isEmpty() ? resourceClass.produces : RequestMatcher.WILDCARD_AS_LIST);
         this.effectiveConsumes = !consumes.isEmpty() ? consumes : (!resourceClass.consumes.isEmpty() ? resourceClass.consumes : RequestMatcher.WILDCARD_AS_LIST);
+        this.parameterCount = methodHandle.getParameterCount();
+        this.invoker = createInvoker(methodHandle, resourceClass.resourceInstance);
+    }
+
+    private static MethodHandle createInvoker(java.lang.reflect.Method method, Object instance) {
+        try {
+            return MethodHandles.lookup().unreflect(method)
+                .bindTo(instance)
+                .asSpreader(Object[].class, method.getParameterCount())
+                .asType(MethodType.methodType(Object.class, Object[].class));
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Could not access the REST method " + method, e);
+        }
     }
 
     boolean hasAll(List<Class<? extends Annotation>> annotations) {
@@ -74,15 +95,20 @@ class ResourceMethod {
         return httpMethod == null;
     }
 
+    /**
+     * @return A new array to hold the arguments for {@link #invoke(Object...)}
+     */
+    Object[] newParamArray() {
+        return new Object[parameterCount];
+    }
+
     Object invoke(Object... params) throws Exception {
         try {
-            return methodHandle.invoke(resourceClass.resourceInstance, params);
-        } catch (InvocationTargetException e) {
-            Throwable cause = e.getCause();
-            if (cause instanceof Exception) {
-                throw (Exception) cause;
-            }
+            return (Object) invoker.invokeExact(params);
+        } catch (Exception | Error e) {
             throw e;
+        } catch (Throwable t) {
+            throw new InvocationTargetException(t);
         }
     }
 
@@ -33,7 +33,7 @@ import static java.util.Collections.singletonList;
  *
  * @see RestHandlerBuilder#restHandler(Object...)
  */
-public class RestHandler implements MuHandler {
+public class RestHandler implements NonBlockingHandler {
     private static final Logger log = LoggerFactory.getLogger(RestHandler.class);
 
     private final RequestMatcher requestMatcher;
@@ -42,14 +42,40 @@ public class RestHandler implements MuHandler {
     private final CustomExceptionMapper customExceptionMapper;
     private final FilterManagerThing filterManagerThing;
     private final CORSConfig corsConfig;
+    private final boolean nonBlocking;
 
-    RestHandler(EntityProviders entityProviders, List<ResourceClass> roots, MuHandler documentor, CustomExceptionMapper customExceptionMapper, FilterManagerThing filterManagerThing, CORSConfig corsConfig) {
+    RestHandler(EntityProviders entityProviders, List<ResourceClass> roots, MuHandler documentor, CustomExceptionMapper customExceptionMapper, FilterManagerThing filterManagerThing, CORSConfig corsConfig, boolean nonBlocking) {
         this.requestMatcher = new RequestMatcher(roots);
         this.entityProviders = entityProviders;
         this.documentor = documentor;
         this.customExceptionMapper = customExceptionMapper;
         this.filterManagerThing = filterManagerThing;
         this.corsConfig = corsConfig;
+        this.nonBlocking = nonBlocking;
+    }
+
+    /**
+     * @return Statistics about the cache of message body readers selected for request bodies
+     */
+    public EntityProviderCacheStats messageBodyReaderCacheStats() {
+        return entityProviders.readerCache;
+    }
+
+    /**
+     * @return Statistics about the cache of message body writers selected for response entities
+     */
+    public EntityProviderCacheStats messageBodyWriterCacheStats() {
+        return entityProviders.writerCache;
+    }
+
+    /**
+     * @param request The request about to be handled.
+     * @return <code>true</code> if this handler was built with {@link RestHandlerBuilder#withNonBlockingResources(boolean)}
+     * and the request has no body to read.
+     */
+    @Override
+    public boolean canRunOnNioThread(MuRequest request) {
+        return nonBlocking && !request.headers().hasBody();
     }
 
     @Override
@@ -98,7 +124,7 @@ public class RestHandler implements MuHandler {
             List<MediaType> produces = producesRef = mm.resourceMethod.resourceClass.produces;
             List<MediaType> directlyProduces = directlyProducesRef = mm.resourceMethod.directlyProduces;
             ResourceMethod rm = mm.resourceMethod;
-            Object[] params = new Object[rm.methodHandle.getParameterCount()];
+            Object[] params = rm.newParamArray();
 
             requestContext.setMatchedMethod(mm);
             filterManagerThing.onPostMatch(requestContext);
@@ -38,6 +38,7 @@ public class RestHandlerBuilder implements MuHandlerBuilder<RestHandler> {
     private List<ContainerRequestFilter> requestFilters = new ArrayList<>();
     private List<ContainerResponseFilter> responseFilters = new ArrayList<>();
     private CORSConfig corsConfig = CORSConfigBuilder.disabled().build();
+    private boolean nonBlocking = false;
 
     public RestHandlerBuilder(Object... resources) {
         addResource(resources);
@@ -214,6 +215,20 @@ public class RestHandlerBuilder implements MuHandlerBuilder<RestHandler> {
         return this;
     }
 
+    /**
+     * <p>Declares that none of the resource methods, filters, or entity writers of this handler block, so requests
+     * can be handled directly on the nio thread that received them rather than on the handler executor.</p>
+     * <p>Requests with a request body are still handled on the executor, as reading the body into a resource method
+     * parameter blocks. See {@link io.muserver.NonBlockingHandler} for details of what must be avoided.</p>
+     *
+     * @param nonBlocking <code>true</code> if the resources never block. Defaults to <code>false</code>.
+     * @return The current Rest Handler Builder
+     */
+    public RestHandlerBuilder withNonBlockingResources(boolean nonBlocking) {
+        this.nonBlocking = nonBlocking;
+        return this;
+    }
+
     /**
      * @return The current Rest Handler Builder
      * @deprecated This does nothing. To expose API endpoints, use {@link #withOpenApiJsonUrl(String)} and/or {@link #withOpenApiHtmlUrl(String)}
@@ -256,7 +271,7 @@ public class RestHandlerBuilder implements MuHandlerBuilder<RestHandler> {
 
         FilterManagerThing filterManagerThing = new FilterManagerThing(preMatchRequestFilters, requestFilters, responseFilters);
 
-        return new RestHandler(entityProviders, roots, documentor, customExceptionMapper, filterManagerThing, corsConfig);
+        return new RestHandler(entityProviders, roots, documentor, customExceptionMapper, filterManagerThing, corsConfig, nonBlocking);
     }
 
     /**
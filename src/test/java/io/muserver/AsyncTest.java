@@ -14,9 +14,14 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -52,6 +57,92 @@ public class AsyncTest {
         }
     }
 
+    @Test
+    public void manySmallWritesFromConcurrentStreamsAreWrittenInOrder() throws Exception {
+        int chunks = 200;
+        server = ServerUtils.httpsServerForTest()
+            .addHandler(Method.GET, "/", (request, response, pathParams) -> {
+                response.contentType(ContentTypes.TEXT_PLAIN_UTF8);
+                AsyncHandle asyncHandle = request.handleAsync();
+                AtomicInteger remaining = new AtomicInteger(chunks);
+                for (int i = 0; i < chunks; i++) {
+                    asyncHandle.write(Mutils.toByteBuffer(i + ","), error -> {
+                        if (error != null) {
+                            asyncHandle.complete(error);
+                        } else if (remaining.decrementAndGet() == 0) {
+                            asyncHandle.complete();
+                        }
+                    });
+                }
+            })
+            .start();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < chunks; i++) {
+            expected.append(i).append(',');
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        try {
+            List<Future<String>> bodies = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                bodies.add(executor.submit(() -> {
+                    try (Response resp = call(request(server.uri()))) {
+                        assertThat(isHttp2(resp), is(true));
+                        return resp.body().string();
+                    }
+                }));
+            }
+            for (Future<String> body : bodies) {
+                assertThat(body.get(30, TimeUnit.SECONDS), equalTo(expected.toString()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void writabilityListenersCanBeUsedToWriteAtTheRateTheClientReads() throws Exception {
+        int chunkSize = 64 * 1024;
+        int chunks = 160;
+        List<Boolean> events = new CopyOnWriteArrayList<>();
+        server = ServerUtils.httpsServerForTest()
+            .withResponseWatermarks(16 * 1024, 128 * 1024)
+            .addHandler(Method.GET, "/", (request, response, pathParams) -> {
+                response.contentType(ContentTypes.APPLICATION_OCTET_STREAM);
+                AsyncHandle asyncHandle = request.handleAsync();
+                AtomicInteger written = new AtomicInteger();
+                AtomicInteger sent = new AtomicInteger();
+                Runnable writeMore = new Runnable() {
+                    @Override
+                    public synchronized void run() {
+                        while (asyncHandle.isWritable() && written.get() < chunks) {
+                            written.incrementAndGet();
+                            asyncHandle.write(ByteBuffer.wrap(new byte[chunkSize]), error -> {
+                                if (error != null) {
+                                    asyncHandle.complete(error);
+                                } else if (sent.incrementAndGet() == chunks) {
+                                    asyncHandle.complete();
+                                }
+                            });
+                        }
+                    }
+                };
+                asyncHandle.setWritabilityListener(writable -> {
+                    events.add(writable);
+                    if (writable) {
+                        writeMore.run();
+                    }
+                });
+                writeMore.run();
+            })
+            .start();
+        try (Response resp = call(request(server.uri()))) {
+            assertThat(resp.code(), equalTo(200));
+            assertThat(resp.body().bytes().length, equalTo(chunkSize * chunks));
+        }
+        assertThat(events, hasItems(false, true));
+        assertThat(events.get(0), is(false));
+    }
+
     @Test
     public void responsesCanBeAsync() throws IOException {
 
@@ -1,5 +1,6 @@
 package io.muserver;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import org.junit.Assert;
 import org.junit.Test;
@@ -146,6 +147,101 @@ public class GrowableByteBufferInputStreamTest {
         assertThat(received, equalTo(sent));
     }
 
+    @Test
+    public void handedOffBuffersAreNotCopiedAndAreOnlyCompletedOnceFullyRead() throws IOException {
+        GrowableByteBufferInputStream stream = new GrowableByteBufferInputStream(10000, Long.MAX_VALUE);
+        ByteBuf first = Unpooled.wrappedBuffer(new byte[]{1, 2, 3, 4});
+        ByteBuf second = Unpooled.wrappedBuffer(new byte[]{5, 6});
+        List<String> completed = new ArrayList<>();
+        stream.handOff(first, error -> completed.add("first"));
+        stream.handOff(second, error -> completed.add("second"));
+        stream.close();
+
+        byte[] buffer = new byte[3];
+        assertThat(stream.read(buffer), is(3));
+        assertThat(completed, is(empty()));
+        assertThat(stream.read(buffer), is(1));
+        assertThat(completed, contains("first"));
+        assertThat(stream.read(), is(5));
+        assertThat(stream.available(), is(1));
+        assertThat(stream.read(), is(6));
+        assertThat(completed, contains("first", "second"));
+        assertThat(stream.read(buffer), is(-1));
+    }
+
+    @Test
+    public void discardingCompletesUnreadAndFutureBuffers() throws IOException {
+        GrowableByteBufferInputStream stream = new GrowableByteBufferInputStream(10000, Long.MAX_VALUE);
+        List<String> completed = new ArrayList<>();
+        stream.handOff(Unpooled.wrappedBuffer(new byte[]{1, 2, 3, 4}), error -> completed.add("first"));
+        stream.handOff(Unpooled.wrappedBuffer(new byte[]{5, 6}), error -> completed.add("second"));
+        assertThat(stream.read(), is(1));
+
+        stream.discard();
+        assertThat(completed, contains("first", "second"));
+
+        stream.handOff(Unpooled.wrappedBuffer(new byte[]{7}), error -> completed.add("third"));
+        assertThat(completed, contains("first", "second", "third"));
+        assertThat(stream.read(), is(-1));
+    }
+
+    @Test
+    public void discardingWakesUpBlockedReaders() throws Exception {
+        GrowableByteBufferInputStream stream = new GrowableByteBufferInputStream(30000, Long.MAX_VALUE);
+        java.util.concurrent.Future<Integer> result = executor.submit(() -> stream.read());
+        Thread.sleep(50);
+        stream.discard();
+        assertThat(result.get(10, TimeUnit.SECONDS), is(-1));
+    }
+
+    @Test
+    public void readingIsPausedAtTheRequestHighWatermarkAndResumedAtTheLowWatermark() throws IOException {
+        RequestBodyBudget budget = new RequestBodyBudget(2, 6, Long.MAX_VALUE, Long.MAX_VALUE);
+        GrowableByteBufferInputStream stream = new GrowableByteBufferInputStream(10000, Long.MAX_VALUE, budget);
+        List<String> resumed = new ArrayList<>();
+        assertThat(stream.handOff(Unpooled.wrappedBuffer(new byte[]{1, 2, 3}), DoneCallback.NoOp, () -> resumed.add("first")), is(true));
+        assertThat(stream.handOff(Unpooled.wrappedBuffer(new byte[]{4, 5, 6}), DoneCallback.NoOp, () -> resumed.add("second")), is(false));
+        assertThat(budget.serverBuffered(), is(6L));
+
+        byte[] buffer = new byte[3];
+        assertThat(stream.read(buffer), is(3));
+        assertThat("3 bytes still buffered which is above the low watermark", resumed, is(empty()));
+        assertThat(stream.read(buffer), is(3));
+        assertThat(resumed, contains("second"));
+        assertThat(budget.serverBuffered(), is(0L));
+    }
+
+    @Test
+    public void readingIsPausedUntilTheServerTotalDrainsToTheServerLowWatermark() throws IOException {
+        RequestBodyBudget budget = new RequestBodyBudget(Long.MAX_VALUE, Long.MAX_VALUE, 2, 6);
+        GrowableByteBufferInputStream one = new GrowableByteBufferInputStream(10000, Long.MAX_VALUE, budget);
+        GrowableByteBufferInputStream two = new GrowableByteBufferInputStream(10000, Long.MAX_VALUE, budget);
+        List<String> resumed = new ArrayList<>();
+        assertThat(one.handOff(Unpooled.wrappedBuffer(new byte[]{1, 2, 3, 4}), DoneCallback.NoOp, () -> resumed.add("one")), is(true));
+        assertThat(two.handOff(Unpooled.wrappedBuffer(new byte[]{5, 6}), DoneCallback.NoOp, () -> resumed.add("two")), is(false));
+
+        assertThat(two.read(new byte[2]), is(2));
+        assertThat("Server total is still above the low watermark", resumed, is(empty()));
+        assertThat(one.read(new byte[4]), is(4));
+        assertThat(resumed, contains("two"));
+    }
+
+    @Test
+    public void discardingResumesPausedReaders() {
+        RequestBodyBudget budget = new RequestBodyBudget(0, 1, Long.MAX_VALUE, Long.MAX_VALUE);
+        GrowableByteBufferInputStream stream = new GrowableByteBufferInputStream(10000, Long.MAX_VALUE, budget);
+        List<String> resumed = new ArrayList<>();
+        assertThat(stream.handOff(Unpooled.wrappedBuffer(new byte[]{1, 2}), DoneCallback.NoOp, () -> resumed.add("paused")), is(false));
+        stream.discard();
+        assertThat(resumed, contains("paused"));
+        assertThat(budget.serverBuffered(), is(0L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lowWatermarksCannotBeAboveHighWatermarks() {
+        RequestBodyBudget.validate(10, 9);
+    }
+
     private ByteBuffer randomBuffer() {
         int size = 1 + rng.nextInt(16384);
         byte[] bytes = new byte[size];
@@ -1,5 +1,7 @@
 package io.muserver;
 
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.Response;
 import org.junit.After;
@@ -11,8 +13,12 @@ import scaffolding.ServerUtils;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.URI;
+import java.util.Collections;
+import java.util.Date;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static io.muserver.MuServerBuilder.httpServer;
@@ -32,6 +38,75 @@ public class HeadersTest {
         MuAssert.stopAndCheck(server);
     }
 
+    @Test
+    public void theDateHeaderIsTheCurrentTimeForHttp1AndHttp2() throws IOException {
+        server = ServerUtils.httpsServerForTest()
+            .withHttpPort(0)
+            .addHandler((request, response) -> {
+                response.write("Hello");
+                return true;
+            }).start();
+
+        for (URI uri : new URI[]{server.httpUri(), server.httpsUri()}) {
+            for (int i = 0; i < 3; i++) {
+                long before = System.currentTimeMillis() / 1000 * 1000;
+                try (Response resp = call(request(uri))) {
+                    long after = System.currentTimeMillis();
+                    long date = Mutils.fromHttpDate(resp.header("Date")).getTime();
+                    assertThat(date >= before && date <= after, is(true));
+                    assertThat(resp.header("Date"), equalTo(Mutils.toHttpDate(new Date(date))));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void headersFromOneResponseAreNotSentWithTheNextOnTheSameConnection() throws IOException {
+        Set<HttpConnection> connections = ConcurrentHashMap.newKeySet();
+        server = httpServer()
+            .addHandler((request, response) -> {
+                connections.add(request.connection());
+                String path = request.uri().getPath();
+                if (path.equals("/redirect")) {
+                    response.redirect("/full");
+                    return true;
+                }
+                response.headers().set("X-Path", path);
+                if (path.equals("/streamed")) {
+                    response.headers().set("X-Only-Streamed", "yes");
+                    try (PrintWriter writer = response.writer()) {
+                        writer.print("streamed");
+                    }
+                } else if (path.equals("/empty")) {
+                    response.status(204);
+                } else {
+                    response.write("full");
+                }
+                return true;
+            }).start();
+
+        OkHttpClient http1Client = ClientUtils.client.newBuilder()
+            .protocols(Collections.singletonList(Protocol.HTTP_1_1))
+            .followRedirects(false)
+            .build();
+        for (int i = 0; i < 3; i++) {
+            for (String path : new String[]{"/streamed", "/full", "/empty", "/redirect"}) {
+                try (Response resp = http1Client.newCall(request(server.uri().resolve(path)).build()).execute()) {
+                    boolean redirect = path.equals("/redirect");
+                    assertThat(resp.header("X-Path"), redirect ? nullValue() : equalTo(path));
+                    assertThat(resp.header("Location"), redirect ? equalTo(server.uri().resolve("/full").toString()) : nullValue());
+                    assertThat(resp.header("X-Only-Streamed"), path.equals("/streamed") ? equalTo("yes") : nullValue());
+                    resp.body().string();
+                }
+            }
+            try (Response resp = http1Client.newCall(request(server.uri().resolve("/full")).head().build()).execute()) {
+                assertThat(resp.header("X-Path"), equalTo("/full"));
+                assertThat(resp.header("X-Only-Streamed"), is(nullValue()));
+            }
+        }
+        assertThat(connections.size(), is(1));
+    }
+
     @Test
     public void canGetAndSetThem() throws IOException {
         server = ServerUtils.httpsServerForTest()
@@ -176,6 +176,151 @@ public class MuServerTest {
         }
     }
 
+    @Test
+    public void nioIsTheDefaultTransport() throws IOException {
+        server = ServerUtils.httpsServerForTest()
+            .addHandler(Method.GET, "/", (req, resp, pp) -> resp.write("Hello"))
+            .start();
+        assertThat(server.transport(), is(Transport.NIO));
+        try (Response resp = call(request(server.uri()))) {
+            assertThat(resp.body().string(), equalTo("Hello"));
+        }
+    }
+
+    @Test
+    public void nonBlockingHandlersRunOnTheNioThreadUntilABlockingHandlerIsReached() throws IOException {
+        server = ServerUtils.httpsServerForTest()
+            .addHandler((NonBlockingHandler) (req, resp) -> {
+                resp.headers().add("X-First", Thread.currentThread().getName());
+                return false;
+            })
+            .addNonBlockingHandler(Method.GET, "/fast", (req, resp, pp) -> resp.write(Thread.currentThread().getName()))
+            .addHandler(Method.GET, "/slow", (req, resp, pp) -> resp.write(Thread.currentThread().getName()))
+            .start();
+        try (Response resp = call(request(server.uri().resolve("/fast")))) {
+            assertThat(resp.header("X-First"), startsWith("nioEventLoopGroup"));
+            assertThat(resp.body().string(), startsWith("nioEventLoopGroup"));
+        }
+        try (Response resp = call(request(server.uri().resolve("/slow")))) {
+            assertThat(resp.header("X-First"), startsWith("nioEventLoopGroup"));
+            assertThat(resp.body().string(), startsWith("muhandler"));
+        }
+        try (Response resp = call(request(server.uri().resolve("/not-found")))) {
+            assertThat(resp.code(), is(404));
+        }
+    }
+
+    @Test
+    public void nonBlockingHandlersCanHandleRequestsAsynchronously() throws IOException {
+        server = ServerUtils.httpsServerForTest()
+            .addNonBlockingHandler(Method.POST, "/echo", (req, resp, pp) -> {
+                AsyncHandle handle = req.handleAsync();
+                handle.setReadListener(new RequestBodyListener() {
+                    @Override
+                    public void onDataReceived(ByteBuffer buffer, DoneCallback doneCallback) {
+                        handle.write(buffer, doneCallback);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        handle.complete();
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        handle.complete(t);
+                    }
+                });
+            })
+            .start();
+        try (Response resp = call(request(server.uri().resolve("/echo")).post(RequestBody.create(null, "Hello from the nio thread")))) {
+            assertThat(resp.body().string(), equalTo("Hello from the nio thread"));
+        }
+    }
+
+    @Test
+    public void handlersCanBeRunOnVirtualThreadsWhereSupported() throws Exception {
+        java.lang.reflect.Method isVirtual;
+        try {
+            isVirtual = Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            isVirtual = null;
+        }
+        java.lang.reflect.Method finalIsVirtual = isVirtual;
+        server = ServerUtils.httpsServerForTest()
+            .withVirtualThreads(true)
+            .addHandler(Method.GET, "/", (req, resp, pp) -> {
+                Object virtual = finalIsVirtual == null ? "unsupported" : finalIsVirtual.invoke(Thread.currentThread());
+                resp.write(String.valueOf(virtual));
+            })
+            .start();
+        // virtual threads can only be created on JDK 19 and 20 with --enable-preview, otherwise a thread pool is used
+        String expected = "unsupported";
+        if (isVirtual != null) {
+            try {
+                ((ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null)).shutdown();
+                expected = "true";
+            } catch (Exception e) {
+                expected = "false";
+            }
+        }
+        try (Response resp = call(request(server.uri()))) {
+            assertThat(resp.body().string(), equalTo(expected));
+        }
+    }
+
+    @Test
+    public void autoTransportPicksSomethingThatWorks() throws IOException {
+        server = ServerUtils.httpsServerForTest()
+            .withTransport(Transport.AUTO)
+            .addHandler(Method.GET, "/", (req, resp, pp) -> resp.write("Hello"))
+            .start();
+        assertThat(server.transport(), not(Transport.AUTO));
+        try (Response resp = call(request(server.uri()))) {
+            assertThat(resp.body().string(), equalTo("Hello"));
+        }
+    }
+
+    @Test
+    public void epollWithReusePortBindsAnAcceptorPerThreadToTheSamePort() throws IOException {
+        Assume.assumeTrue(io.netty.channel.epoll.Epoll.isAvailable());
+        server = ServerUtils.httpsServerForTest()
+            .withHttpPort(0)
+            .withTransport(Transport.EPOLL)
+            .withReusePort(true)
+            .withTcpFastOpen(256)
+            .withNioThreads(4)
+            .addHandler(Method.GET, "/", (req, resp, pp) -> resp.write("Hello from " + req.uri().getScheme()))
+            .start();
+        assertThat(server.transport(), is(Transport.EPOLL));
+        for (int i = 0; i < 10; i++) {
+            try (Response resp = call(request(server.httpUri()).header("Connection", "close"))) {
+                assertThat(resp.body().string(), equalTo("Hello from http"));
+            }
+            try (Response resp = call(request(server.httpsUri()))) {
+                assertThat(resp.body().string(), equalTo("Hello from https"));
+            }
+        }
+    }
+
+    @Test
+    public void reusePortIsIgnoredForNio() throws IOException {
+        server = ServerUtils.httpsServerForTest()
+            .withTransport(Transport.NIO)
+            .withReusePort(true)
+            .addHandler(Method.GET, "/", (req, resp, pp) -> resp.write("Hello"))
+            .start();
+        try (Response resp = call(request(server.uri()))) {
+            assertThat(resp.body().string(), equalTo("Hello"));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void requestingAnUnavailableTransportFailsOnStartup() {
+        Assume.assumeFalse(io.netty.channel.epoll.Epoll.isAvailable());
+        server = ServerUtils.httpsServerForTest().withTransport(Transport.EPOLL).start();
+    }
+
     @Test
     public void ifNoPortsDefinedAFriendlyMessageIsReturned() {
         try {
@@ -0,0 +1,62 @@
+package io.muserver;
+
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpHeaders;
+import org.junit.Test;
+
+import java.nio.channels.ClosedChannelException;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ResponseHeaderStorageTest {
+
+    private final EmbeddedChannel channel = new EmbeddedChannel();
+    private final ResponseHeaderStorage storage = new ResponseHeaderStorage();
+
+    @Test
+    public void theMapIsReusedOnceTheMessageHoldingItIsWritten() {
+        HttpHeaders first = storage.take();
+        first.set("X-First", "yes");
+        ChannelPromise write = channel.newPromise();
+        assertThat(storage.releaseWhenWritten(first, write), sameInstance(write));
+
+        HttpHeaders whileWriting = storage.take();
+        assertThat(whileWriting, not(sameInstance(first)));
+        storage.releaseWhenWritten(whileWriting, channel.newSucceededFuture());
+
+        write.setSuccess();
+        HttpHeaders next = storage.take();
+        assertThat(next, sameInstance(first));
+        assertThat(next.isEmpty(), is(true));
+    }
+
+    @Test
+    public void theMapIsReusedAfterAFailedWrite() {
+        HttpHeaders first = storage.take();
+        ChannelPromise write = channel.newPromise();
+        storage.releaseWhenWritten(first, write);
+        write.setFailure(new ClosedChannelException());
+        assertThat(storage.take(), sameInstance(first));
+    }
+
+    @Test
+    public void releasingTheMapWhenItIsNotInUseIsAnError() {
+        HttpHeaders headers = storage.take();
+        ChannelPromise write = channel.newPromise();
+        storage.releaseWhenWritten(headers, write);
+        write.setSuccess();
+        try {
+            storage.operationComplete(write);
+            fail("Should not be able to release the map twice");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), equalTo("The response header map was released when it was not in use"));
+        }
+    }
+
+}
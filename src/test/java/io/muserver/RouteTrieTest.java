@@ -0,0 +1,81 @@
+package io.muserver;
+
+import io.muserver.rest.PathMatch;
+import io.muserver.rest.UriPattern;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class RouteTrieTest {
+
+    private static final RouteHandler noop = (request, response, pathParams) -> {};
+
+    @Test
+    public void literalAndTemplatedSegmentsMatchTheSameAsTheUriPattern() {
+        List<String> templates = Arrays.asList("/", "/blah", "/blah/{id}", "/blah/{id}/ha", "/blah/{id : [0-9]+}/ha",
+            "/blah ha/{name}/ha", "/files/{name}.txt", "/a/{b}/{c}", "/any/{path : .+}", "/a//b", "/twice/{x}/{x}");
+        List<String> paths = Arrays.asList("/", "", "//", "/blah", "/blah/", "/blah//", "/blahd", "/bla", "/blah/1",
+            "/blah/1/", "/blah/1/ha", "/blah/a/ha", "/blah/1/ha/ooh", "/blah%20ha/hello%20goodbye/ha", "/files/a.txt",
+            "/files/a.txt/", "/files/.txt", "/a/b/c", "/a//c", "/a/b/c/d", "/any/thing/at/all", "/any/", "/a//b",
+            "/twice/1/1", "/twice/1/2", "/blah/hello+world");
+        for (String template : templates) {
+            UriPattern pattern = UriPattern.uriTemplateToRegex(template);
+            RouteTrie trie = new RouteTrie.Builder(false).add(Method.GET, template, noop).build();
+            for (String path : paths) {
+                PathMatch expected = pattern.matcher(path);
+                RouteTrie.Match actual = trie.find(Method.GET, path);
+                String desc = template + " with " + path;
+                if (expected.fullyMatches()) {
+                    assertThat(desc, actual, notNullValue());
+                    assertThat(desc, actual.params(), equalTo(expected.params()));
+                } else {
+                    assertThat(desc, actual, nullValue());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void theFirstRegisteredMatchingRouteWins() {
+        RouteHandler regex = (request, response, pathParams) -> {};
+        RouteHandler param = (request, response, pathParams) -> {};
+        RouteHandler literal = (request, response, pathParams) -> {};
+        RouteHandler anyMethod = (request, response, pathParams) -> {};
+        RouteTrie trie = new RouteTrie.Builder(false)
+            .add(Method.GET, "/things/{id : [0-9]+}", regex)
+            .add(Method.GET, "/things/{id}", param)
+            .add(Method.GET, "/things/new", literal)
+            .add(null, "/things/new", anyMethod)
+            .build();
+
+        assertThat(trie.find(Method.GET, "/things/123").handler(), sameInstance(regex));
+        assertThat(trie.find(Method.GET, "/things/new").handler(), sameInstance(param));
+        assertThat(trie.find(Method.POST, "/things/new").handler(), sameInstance(anyMethod));
+        assertThat(trie.find(Method.POST, "/things/123"), nullValue());
+    }
+
+    @Test
+    public void manyRoutesCanBeAdded() {
+        RouteTrie.Builder builder = new RouteTrie.Builder(false);
+        for (int i = 0; i < 1000; i++) {
+            builder.add(Method.GET, "/route" + i + "/{id}", noop);
+        }
+        RouteTrie trie = builder.build();
+        RouteTrie.Match match = trie.find(Method.GET, "/route999/hello");
+        assertThat(match, notNullValue());
+        assertThat(match.params(), equalTo(singletonMap("id", "hello")));
+        assertThat(trie.find(Method.GET, "/route1000/hello"), nullValue());
+    }
+
+    private static Map<String, String> singletonMap(String key, String value) {
+        Map<String, String> map = new HashMap<>();
+        map.put(key, value);
+        return map;
+    }
+}
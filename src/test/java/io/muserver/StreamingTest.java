@@ -5,20 +5,27 @@ import org.junit.After;
 import org.junit.Test;
 import scaffolding.MuAssert;
 import scaffolding.ServerUtils;
+import scaffolding.StringUtils;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.hamcrest.Matchers.equalTo;
-import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.*;
 import static scaffolding.ClientUtils.*;
 
 public class StreamingTest {
@@ -106,6 +113,35 @@ public class StreamingTest {
         }
     }
 
+    @Test public void singleBytesSmallWritesAndLargeWritesAreSentInOrder() throws Exception {
+        byte[] large = StringUtils.randomBytes(20000);
+        server = ServerUtils.httpsServerForTest()
+            .addHandler((request, response) -> {
+                response.contentType(ContentTypes.APPLICATION_OCTET_STREAM);
+                try (OutputStream out = response.outputStream()) {
+                    out.write('a');
+                    for (int i = 0; i < 1000; i++) {
+                        out.write(new byte[]{1, 2, 3, 4, 5, 6, 7});
+                    }
+                    out.write(large);
+                    out.write('z');
+                }
+                return true;
+            }).start();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write('a');
+        for (int i = 0; i < 1000; i++) {
+            expected.write(new byte[]{1, 2, 3, 4, 5, 6, 7});
+        }
+        expected.write(large);
+        expected.write('z');
+        try (Response resp = call(request(server.uri()))) {
+            assertThat(resp.code(), is(200));
+            assertThat(resp.body().bytes(), equalTo(expected.toByteArray()));
+        }
+    }
+
     @Test public void bufferedOutputWritersAreOkay() throws Exception {
         server = ServerUtils.httpsServerForTest()
             .addHandler((request, response) -> {
@@ -176,6 +212,111 @@ public class StreamingTest {
 	}
 
 
+    @Test public void writesToTheOutputStreamBlockWhileTooMuchIsUnsent() throws Exception {
+        long total = 64 * 1024 * 1024;
+        AtomicLong written = new AtomicLong();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        CountDownLatch handlerDone = new CountDownLatch(1);
+        server = MuServerBuilder.httpServer()
+            .withResponseWatermarks(8 * 1024, 32 * 1024)
+            .addHandler(Method.GET, "/", (request, response, pathParams) -> {
+                response.contentType(ContentTypes.APPLICATION_OCTET_STREAM);
+                byte[] chunk = new byte[8192];
+                try (OutputStream out = response.outputStream()) {
+                    while (written.get() < total) {
+                        out.write(chunk);
+                        written.addAndGet(chunk.length);
+                    }
+                } catch (Exception e) {
+                    error.set(e);
+                } finally {
+                    handlerDone.countDown();
+                }
+            })
+            .start();
+
+        try (Socket socket = slowReadingClient()) {
+            long blockedAt = waitUntilWritesStop(written);
+            assertThat("Writes should block while the client is not reading", blockedAt, lessThan(total));
+
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[65536];
+            long received = 0;
+            while (received < total && handlerDone.getCount() > 0) {
+                int read = in.read(buffer);
+                if (read == -1) {
+                    break;
+                }
+                received += read;
+            }
+            MuAssert.assertNotTimedOut("handler", handlerDone);
+        }
+        assertThat(error.get(), is(nullValue()));
+        assertThat(written.get(), equalTo(total));
+    }
+
+    @Test public void aFailedWriteIsThrownToTheWriter() throws Exception {
+        AtomicLong written = new AtomicLong();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        CountDownLatch handlerDone = new CountDownLatch(1);
+        server = MuServerBuilder.httpServer()
+            .withResponseWatermarks(8 * 1024, 32 * 1024)
+            .addHandler(Method.GET, "/", (request, response, pathParams) -> {
+                response.contentType(ContentTypes.APPLICATION_OCTET_STREAM);
+                byte[] chunk = new byte[8192];
+                try {
+                    OutputStream out = response.outputStream();
+                    while (true) {
+                        out.write(chunk);
+                        written.addAndGet(chunk.length);
+                    }
+                } catch (Exception e) {
+                    error.set(e);
+                } finally {
+                    handlerDone.countDown();
+                }
+            })
+            .start();
+
+        try (Socket socket = slowReadingClient()) {
+            waitUntilWritesStop(written);
+            // a reset makes the unsent chunks fail
+            socket.setSoLinger(true, 0);
+        }
+        MuAssert.assertNotTimedOut("handler", handlerDone);
+        assertThat(error.get(), instanceOf(IOException.class));
+    }
+
+    /**
+     * Connects with a small receive buffer and requests the root path, without reading the response
+     */
+    private Socket slowReadingClient() throws Exception {
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(16 * 1024);
+        socket.connect(new InetSocketAddress(server.uri().getHost(), server.uri().getPort()));
+        OutputStream out = socket.getOutputStream();
+        out.write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(UTF_8));
+        out.flush();
+        return socket;
+    }
+
+    /**
+     * @return The number of bytes written once it has stayed the same for half a second
+     */
+    private static long waitUntilWritesStop(AtomicLong written) throws InterruptedException {
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        long last = -1;
+        while (System.currentTimeMillis() < end) {
+            Thread.sleep(500);
+            long now = written.get();
+            if (now > 0 && now == last) {
+                return now;
+            }
+            last = now;
+        }
+        throw new AssertionError("Writes never stopped. Bytes written: " + written.get());
+    }
+
 	@After public void stopIt() {
         MuAssert.stopAndCheck(server);
 	}
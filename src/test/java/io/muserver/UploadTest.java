@@ -136,6 +136,38 @@ public class UploadTest {
         }
     }
 
+    @Test
+    public void largeBodiesCanBeReadWhenOnlyASmallAmountIsAllowedToBeBuffered() throws Exception {
+        server = ServerUtils.httpsServerForTest()
+            .withHttpPort(0)
+            .withRequestBodyWatermarks(1024, 4096)
+            .withServerRequestBodyWatermarks(4096, 8192)
+            .addHandler(Method.POST, "/upload", (request, response, pathParams) -> {
+                long total = 0;
+                byte[] buffer = new byte[1000];
+                try (java.io.InputStream in = request.inputStream().get()) {
+                    int read;
+                    while ((read = in.read(buffer)) > -1) {
+                        total += read;
+                    }
+                }
+                response.write(String.valueOf(total));
+            }).start();
+
+        for (java.net.URI uri : java.util.Arrays.asList(server.httpUri(), server.httpsUri())) {
+            try (Response resp = call(request(uri.resolve("/upload"))
+                .post(RequestBody.create(MediaType.parse("image/jpeg"), friends)))) {
+                assertThat(resp.code(), is(200));
+                assertThat(resp.body().string(), is(String.valueOf(friends.length())));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void watermarksAreValidated() {
+        ServerUtils.httpsServerForTest().withRequestBodyWatermarks(-1, 100);
+    }
+
     @After
     public void stopIt() {
         scaffolding.MuAssert.stopAndCheck(server);
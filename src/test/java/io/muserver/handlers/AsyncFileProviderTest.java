@@ -1,14 +1,20 @@
 package io.muserver.handlers;
 
+import io.muserver.AsyncHandle;
 import io.muserver.MuServer;
+import io.muserver.MuServerBuilder;
 import io.muserver.Mutils;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Response;
 import org.hamcrest.Matchers;
 import org.junit.After;
 import org.junit.Test;
+import scaffolding.ClientUtils;
 import scaffolding.MuAssert;
 import scaffolding.ServerUtils;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -17,12 +23,19 @@ import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
 
 import static io.muserver.Mutils.urlEncode;
 import static io.muserver.handlers.ResourceHandlerBuilder.fileHandler;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static scaffolding.ClientUtils.call;
 import static scaffolding.ClientUtils.request;
@@ -61,6 +74,137 @@ public class AsyncFileProviderTest {
         }
     }
 
+    @Test
+    public void filesAndRangesCanBeSentWithoutCopyingOverHttp1() throws Exception {
+        File dir = Files.createTempDirectory("async-file-provider").toFile();
+        File text = new File(dir, "big.txt");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 300000; i++) {
+            sb.append("Line number ").append(i).append("\n");
+        }
+        Files.write(text.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        File image = new File(dir, "image.jpeg");
+        Files.copy(new File(BIG_FILE_DIR, "guangzhou.jpeg").toPath(), image.toPath());
+
+        OkHttpClient http1Client = ClientUtils.client.newBuilder().protocols(Collections.singletonList(Protocol.HTTP_1_1)).build();
+        for (MuServerBuilder builder : Arrays.asList(MuServerBuilder.httpServer(), MuServerBuilder.httpsServer())) {
+            for (boolean gzip : new boolean[]{false, true}) {
+                server = builder.withGzipEnabled(gzip).addHandler(fileHandler(dir)).start();
+                for (File file : Arrays.asList(text, image)) {
+                    byte[] expected = Files.readAllBytes(file.toPath());
+                    URI uri = server.uri().resolve("/" + file.getName());
+                    String desc = uri + " with gzip " + gzip;
+                    try (Response resp = http1Client.newCall(request(uri).build()).execute()) {
+                        assertThat(desc, resp.code(), is(200));
+                        assertThat(desc, resp.body().bytes(), equalTo(expected));
+                    }
+                    try (Response resp = http1Client.newCall(request(uri).header("Range", "bytes=1000-200999").build()).execute()) {
+                        assertThat(desc, resp.code(), is(206));
+                        assertThat(desc, resp.header("Content-Range"), equalTo("bytes 1000-200999/" + expected.length));
+                        assertThat(desc, resp.body().bytes(), equalTo(Arrays.copyOfRange(expected, 1000, 201000)));
+                    }
+                }
+                MuAssert.stopAndCheck(server);
+            }
+        }
+    }
+
+    @Test
+    public void theAttributesOfAFileAreReadOnceForEachProvider() throws Exception {
+        File dir = Files.createTempDirectory("file-attributes").toFile();
+        File file = new File(dir, "file.txt");
+        Files.write(file.toPath(), "Hello".getBytes(StandardCharsets.UTF_8));
+        File gzipped = new File(dir, "file.txt.gz");
+        Files.write(gzipped.toPath(), "Pretend gzip".getBytes(StandardCharsets.UTF_8));
+
+        AsyncFileProvider provider = new AsyncFileProvider(dir.toPath(), "/file.txt", AsyncFileProvider.DEFAULT_BUFFER_SIZE);
+        assertThat(provider.exists(), is(true));
+        String etag = provider.etag();
+        Date lastModified = provider.lastModified();
+        ResourceProvider encoded = provider.encoded("gzip");
+        Files.write(file.toPath(), "Hello again".getBytes(StandardCharsets.UTF_8));
+        Files.delete(gzipped.toPath());
+
+        assertThat(provider.isDirectory(), is(false));
+        assertThat(provider.fileSize(), is(5L));
+        assertThat(provider.lastModified(), equalTo(lastModified));
+        assertThat(provider.etag(), equalTo(etag));
+        assertThat(encoded.exists(), is(true));
+        assertThat(encoded.fileSize(), is(12L));
+        assertThat(new AsyncFileProvider(dir.toPath(), "/file.txt", AsyncFileProvider.DEFAULT_BUFFER_SIZE).fileSize(), is(11L));
+        assertThat(provider.encoded("gzip"), is(nullValue()));
+    }
+
+    @Test
+    public void fileWritesSplitOverSeveralCallsAreCompressedOverHttp1() throws Exception {
+        File file = Files.createTempFile("split-writes", ".txt").toFile();
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 12000) {
+            sb.append("Line number ").append(sb.length()).append('\n');
+        }
+        byte[] expected = sb.toString().getBytes(StandardCharsets.UTF_8);
+        Files.write(file.toPath(), expected);
+        long half = expected.length / 2;
+
+        server = MuServerBuilder.httpServer()
+            .withGzipEnabled(true)
+            .addHandler((request, response) -> {
+                response.contentType("text/plain");
+                response.headers().set("Content-Length", expected.length);
+                AsyncHandle handle = request.handleAsync();
+                handle.writeFile(file.toPath(), 0, half, error -> {
+                    if (error == null) {
+                        handle.writeFile(file.toPath(), half, expected.length - half, handle::complete);
+                    } else {
+                        handle.complete(error);
+                    }
+                });
+                return true;
+            })
+            .start();
+
+        OkHttpClient http1Client = ClientUtils.client.newBuilder().protocols(Collections.singletonList(Protocol.HTTP_1_1)).build();
+        try (Response resp = http1Client.newCall(request(server.uri()).header("Accept-Encoding", "gzip").build()).execute()) {
+            assertThat(resp.code(), is(200));
+            assertThat(resp.header("Content-Encoding"), equalTo("gzip"));
+            byte[] gzipped = resp.body().bytes();
+            assertThat(Mutils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzipped)), 8192), equalTo(expected));
+        }
+    }
+
+    @Test
+    public void filesAreReadAheadIntoBuffersOfTheConfiguredSizeOverHttp2() throws Exception {
+        File dir = Files.createTempDirectory("async-file-provider").toFile();
+        File file = new File(dir, "random.bin");
+        byte[] expected = new byte[1000000];
+        new Random(42).nextBytes(expected);
+        Files.write(file.toPath(), expected);
+
+        for (int bufferSize : new int[]{1, 1000, 65536, 2000000}) {
+            server = ServerUtils.httpsServerForTest()
+                .addHandler(fileHandler(dir).withFileReadBufferSize(bufferSize))
+                .start();
+            URI uri = server.uri().resolve("/random.bin");
+            if (bufferSize == 1) {
+                try (Response resp = call(request(uri).header("Range", "bytes=10-2009"))) {
+                    assertThat(resp.code(), is(206));
+                    assertThat(resp.body().bytes(), equalTo(Arrays.copyOfRange(expected, 10, 2010)));
+                }
+            } else {
+                try (Response resp = call(request(uri))) {
+                    assertThat(resp.code(), is(200));
+                    assertThat(resp.protocol(), is(Protocol.HTTP_2));
+                    assertThat(resp.body().bytes(), equalTo(expected));
+                }
+                try (Response resp = call(request(uri).header("Range", "bytes=999-500998"))) {
+                    assertThat(resp.code(), is(206));
+                    assertThat(resp.body().bytes(), equalTo(Arrays.copyOfRange(expected, 999, 500999)));
+                }
+            }
+            MuAssert.stopAndCheck(server);
+        }
+    }
+
     private static boolean isEqual(InputStream i1, InputStream i2) throws IOException {
 
         ReadableByteChannel ch1 = Channels.newChannel(i1);
@@ -64,6 +64,35 @@ public class BytesRangeTest {
         assertThat(r.toString(), is("bytes 999-999/1000"));
     }
 
+    @Test
+    public void overlappingAndNearbyRangesAreCoalesced() {
+        List<BytesRange> ranges = BytesRange.coalesce(BytesRange.parse(10000L, "bytes=5000-5999, 0-99, 50-149, 150-199, 250-299, 1000-1099, 5500-"));
+        assertThat(ranges, hasSize(3));
+        assertThat(ranges.get(0).toString(), is("bytes 5000-9999/10000"));
+        assertThat(ranges.get(1).toString(), is("bytes 0-299/10000"));
+        assertThat(ranges.get(2).toString(), is("bytes 1000-1099/10000"));
+
+        List<BytesRange> abusive = BytesRange.coalesce(BytesRange.parse(10000L, "bytes=0-,0-,0-,0-,0-,1-,2-,3-"));
+        assertThat(abusive, hasSize(1));
+        assertThat(abusive.get(0).toString(), is("bytes 0-9999/10000"));
+    }
+
+    @Test
+    public void separateRangesAreKeptInTheRequestedOrder() {
+        List<BytesRange> ranges = BytesRange.coalesce(BytesRange.parse(10000L, "bytes=9000-9099, 2000-2099, 5000-5099, 0-99"));
+        assertThat(ranges, hasSize(4));
+        assertThat(ranges.get(0).toString(), is("bytes 9000-9099/10000"));
+        assertThat(ranges.get(1).toString(), is("bytes 2000-2099/10000"));
+        assertThat(ranges.get(2).toString(), is("bytes 5000-5099/10000"));
+        assertThat(ranges.get(3).toString(), is("bytes 0-99/10000"));
+
+        List<BytesRange> partlyMerged = BytesRange.coalesce(BytesRange.parse(10000L, "bytes=5000-5099, 2050-2149, 9000-9099, 2000-2099"));
+        assertThat(partlyMerged, hasSize(3));
+        assertThat(partlyMerged.get(0).toString(), is("bytes 5000-5099/10000"));
+        assertThat(partlyMerged.get(1).toString(), is("bytes 2000-2149/10000"));
+        assertThat(partlyMerged.get(2).toString(), is("bytes 9000-9099/10000"));
+    }
+
     @Test
     public void invalidRangesThrow() {
         String[] bads = { "bytes=10", "bytes=1-10,umm", "bytes=bytes" };
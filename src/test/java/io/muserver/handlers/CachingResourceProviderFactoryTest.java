@@ -0,0 +1,206 @@
+package io.muserver.handlers;
+
+import io.muserver.MuServer;
+import io.muserver.Mutils;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Test;
+import scaffolding.MuAssert;
+import scaffolding.ServerUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static io.muserver.handlers.ResourceHandlerBuilder.classpathHandler;
+import static io.muserver.handlers.ResourceHandlerBuilder.fileHandler;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static scaffolding.ClientUtils.call;
+import static scaffolding.ClientUtils.request;
+
+public class CachingResourceProviderFactoryTest {
+
+    private MuServer server;
+
+    @Test
+    public void cachedFilesAreServedWithGzippedCopiesWhenAccepted() throws Exception {
+        File dir = Files.createTempDirectory("caching-resources").toFile();
+        File text = new File(dir, "big.txt");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 300000; i++) {
+            sb.append("Line number ").append(i).append("\n");
+        }
+        Files.write(text.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        File image = new File(dir, "image.jpeg");
+        Files.copy(new File(AsyncFileProviderTest.BIG_FILE_DIR, "guangzhou.jpeg").toPath(), image.toPath());
+
+        server = ServerUtils.httpsServerForTest()
+            .addHandler(fileHandler(dir).withInMemoryCache(10000000, 1000000))
+            .start();
+
+        byte[] expectedText = Files.readAllBytes(text.toPath());
+        URI textUri = server.uri().resolve("/big.txt");
+        String identityEtag;
+        try (Response resp = call(request(textUri).header("Accept-Encoding", "identity"))) {
+            assertThat(resp.code(), is(200));
+            assertThat(resp.header("Content-Encoding"), is(nullValue()));
+            assertThat(resp.header("Vary"), containsStringIgnoringCase("accept-encoding"));
+            identityEtag = resp.header("ETag");
+            assertThat(identityEtag, startsWith("\""));
+            assertThat(resp.body().bytes(), equalTo(expectedText));
+        }
+        for (int i = 0; i < 2; i++) {
+            try (Response resp = call(request(textUri).header("Accept-Encoding", "gzip, deflate"))) {
+                assertThat(resp.code(), is(200));
+                assertThat(resp.header("Content-Encoding"), equalTo("gzip"));
+                assertThat(resp.header("ETag"), not(equalTo(identityEtag)));
+                byte[] gzipped = resp.body().bytes();
+                assertThat(resp.header("Content-Length"), equalTo(String.valueOf(gzipped.length)));
+                assertThat(gzipped.length, lessThan(expectedText.length / 2));
+                assertThat(Mutils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzipped)), 8192), equalTo(expectedText));
+            }
+        }
+        try (Response resp = call(request(textUri).header("Range", "bytes=1000-200999"))) {
+            assertThat(resp.code(), is(206));
+            assertThat(resp.header("Content-Range"), equalTo("bytes 1000-200999/" + expectedText.length));
+            assertThat(resp.body().bytes(), equalTo(Arrays.copyOfRange(expectedText, 1000, 201000)));
+        }
+        try (Response resp = call(request(textUri).header("Accept-Encoding", "identity").head())) {
+            assertThat(resp.code(), is(200));
+            assertThat(resp.header("Content-Length"), equalTo(String.valueOf(expectedText.length)));
+            assertThat(resp.header("ETag"), equalTo(identityEtag));
+        }
+
+        byte[] expectedImage = Files.readAllBytes(image.toPath());
+        try (Response resp = call(request(server.uri().resolve("/image.jpeg")).header("Accept-Encoding", "gzip"))) {
+            assertThat(resp.code(), is(200));
+            assertThat(resp.header("Content-Encoding"), is(nullValue()));
+            assertThat(resp.body().bytes(), equalTo(expectedImage));
+        }
+    }
+
+    @Test
+    public void classpathResourcesCanBeCached() throws Exception {
+        server = ServerUtils.httpsServerForTest()
+            .addHandler(classpathHandler("/sample-static").withInMemoryCache(10000000, 1000000))
+            .start();
+        for (int i = 0; i < 2; i++) {
+            try (Response resp = call(request(server.uri().resolve("/index.html")))) {
+                assertThat(resp.code(), is(200));
+                assertThat(resp.body().string(), containsString("<h1>Sample Website</h1>"));
+            }
+        }
+    }
+
+    @Test
+    public void changedFilesAreReloaded() throws Exception {
+        File dir = Files.createTempDirectory("caching-resources").toFile();
+        File file = new File(dir, "changing.txt");
+        Files.write(file.toPath(), "Version one".getBytes(StandardCharsets.UTF_8));
+        server = ServerUtils.httpsServerForTest()
+            .addHandler(fileHandler(dir)
+                .withInMemoryCache(1000000, 1000000)
+                .withInMemoryCacheCheckInterval(0, TimeUnit.MILLISECONDS))
+            .start();
+
+        URI uri = server.uri().resolve("/changing.txt");
+        try (Response resp = call(request(uri))) {
+            assertThat(resp.body().string(), equalTo("Version one"));
+        }
+        Files.write(file.toPath(), "The second version".getBytes(StandardCharsets.UTF_8));
+        try (Response resp = call(request(uri))) {
+            assertThat(resp.body().string(), equalTo("The second version"));
+        }
+        Files.delete(file.toPath());
+        try (Response resp = call(request(uri))) {
+            assertThat(resp.code(), is(404));
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedFilesAreRemovedWhenTheCacheIsFull() throws IOException {
+        File dir = Files.createTempDirectory("caching-resources").toFile();
+        for (String name : Arrays.asList("a.jpeg", "b.jpeg", "c.jpeg")) {
+            Files.write(new File(dir, name).toPath(), new byte[100]);
+        }
+        Files.write(new File(dir, "large.jpeg").toPath(), new byte[101]);
+        CachingResourceProviderFactory cache = new CachingResourceProviderFactory(ResourceProviderFactory.fileBased(dir.toPath()),
+            250, 100, TimeUnit.HOURS.toNanos(1), path -> false);
+
+        cache.get("a.jpeg");
+        cache.get("b.jpeg");
+        cache.get("a.jpeg");
+        cache.get("c.jpeg");
+        assertThat(cache.isCached("a.jpeg"), is(true));
+        assertThat(cache.isCached("b.jpeg"), is(false));
+        assertThat(cache.isCached("c.jpeg"), is(true));
+        assertThat(cache.size(), is(200L));
+
+        ResourceProvider large = cache.get("large.jpeg");
+        assertThat(large.exists(), is(true));
+        assertThat(cache.isCached("large.jpeg"), is(false));
+        assertThat(cache.get("missing.jpeg").exists(), is(false));
+        assertThat(cache.get("").isDirectory(), is(true));
+        assertThat(cache.size(), is(200L));
+    }
+
+    @Test
+    public void concurrentRequestsForAnUncachedFileShareOneLoad() throws Exception {
+        File dir = Files.createTempDirectory("caching-resources").toFile();
+        Files.write(new File(dir, "shared.txt").toPath(), "Some shared content".getBytes(StandardCharsets.UTF_8));
+        AtomicInteger reads = new AtomicInteger();
+        CountDownLatch readStarted = new CountDownLatch(1);
+        CountDownLatch finishRead = new CountDownLatch(1);
+        ResourceProviderFactory underlying = relativePath -> new AsyncFileProvider(dir.toPath(), relativePath, 8192) {
+            @Override
+            public ByteBuffer readFully() throws IOException {
+                reads.incrementAndGet();
+                readStarted.countDown();
+                try {
+                    finishRead.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.readFully();
+            }
+        };
+        CachingResourceProviderFactory cache = new CachingResourceProviderFactory(underlying,
+            1000000, 1000000, TimeUnit.HOURS.toNanos(1), path -> true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<ResourceProvider>> results = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                results.add(executor.submit(() -> cache.get("shared.txt")));
+            }
+            assertThat(readStarted.await(10, TimeUnit.SECONDS), is(true));
+            Thread.sleep(100);
+            finishRead.countDown();
+            for (Future<ResourceProvider> result : results) {
+                ByteBuffer content = result.get(10, TimeUnit.SECONDS).readFully();
+                assertThat(StandardCharsets.UTF_8.decode(content).toString(), equalTo("Some shared content"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(reads.get(), is(1));
+        assertThat(cache.isCached("shared.txt"), is(true));
+    }
+
+    @After
+    public void stop() {
+        MuAssert.stopAndCheck(server);
+    }
+
+}
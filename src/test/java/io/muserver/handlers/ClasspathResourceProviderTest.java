@@ -3,6 +3,9 @@ package io.muserver.handlers;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.Date;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -31,6 +34,38 @@ public class ClasspathResourceProviderTest {
         assertThat(provider.lastModified(), instanceOf(Date.class)); // last-modified changes on start-up
     }
 
+    @Test
+    public void smallFilesCanBeHeldInMemory() throws IOException {
+        ClasspathCache inMemory = ((ClasspathCache) factory).withContentInMemory(5000, path -> path.endsWith(".txt"), true);
+
+        ResourceProvider small = inMemory.get("/alphanumerics.txt");
+        assertThat(small, not(instanceOf(ClasspathResourceProvider.class)));
+        assertThat(small.fileSize(), is(62L));
+        assertThat(small.etag(), equalTo(factory.get("/alphanumerics.txt").etag()));
+        assertThat(bytes(small.readFully()), equalTo(Files.readAllBytes(new File("src/test/resources/sample-static/alphanumerics.txt").toPath())));
+        assertThat("Gzipping makes tiny files bigger", small.encoded("gzip"), is(nullValue()));
+
+        ResourceProvider css = inMemory.get("/sample.css");
+        assertThat(css, not(instanceOf(ClasspathResourceProvider.class)));
+        assertThat(css.encoded("gzip"), is(nullValue()));
+
+        ResourceProvider large = inMemory.get("/overview.txt");
+        assertThat(large, instanceOf(ClasspathResourceProvider.class));
+
+        ClasspathCache withLargerFiles = ((ClasspathCache) factory).withContentInMemory(20000, path -> path.endsWith(".txt"), true);
+        ResourceProvider overview = withLargerFiles.get("/overview.txt");
+        assertThat(overview, not(instanceOf(ClasspathResourceProvider.class)));
+        assertThat(bytes(overview.encoded("gzip").readFully()), equalTo(Files.readAllBytes(new File("src/test/resources/sample-static/overview.txt.gz").toPath())));
+        assertThat(overview.skipIfPossible(10000), is(true));
+        assertThat(withLargerFiles.get("/images").isDirectory(), is(true));
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
     @Test
     public void nonExistantPathsReturnNotExists() {
         ResourceProviderFactory factory = ResourceProviderFactory.classpathBased("/this-does-not-exist");
@@ -0,0 +1,162 @@
+package io.muserver.handlers;
+
+import io.muserver.MuServer;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Test;
+import scaffolding.MuAssert;
+import scaffolding.ServerUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import static io.muserver.ContextHandlerBuilder.context;
+import static io.muserver.handlers.ResourceHandlerBuilder.classpathHandler;
+import static io.muserver.handlers.ResourceHandlerBuilder.fileHandler;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static scaffolding.ClientUtils.call;
+import static scaffolding.ClientUtils.request;
+
+public class ETagsTest {
+
+    private MuServer server;
+
+    @Test
+    public void ifNoneMatchResultsIn304sWhenTheTagMatches() throws IOException {
+        server = ServerUtils.httpsServerForTest()
+            .addHandler(context("cp").addHandler(classpathHandler("/sample-static")))
+            .addHandler(context("fp").addHandler(fileHandler("src/test/resources/sample-static")))
+            .addHandler(context("cached").addHandler(fileHandler("src/test/resources/sample-static").withInMemoryCache(1000000, 1000000)))
+            .start();
+        for (String prefix : new String[]{"cp", "fp", "cached"}) {
+            URI uri = server.uri().resolve("/" + prefix + "/images/guangzhou.jpeg");
+            String etag;
+            try (Response resp = call(request(uri))) {
+                assertThat(prefix, resp.code(), is(200));
+                etag = resp.header("ETag");
+            }
+            assertThat(prefix, etag, startsWith("\""));
+            assertThat(prefix, etag, endsWith("\""));
+
+            for (String ifNoneMatch : new String[]{etag, "W/" + etag, "\"other\", " + etag, "*"}) {
+                try (Response resp = call(request(uri).header("If-None-Match", ifNoneMatch))) {
+                    assertThat(prefix, resp.code(), is(304));
+                    assertThat(prefix, resp.header("ETag"), equalTo(etag));
+                }
+            }
+            try (Response resp = call(request(uri).header("If-None-Match", "\"other\"")
+                .header("If-Modified-Since", "Fri, 01 Jan 2100 00:00:00 GMT"))) {
+                assertThat(prefix, resp.code(), is(200));
+                assertThat(prefix, resp.header("ETag"), equalTo(etag));
+            }
+        }
+
+        try (Response fileResp = call(request(server.uri().resolve("/fp/images/guangzhou.jpeg")));
+             Response cachedResp = call(request(server.uri().resolve("/cached/images/guangzhou.jpeg")))) {
+            assertThat(cachedResp.header("ETag"), equalTo(fileResp.header("ETag")));
+        }
+    }
+
+    @Test
+    public void tagsChangeWhenFilesChange() throws IOException {
+        File dir = Files.createTempDirectory("etags").toFile();
+        File file = new File(dir, "file.txt");
+        Files.write(file.toPath(), "Hello".getBytes(StandardCharsets.UTF_8));
+        server = ServerUtils.httpsServerForTest()
+            .addHandler(fileHandler(dir))
+            .start();
+        URI uri = server.uri().resolve("/file.txt");
+
+        String first = etagOf(uri, "identity");
+        Files.write(file.toPath(), "Goodbye".getBytes(StandardCharsets.UTF_8));
+        String second = etagOf(uri, "identity");
+        assertThat(second, not(equalTo(first)));
+
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(Files.getLastModifiedTime(file.toPath()).toMillis() - 10000));
+        assertThat(etagOf(uri, "identity"), not(equalTo(second)));
+    }
+
+    @Test
+    public void tagsAreWeakWhenTheServerMightCompressTheResponse() throws IOException {
+        File dir = Files.createTempDirectory("etags").toFile();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 10000; i++) {
+            sb.append("Line ").append(i).append("\n");
+        }
+        Files.write(new File(dir, "compressed-on-the-fly.txt").toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(dir, "precompressed.txt").toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(dir, "precompressed.txt.gz").toPath(), "pretend this is gzipped".getBytes(StandardCharsets.UTF_8));
+        server = ServerUtils.httpsServerForTest()
+            .addHandler(fileHandler(dir))
+            .start();
+
+        URI onTheFly = server.uri().resolve("/compressed-on-the-fly.txt");
+        String strong = etagOf(onTheFly, "identity");
+        assertThat(strong, startsWith("\""));
+        assertThat(etagOf(onTheFly, "gzip"), equalTo("W/" + strong));
+        try (Response resp = call(request(onTheFly).header("Accept-Encoding", "gzip").header("If-None-Match", strong))) {
+            assertThat(resp.code(), is(304));
+        }
+
+        URI precompressed = server.uri().resolve("/precompressed.txt");
+        String identity = etagOf(precompressed, "identity");
+        String gzipped = etagOf(precompressed, "gzip");
+        assertThat(gzipped, equalTo(identity.substring(0, identity.length() - 1) + "-gzip\""));
+        try (Response resp = call(request(precompressed).header("Accept-Encoding", "gzip").header("If-None-Match", identity))) {
+            assertThat(resp.code(), is(200));
+        }
+    }
+
+    @Test
+    public void contentHashesCanBeUsedSoThatCopiesOfFilesHaveTheSameTag() throws IOException {
+        File dir1 = Files.createTempDirectory("etags").toFile();
+        File dir2 = Files.createTempDirectory("etags").toFile();
+        Files.write(new File(dir1, "file.txt").toPath(), "Hello".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(dir2, "file.txt").toPath(), "Hello".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(new File(dir2, "file.txt").toPath(), FileTime.fromMillis(1000000));
+        server = ServerUtils.httpsServerForTest()
+            .addHandler(context("one").addHandler(fileHandler(dir1).withContentHashETags(true)))
+            .addHandler(context("two").addHandler(fileHandler(dir2).withContentHashETags(true)))
+            .addHandler(context("cached").addHandler(fileHandler(dir2).withContentHashETags(true).withInMemoryCache(10000, 10000)))
+            .addHandler(context("attributes").addHandler(fileHandler(dir2)))
+            .start();
+
+        String one = etagOf(server.uri().resolve("/one/file.txt"), "identity");
+        assertThat(one, startsWith("\""));
+        assertThat(etagOf(server.uri().resolve("/two/file.txt"), "identity"), equalTo(one));
+        assertThat(etagOf(server.uri().resolve("/cached/file.txt"), "identity"), equalTo(one));
+        assertThat(etagOf(server.uri().resolve("/attributes/file.txt"), "identity"), not(equalTo(one)));
+
+        Files.write(new File(dir1, "file.txt").toPath(), "Hello again".getBytes(StandardCharsets.UTF_8));
+        assertThat(etagOf(server.uri().resolve("/one/file.txt"), "identity"), not(equalTo(one)));
+    }
+
+    @Test
+    public void ifNoneMatchListsCanBeCompared() {
+        assertThat(ResourceHandler.etagMatches("\"a\"", "\"a\"", true), is(true));
+        assertThat(ResourceHandler.etagMatches("W/\"a\"", "\"a\"", true), is(false));
+        assertThat(ResourceHandler.etagMatches("\"a\"", "W/\"a\"", true), is(false));
+        assertThat(ResourceHandler.etagMatches("W/\"a\"", "\"a\"", false), is(true));
+        assertThat(ResourceHandler.etagMatches("\"b\", W/\"a\"", "W/\"a\"", false), is(true));
+        assertThat(ResourceHandler.etagMatches("\"b\",\"c\"", "\"a\"", false), is(false));
+        assertThat(ResourceHandler.etagMatches("*", null, false), is(true));
+        assertThat(ResourceHandler.etagMatches("\"a\"", null, false), is(false));
+    }
+
+    private static String etagOf(URI uri, String acceptEncoding) {
+        try (Response resp = call(request(uri).header("Accept-Encoding", acceptEncoding))) {
+            assertThat(resp.code(), is(200));
+            return resp.header("ETag");
+        }
+    }
+
+    @After
+    public void stop() {
+        MuAssert.stopAndCheck(server);
+    }
+}
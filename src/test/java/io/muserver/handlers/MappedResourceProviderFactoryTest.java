@@ -0,0 +1,208 @@
+package io.muserver.handlers;
+
+import io.muserver.*;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Test;
+import scaffolding.ClientUtils;
+import scaffolding.MuAssert;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.muserver.Http2ConfigBuilder.http2EnabledIfAvailable;
+import static io.muserver.handlers.ResourceHandlerBuilder.fileHandler;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+public class MappedResourceProviderFactoryTest {
+
+    private MuServer server;
+
+    @Test
+    public void largeFilesCanBeServedFromMappedMemory() throws IOException {
+        File dir = Files.createTempDirectory("mapped").toFile();
+        byte[] expected = new byte[1000000];
+        new Random(7).nextBytes(expected);
+        Files.write(new File(dir, "data.bin").toPath(), expected);
+
+        for (Protocol protocol : Arrays.asList(Protocol.HTTP_1_1, Protocol.HTTP_2)) {
+            OkHttpClient client = ClientUtils.client.newBuilder().protocols(protocol == Protocol.HTTP_2
+                ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1) : Collections.singletonList(protocol)).build();
+            for (MuServerBuilder builder : Arrays.asList(MuServerBuilder.httpServer(), MuServerBuilder.httpsServer())) {
+                server = builder.withHttp2Config(http2EnabledIfAvailable())
+                    .addHandler(fileHandler(dir).withMemoryMappedFiles(10000000, 1000))
+                    .start();
+                URI uri = server.uri().resolve("/data.bin");
+                for (int i = 0; i < 2; i++) {
+                    try (Response resp = client.newCall(ClientUtils.request(uri).build()).execute()) {
+                        assertThat(resp.code(), is(200));
+                        assertThat(resp.header("Content-Length"), equalTo("1000000"));
+                        assertThat(resp.body().bytes(), equalTo(expected));
+                    }
+                }
+                try (Response resp = client.newCall(ClientUtils.request(uri).header("Range", "bytes=500-100499").build()).execute()) {
+                    assertThat(resp.code(), is(206));
+                    assertThat(resp.body().bytes(), equalTo(Arrays.copyOfRange(expected, 500, 100500)));
+                }
+                try (Response resp = client.newCall(ClientUtils.request(uri).header("Range", "bytes=0-9,999990-").build()).execute()) {
+                    assertThat(resp.code(), is(206));
+                    assertThat(resp.header("Content-Type"), startsWith("multipart/byteranges"));
+                }
+                MuAssert.stopAndCheck(server);
+                server = null;
+            }
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedFilesAreUnmappedWhenTheLimitIsReached() throws IOException {
+        File dir = Files.createTempDirectory("mapped").toFile();
+        for (String name : Arrays.asList("a.bin", "b.bin", "c.bin")) {
+            Files.write(new File(dir, name).toPath(), new byte[100]);
+        }
+        Files.write(new File(dir, "small.bin").toPath(), new byte[10]);
+        MappedResourceProviderFactory factory = new MappedResourceProviderFactory(ResourceProviderFactory.fileBased(dir.toPath()),
+            250, 50, TimeUnit.HOURS.toNanos(1));
+
+        factory.get("a.bin");
+        factory.get("b.bin");
+        factory.get("a.bin");
+        factory.get("c.bin");
+        assertThat(factory.isMapped("a.bin"), is(true));
+        assertThat(factory.isMapped("b.bin"), is(false));
+        assertThat(factory.isMapped("c.bin"), is(true));
+        assertThat(factory.mappedSize(), is(200L));
+
+        assertThat(factory.get("small.bin").fileSize(), is(10L));
+        assertThat(factory.isMapped("small.bin"), is(false));
+        assertThat(factory.get("missing.bin").exists(), is(false));
+        assertThat(factory.get("").isDirectory(), is(true));
+        assertThat(factory.mappedSize(), is(200L));
+    }
+
+    @Test
+    public void replacedFilesAreRemapped() throws IOException {
+        File dir = Files.createTempDirectory("mapped").toFile();
+        File file = new File(dir, "file.txt");
+        Files.write(file.toPath(), "The first version".getBytes(StandardCharsets.UTF_8));
+        server = MuServerBuilder.httpsServer()
+            .addHandler(fileHandler(dir)
+                .withMemoryMappedFiles(1000000, 0)
+                .withInMemoryCacheCheckInterval(0, TimeUnit.MILLISECONDS))
+            .start();
+        URI uri = server.uri().resolve("/file.txt");
+        try (Response resp = ClientUtils.call(ClientUtils.request(uri))) {
+            assertThat(resp.body().string(), equalTo("The first version"));
+        }
+        File replacement = new File(dir, "replacement.tmp");
+        Files.write(replacement.toPath(), "Version two".getBytes(StandardCharsets.UTF_8));
+        Files.move(replacement.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        try (Response resp = ClientUtils.call(ClientUtils.request(uri))) {
+            assertThat(resp.body().string(), equalTo("Version two"));
+        }
+    }
+
+    @Test
+    public void mappingsAreReleasedWhenWritingThrows() throws IOException {
+        File dir = Files.createTempDirectory("mapped").toFile();
+        for (String name : Arrays.asList("a.bin", "b.bin")) {
+            Files.write(new File(dir, name).toPath(), new byte[100]);
+        }
+        MappedResourceProviderFactory factory = new MappedResourceProviderFactory(ResourceProviderFactory.fileBased(dir.toPath()),
+            150, 50, TimeUnit.HOURS.toNanos(1));
+        ResourceProvider provider = factory.get("a.bin");
+        DisconnectedAsyncHandle handle = new DisconnectedAsyncHandle();
+        try {
+            provider.writeRange(handle, 0, 10, DoneCallback.NoOp);
+            fail("Writing should have thrown");
+        } catch (IllegalStateException expected) {
+        }
+
+        factory.get("b.bin");
+        assertThat(factory.isMapped("a.bin"), is(false));
+        assertThat(factory.mappedSize(), is(100L));
+
+        // a file that has been unmapped is sent without the mapping
+        provider.writeRange(handle, 0, 10, DoneCallback.NoOp);
+        assertThat(handle.fileWrites.get(), is(1));
+    }
+
+    private static class DisconnectedAsyncHandle implements AsyncHandle {
+        private final AtomicInteger fileWrites = new AtomicInteger();
+
+        @Override
+        public void setReadListener(RequestBodyListener readListener) {
+        }
+
+        @Override
+        public void complete() {
+        }
+
+        @Override
+        public void complete(Throwable throwable) {
+        }
+
+        @Override
+        public void write(ByteBuffer data, WriteCallback callback) {
+            throw new IllegalStateException("The client has disconnected");
+        }
+
+        @Override
+        public void write(ByteBuffer data, DoneCallback callback) {
+            throw new IllegalStateException("The client has disconnected");
+        }
+
+        @Override
+        public Future<Void> write(ByteBuffer data) {
+            throw new IllegalStateException("The client has disconnected");
+        }
+
+        @Override
+        public void writeFile(Path file, long position, long count, int bufferSize, DoneCallback callback) {
+            fileWrites.incrementAndGet();
+            try {
+                callback.onComplete(null);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public boolean isWritable() {
+            return false;
+        }
+
+        @Override
+        public void setWritabilityListener(WritabilityListener writabilityListener) {
+        }
+
+        @Override
+        public void setResponseCompleteHandler(ResponseCompleteListener responseCompleteListener) {
+        }
+
+        @Override
+        public void setResponseCompletedHandler(ResponseCompletedListener responseCompletedListener) {
+        }
+    }
+
+    @After
+    public void stop() {
+        MuAssert.stopAndCheck(server);
+    }
+}
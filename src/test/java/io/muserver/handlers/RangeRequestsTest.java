@@ -1,20 +1,37 @@
 package io.muserver.handlers;
 
 import io.muserver.MuServer;
+import io.muserver.MuServerBuilder;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Response;
 import org.junit.After;
 import org.junit.Test;
+import scaffolding.ClientUtils;
 import scaffolding.ServerUtils;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static io.muserver.ContextHandlerBuilder.context;
 import static io.muserver.handlers.ResourceHandlerBuilder.classpathHandler;
 import static io.muserver.handlers.ResourceHandlerBuilder.fileHandler;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
 import static scaffolding.ClientUtils.call;
 import static scaffolding.ClientUtils.request;
 
@@ -23,6 +40,7 @@ public class RangeRequestsTest {
     private MuServer server = ServerUtils.httpsServerForTest()
         .addHandler(context("cp").addHandler(classpathHandler("/sample-static")))
         .addHandler(context("fp").addHandler(fileHandler("src/test/resources/sample-static")))
+        .addHandler(context("cached").addHandler(fileHandler("src/test/resources/sample-static").withInMemoryCache(1000000, 1000000)))
         .start();
 
     @Test
@@ -147,6 +165,168 @@ public class RangeRequestsTest {
 
     }
 
+    @Test
+    public void ifRangeIsOnlyHonouredWhenTheValidatorMatches() throws IOException {
+        for (String prefix : new String[]{"cp", "fp"}) {
+            URI uri = server.uri().resolve("/" + prefix + "/alphanumerics.txt");
+            String etag;
+            String lastModified;
+            try (Response resp = call(request(uri))) {
+                etag = resp.header("ETag");
+                lastModified = resp.header("Last-Modified");
+            }
+            assertThat(prefix, etag, startsWith("\""));
+
+            for (String validator : new String[]{etag, lastModified}) {
+                try (Response resp = call(request(uri).header("Range", "bytes=0-9").header("If-Range", validator))) {
+                    assertThat(prefix, resp.code(), is(206));
+                    assertThat(prefix, resp.body().string(), is("0123456789"));
+                }
+            }
+            for (String validator : new String[]{"\"something-else\"", "W/" + etag, "Tue, 01 Jan 2019 00:00:00 GMT", "not a date"}) {
+                try (Response resp = call(request(uri).header("Range", "bytes=0-9").header("If-Range", validator))) {
+                    assertThat(prefix, resp.code(), is(200));
+                    assertThat(prefix, resp.header("Content-Range"), is(nullValue()));
+                    assertThat(prefix, resp.body().string(), is("0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ"));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void multipleRangesAreSentAsMultipartByteRanges() throws IOException {
+        byte[] content = Files.readAllBytes(new File("src/test/resources/sample-static/overview.txt").toPath());
+        int len = content.length;
+        for (String prefix : new String[]{"cp", "fp", "cached"}) {
+            URI uri = server.uri().resolve("/" + prefix + "/overview.txt");
+            try (Response resp = call(request(uri).header("Accept-Encoding", "identity").header("Range", "bytes=-2,0-3,1000-1001"))) {
+                assertThat(prefix, resp.code(), is(206));
+                String contentType = resp.header("Content-Type");
+                assertThat(prefix, contentType, startsWith("multipart/byteranges; boundary="));
+                String boundary = contentType.substring(contentType.indexOf('=') + 1);
+                String body = new String(resp.body().bytes(), StandardCharsets.ISO_8859_1);
+                assertThat(prefix, resp.header("Content-Length"), is(String.valueOf(body.length())));
+                assertThat(prefix, body, is("--" + boundary + "\r\n" +
+                    "Content-Type: text/plain;charset=utf-8\r\n" +
+                    "Content-Range: bytes " + (len - 2) + "-" + (len - 1) + "/" + len + "\r\n" +
+                    "\r\n" +
+                    new String(content, len - 2, 2, StandardCharsets.ISO_8859_1) + "\r\n" +
+                    "--" + boundary + "\r\n" +
+                    "Content-Type: text/plain;charset=utf-8\r\n" +
+                    "Content-Range: bytes 0-3/" + len + "\r\n" +
+                    "\r\n" +
+                    new String(content, 0, 4, StandardCharsets.ISO_8859_1) + "\r\n" +
+                    "--" + boundary + "\r\n" +
+                    "Content-Type: text/plain;charset=utf-8\r\n" +
+                    "Content-Range: bytes 1000-1001/" + len + "\r\n" +
+                    "\r\n" +
+                    new String(content, 1000, 2, StandardCharsets.ISO_8859_1) + "\r\n" +
+                    "--" + boundary + "--\r\n"));
+            }
+            uri = server.uri().resolve("/" + prefix + "/alphanumerics.txt");
+            try (Response resp = call(request(uri).header("Range", "bytes=0-3,2-9"))) {
+                assertThat(prefix, resp.code(), is(206));
+                assertThat(prefix, resp.header("Content-Range"), is("bytes 0-9/62"));
+                assertThat(prefix, resp.body().string(), is("0123456789"));
+            }
+        }
+    }
+
+    @Test
+    public void multipleRangesOfLargeFilesCanBeSentOverHttp1AndHttps() throws IOException {
+        File dir = Files.createTempDirectory("multi-range").toFile();
+        byte[] content = new byte[1000000];
+        new Random().nextBytes(content);
+        Files.write(new File(dir, "file.bin").toPath(), content);
+        OkHttpClient http1Client = ClientUtils.client.newBuilder().protocols(Collections.singletonList(Protocol.HTTP_1_1)).build();
+        for (MuServerBuilder builder : Arrays.asList(MuServerBuilder.httpServer(), MuServerBuilder.httpsServer())) {
+            MuServer multiServer = builder.addHandler(fileHandler(dir)).start();
+            try (Response resp = http1Client.newCall(request(multiServer.uri().resolve("/file.bin"))
+                .header("Range", "bytes=100-199999,500000-899999").build()).execute()) {
+                assertThat(resp.code(), is(206));
+                byte[] body = resp.body().bytes();
+                assertThat(resp.header("Content-Length"), is(String.valueOf(body.length)));
+                int firstStart = indexOf(body, "\r\n\r\n".getBytes(StandardCharsets.US_ASCII), 0) + 4;
+                assertThat(Arrays.copyOfRange(body, firstStart, firstStart + 199900), equalTo(Arrays.copyOfRange(content, 100, 200000)));
+                int secondStart = indexOf(body, "\r\n\r\n".getBytes(StandardCharsets.US_ASCII), firstStart + 199900) + 4;
+                assertThat(Arrays.copyOfRange(body, secondStart, secondStart + 400000), equalTo(Arrays.copyOfRange(content, 500000, 900000)));
+            } finally {
+                scaffolding.MuAssert.stopAndCheck(multiServer);
+            }
+        }
+    }
+
+    @Test
+    public void multipartResponsesDoNotHoldTheHandlerThreadWhileTheClientReads() throws Exception {
+        File dir = Files.createTempDirectory("multi-range").toFile();
+        Files.write(new File(dir, "file.bin").toPath(), new byte[20000000]);
+        ExecutorService handlerExecutor = Executors.newSingleThreadExecutor();
+        MuServer singleThreadServer = MuServerBuilder.httpServer()
+            .withHandlerExecutor(handlerExecutor)
+            .addHandler(fileHandler(dir))
+            .start();
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(16 * 1024);
+            socket.connect(new InetSocketAddress(singleThreadServer.uri().getHost(), singleThreadServer.uri().getPort()));
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /file.bin HTTP/1.1\r\nHost: localhost\r\nRange: bytes=0-4999999,10000000-14999999\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            assertThat(socket.getInputStream().read(), is((int) 'H'));
+
+            // the first response is not being read, but the only handler thread is free for the next request
+            try (Response resp = call(request(singleThreadServer.uri().resolve("/file.bin")).header("Range", "bytes=0-9"))) {
+                assertThat(resp.code(), is(206));
+                assertThat(resp.body().bytes().length, is(10));
+            }
+        } finally {
+            scaffolding.MuAssert.stopAndCheck(singleThreadServer);
+            handlerExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void requestsForTooManyRangesGetTheWholeFile() throws IOException {
+        StringBuilder range = new StringBuilder("bytes=0-0");
+        for (int i = 2; i < 62; i += 2) {
+            range.append(",").append(i).append("-").append(i);
+        }
+        URI uri = server.uri().resolve("/fp/alphanumerics.txt");
+        try (Response resp = call(request(uri).header("Range", range.toString()))) {
+            // these are all close enough together to become a single range
+            assertThat(resp.code(), is(206));
+            assertThat(resp.header("Content-Range"), is("bytes 0-60/62"));
+        }
+
+        File dir = Files.createTempDirectory("multi-range").toFile();
+        Files.write(new File(dir, "file.bin").toPath(), new byte[100000]);
+        MuServer manyServer = ServerUtils.httpsServerForTest().addHandler(fileHandler(dir)).start();
+        try {
+            range = new StringBuilder("bytes=0-0");
+            for (int i = 1; i <= BytesRange.MAX_PARTS; i++) {
+                range.append(",").append(i * 500).append("-").append(i * 500);
+            }
+            try (Response resp = call(request(manyServer.uri().resolve("/file.bin")).header("Range", range.toString()))) {
+                assertThat(resp.code(), is(200));
+                assertThat(resp.body().bytes().length, is(100000));
+            }
+        } finally {
+            scaffolding.MuAssert.stopAndCheck(manyServer);
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] toFind, int from) {
+        for (int i = from; i <= data.length - toFind.length; i++) {
+            boolean found = true;
+            for (int j = 0; j < toFind.length && found; j++) {
+                found = data[i + j] == toFind[j];
+            }
+            if (found) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @After
     public void destroy() {
         scaffolding.MuAssert.stopAndCheck(server);
@@ -11,13 +11,18 @@ import org.junit.Test;
 import scaffolding.ClientUtils;
 import scaffolding.ServerUtils;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static io.muserver.ContextHandlerBuilder.context;
 import static io.muserver.Mutils.urlDecode;
@@ -230,6 +235,49 @@ public class ResourceHandlerTest {
         }
     }
 
+    @Test
+    public void preCompressedFilesAreSentWhenTheClientAcceptsThem() throws IOException {
+        File dir = Files.createTempDirectory("pre-compressed").toFile();
+        byte[] original = "console.log('Hello, world');".getBytes(StandardCharsets.UTF_8);
+        byte[] gzipped = "pretend this is gzipped".getBytes(StandardCharsets.UTF_8);
+        byte[] brotli = "pretend this is brotli".getBytes(StandardCharsets.UTF_8);
+        Files.write(new File(dir, "app.js").toPath(), original);
+        Files.write(new File(dir, "app.js.gz").toPath(), gzipped);
+        Files.write(new File(dir, "app.js.br").toPath(), brotli);
+
+        for (boolean useCache : new boolean[]{false, true}) {
+            ResourceHandlerBuilder handler = fileHandler(dir);
+            if (useCache) {
+                handler.withInMemoryCache(1000000, 1000000);
+            }
+            server = ServerUtils.httpsServerForTest().addHandler(handler).start();
+            URI uri = server.uri().resolve("/app.js");
+            assertEncodedVersion(uri, "gzip, deflate, br", "br", brotli);
+            assertEncodedVersion(uri, "gzip, deflate", "gzip", gzipped);
+            assertEncodedVersion(uri, "br;q=0.5, gzip", "gzip", gzipped);
+            assertEncodedVersion(uri, "*", "br", brotli);
+            assertEncodedVersion(uri, "identity", null, original);
+            assertEncodedVersion(uri, "gzip;q=0, br;q=0", null, original);
+            scaffolding.MuAssert.stopAndCheck(server);
+        }
+
+        server = ServerUtils.httpsServerForTest()
+            .addHandler(classpathHandler("/sample-static"))
+            .start();
+        assertEncodedVersion(server.uri().resolve("/overview.txt"), "gzip", "gzip",
+            Files.readAllBytes(Paths.get("src/test/resources/sample-static/overview.txt.gz")));
+    }
+
+    private static void assertEncodedVersion(URI uri, String acceptEncoding, String expectedEncoding, byte[] expectedBody) throws IOException {
+        try (Response resp = call(request(uri).header("Accept-Encoding", acceptEncoding))) {
+            assertThat(resp.code(), is(200));
+            assertThat(resp.header("Content-Encoding"), equalTo(expectedEncoding));
+            assertThat(resp.header("Content-Length"), equalTo(String.valueOf(expectedBody.length)));
+            assertThat(resp.header("Vary"), is(expectedEncoding == null ? nullValue() : equalTo("accept-encoding")));
+            assertThat(resp.body().bytes(), equalTo(expectedBody));
+        }
+    }
+
     private void assertNotFound(String path) throws MalformedURLException {
         Map<String, List<String>> headersFromGET;
         URL url = server.httpsUri().resolve(path).toURL();
@@ -387,6 +435,53 @@ public class ResourceHandlerTest {
         }
     }
 
+    @Test
+    public void directoryListingsArePagedAndSorted() throws IOException {
+        File dir = Files.createTempDirectory("listing").toFile();
+        for (int i = 0; i < 25; i++) {
+            Files.write(new File(dir, String.format("file%02d.txt", i)).toPath(), new byte[i == 7 ? 1000 : i]);
+        }
+        server = ServerUtils.httpsServerForTest()
+            .addHandler(fileHandler(dir)
+                .withDirectoryListing(true)
+                .withDefaultFile(null)
+                .withDirectoryListingPageSize(10)
+                .withInMemoryCacheCheckInterval(1, TimeUnit.HOURS))
+            .start();
+
+        String first = listing("/");
+        assertThat(first, containsString(">file00.txt</a>"));
+        assertThat(first, containsString(">file09.txt</a>"));
+        assertThat(first, not(containsString(">file10.txt</a>")));
+        assertThat(first, containsString("<span>Page 1 of 3</span>"));
+        assertThat(first, containsString("<a href=\"?sort=name&amp;page=2\">Next</a>"));
+        assertThat(first, not(containsString(">Previous</a>")));
+        assertThat(first, containsString("<a href=\"?sort=name&amp;order=desc\">Filename</a>"));
+
+        String last = listing("/?page=3");
+        assertThat(last, containsString(">file20.txt</a>"));
+        assertThat(last, containsString(">file24.txt</a>"));
+        assertThat(last, not(containsString(">file19.txt</a>")));
+        assertThat(last, containsString("<a href=\"?sort=name&amp;page=2\">Previous</a>"));
+        assertThat(last, not(containsString(">Next</a>")));
+        assertThat(listing("/?page=300"), equalTo(last));
+
+        String bySize = listing("/?sort=size&order=desc");
+        assertThat(bySize.indexOf(">file07.txt</a>"), lessThan(bySize.indexOf(">file24.txt</a>")));
+        assertThat(bySize.indexOf(">file24.txt</a>"), lessThan(bySize.indexOf(">file23.txt</a>")));
+        assertThat(bySize, not(containsString(">file00.txt</a>")));
+
+        Files.write(new File(dir, "another.txt").toPath(), new byte[0]);
+        assertThat(listing("/"), containsString(">another.txt</a>"));
+    }
+
+    private String listing(String path) throws IOException {
+        try (Response resp = call(request(server.uri().resolve(path)))) {
+            assertThat(resp.code(), is(200));
+            return resp.body().string();
+        }
+    }
+
     @Test
     public void directoryListingIsOffByDefault() {
         server = ServerUtils.httpsServerForTest()
@@ -0,0 +1,142 @@
+package io.muserver.handlers;
+
+import io.muserver.MuServer;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Test;
+import scaffolding.MuAssert;
+import scaffolding.ServerUtils;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static io.muserver.handlers.ResourceHandlerBuilder.fileHandler;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static scaffolding.ClientUtils.call;
+import static scaffolding.ClientUtils.request;
+
+public class WatchingResourceProviderFactoryTest {
+
+    private MuServer server;
+
+    @Test
+    public void filesAreFoundFromTheIndex() throws Exception {
+        File dir = Files.createTempDirectory("watching").toFile();
+        File sub = new File(dir, "sub dir");
+        assertThat(sub.mkdir(), is(true));
+        File file = new File(sub, "file.txt");
+        Files.write(file.toPath(), "Hello".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(1500000000000L));
+        Files.write(new File(sub, "file.txt.gz").toPath(), "Pretend gzip".getBytes(StandardCharsets.UTF_8));
+
+        WatchingResourceProviderFactory factory = WatchingResourceProviderFactory.start(dir.toPath(), AsyncFileProvider.DEFAULT_BUFFER_SIZE);
+        assertThat(factory.indexSize(), is(4));
+
+        ResourceProvider provider = factory.get("/sub dir/file.txt");
+        assertThat(provider.exists(), is(true));
+        assertThat(provider.isDirectory(), is(false));
+        assertThat(provider.fileSize(), is(5L));
+        assertThat(provider.lastModified().getTime(), is(1500000000000L));
+        assertThat(provider.etag(), equalTo(ResourceProviderFactory.fileBased(dir.toPath()).get("/sub dir/file.txt").etag()));
+        assertThat(provider.encoded("gzip").fileSize(), is(12L));
+        assertThat(provider.encoded("br"), is(nullValue()));
+
+        assertThat(factory.get("sub dir").isDirectory(), is(true));
+        assertThat(factory.get("/").isDirectory(), is(true));
+        assertThat(factory.get("/sub dir/../sub dir/file.txt").exists(), is(true));
+        assertThat(factory.get("/sub dir/missing.txt").exists(), is(false));
+        assertThat(factory.get("/wp-admin/login.php").exists(), is(false));
+    }
+
+    @Test
+    public void theIndexIsUpdatedWhenFilesChange() throws Exception {
+        File dir = Files.createTempDirectory("watching").toFile();
+        WatchingResourceProviderFactory factory = WatchingResourceProviderFactory.start(dir.toPath(), AsyncFileProvider.DEFAULT_BUFFER_SIZE);
+        assertThat(factory.get("/new/file.txt").exists(), is(false));
+
+        File newDir = new File(dir, "new");
+        assertThat(newDir.mkdir(), is(true));
+        Files.write(new File(newDir, "file.txt").toPath(), "Hi".getBytes(StandardCharsets.UTF_8));
+        waitFor(() -> factory.get("/new/file.txt").exists());
+        waitFor(() -> factory.get("/new/file.txt").fileSize() == 2L);
+
+        Files.write(new File(newDir, "file.txt").toPath(), "Hello again".getBytes(StandardCharsets.UTF_8));
+        waitFor(() -> factory.get("/new/file.txt").fileSize() == 11L);
+
+        Files.delete(new File(newDir, "file.txt").toPath());
+        Files.delete(newDir.toPath());
+        waitFor(() -> !factory.get("/new").exists());
+        assertThat(factory.get("/new/file.txt").exists(), is(false));
+        assertThat(factory.indexSize(), is(1));
+    }
+
+    @Test
+    public void itCanBeUsedByResourceHandlers() throws Exception {
+        File dir = Files.createTempDirectory("watching").toFile();
+        Files.write(new File(dir, "index.html").toPath(), "<h1>Hello</h1>".getBytes(StandardCharsets.UTF_8));
+        server = ServerUtils.httpsServerForTest()
+            .addHandler(fileHandler(dir).withFileSystemWatching(true))
+            .start();
+        try (Response resp = call(request(server.uri().resolve("/")))) {
+            assertThat(resp.code(), is(200));
+            assertThat(resp.body().string(), equalTo("<h1>Hello</h1>"));
+        }
+        try (Response resp = call(request(server.uri().resolve("/.env")))) {
+            assertThat(resp.code(), is(404));
+        }
+    }
+
+    @Test
+    public void filesThatChangeBeforeTheIndexIsUpdatedAreSentWithTheIndexedLength() throws Exception {
+        File dir = Files.createTempDirectory("watching").toFile();
+        File file = new File(dir, "file.txt");
+        Files.write(file.toPath(), "Hello".getBytes(StandardCharsets.UTF_8));
+        WatchingResourceProviderFactory factory = WatchingResourceProviderFactory.start(dir.toPath(), AsyncFileProvider.DEFAULT_BUFFER_SIZE);
+        server = ServerUtils.httpsServerForTest()
+            .addHandler((request, response) -> {
+                ResourceProvider provider = factory.get("/file.txt");
+                Files.write(file.toPath(), "Hello again".getBytes(StandardCharsets.UTF_8));
+                response.headers().set("Content-Length", provider.fileSize());
+                response.headers().set("ETag", provider.etag());
+                provider.sendTo(request, response, true, Long.MAX_VALUE);
+                return true;
+            })
+            .start();
+        try (Response resp = call(request(server.uri().resolve("/file.txt")))) {
+            assertThat(resp.code(), is(200));
+            assertThat(resp.header("ETag"), is(nullValue()));
+            assertThat(resp.body().string(), equalTo("Hello"));
+        }
+        assertThat(factory.get("/file.txt").fileSize(), is(11L));
+    }
+
+    @Test
+    public void factoriesShareOneWatcherThread() throws Exception {
+        List<WatchingResourceProviderFactory> factories = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            factories.add(WatchingResourceProviderFactory.start(Files.createTempDirectory("watching"), AsyncFileProvider.DEFAULT_BUFFER_SIZE));
+        }
+        waitFor(() -> Thread.getAllStackTraces().keySet().stream()
+            .filter(t -> t.getName().equals("mu-resource-watcher")).count() == 1);
+        assertThat(factories, hasSize(3));
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long end = System.currentTimeMillis() + 30000;
+        while (!condition.getAsBoolean()) {
+            assertThat("Timed out waiting for the index to change", System.currentTimeMillis(), lessThan(end));
+            Thread.sleep(20);
+        }
+    }
+
+    @After
+    public void stop() {
+        MuAssert.stopAndCheck(server);
+    }
+}
@@ -1,6 +1,7 @@
 package io.muserver.rest;
 
 import io.muserver.MuServer;
+import io.muserver.Mutils;
 import okhttp3.MediaType;
 import okhttp3.RequestBody;
 import okhttp3.Response;
@@ -10,20 +11,29 @@ import org.junit.Test;
 import scaffolding.ClientUtils;
 import scaffolding.ServerUtils;
 
+import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
 import javax.ws.rs.ext.MessageBodyWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static io.muserver.Mutils.NEWLINE;
 import static java.util.Arrays.asList;
@@ -142,6 +152,78 @@ public class EntityProvidersTest {
         }
     }
 
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.PARAMETER)
+    @interface Shouty {}
+
+    @Test
+    public void selectedProvidersAreCachedTakingAnnotationsIntoAccount() throws Exception {
+        class Dog {
+            public final String name;
+            Dog(String name) {
+                this.name = name;
+            }
+        }
+
+        @Path("dogs")
+        class Sample {
+            @POST
+            public String quiet(Dog dog) {
+                return dog.name;
+            }
+
+            @POST
+            @Path("shouty")
+            public String shouty(@Shouty Dog dog) {
+                return dog.name;
+            }
+        }
+
+        @Consumes("text/plain")
+        class ShoutyDogReader implements MessageBodyReader<Dog> {
+            public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, javax.ws.rs.core.MediaType mediaType) {
+                return type.equals(Dog.class) && Stream.of(annotations).anyMatch(a -> a.annotationType().equals(Shouty.class));
+            }
+            public Dog readFrom(Class<Dog> type, Type genericType, Annotation[] annotations, javax.ws.rs.core.MediaType mediaType, MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException, WebApplicationException {
+                return new Dog(new String(Mutils.toByteArray(entityStream, 1024), StandardCharsets.UTF_8).toUpperCase());
+            }
+        }
+        @Consumes("text/plain")
+        class DogReader implements MessageBodyReader<Dog> {
+            public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, javax.ws.rs.core.MediaType mediaType) {
+                return type.equals(Dog.class);
+            }
+            public Dog readFrom(Class<Dog> type, Type genericType, Annotation[] annotations, javax.ws.rs.core.MediaType mediaType, MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException, WebApplicationException {
+                return new Dog(new String(Mutils.toByteArray(entityStream, 1024), StandardCharsets.UTF_8));
+            }
+        }
+
+        RestHandler restHandler = RestHandlerBuilder.restHandler(new Sample())
+            .addCustomReader(new ShoutyDogReader())
+            .addCustomReader(new DogReader())
+            .build();
+        this.server = ServerUtils.httpsServerForTest().addHandler(restHandler).start();
+        for (int i = 0; i < 2; i++) {
+            for (String path : asList("/dogs", "/dogs/shouty")) {
+                try (Response resp = call(ClientUtils.request()
+                    .post(RequestBody.create(MediaType.parse("text/plain"), "Little"))
+                    .url(server.uri().resolve(path).toString())
+                )) {
+                    assertThat(resp.body().string(), equalTo(path.endsWith("shouty") ? "LITTLE" : "Little"));
+                }
+            }
+        }
+        EntityProviderCacheStats readerStats = restHandler.messageBodyReaderCacheStats();
+        assertThat(readerStats.misses(), equalTo(2L));
+        assertThat(readerStats.hits(), equalTo(2L));
+        assertThat(readerStats.size(), equalTo(2));
+
+        EntityProviderCacheStats writerStats = restHandler.messageBodyWriterCacheStats();
+        assertThat(writerStats.misses(), equalTo(1L));
+        assertThat(writerStats.hits(), equalTo(3L));
+        assertThat(writerStats.size(), equalTo(1));
+    }
+
     private void stringCheck(String requestBodyType, String content, String expectedResponseType, String requestPath) throws IOException {
         try (Response resp = call(ClientUtils.request()
             .post(RequestBody.create(MediaType.parse(requestBodyType), content))
@@ -126,6 +126,27 @@ public class RequestMatcherTest {
             containsInAnyOrder(resourcePeopleBeltsInCapitals, resourcePeopleBelts));
     }
 
+    @Test
+    public void rootsStartingWithATemplateAreSortedWithRootsStartingWithALiteral() throws NotMatchedException {
+        @Path("/{version}/widgets/something-else-yeah")
+        class VersionedWidgets {
+        }
+
+        @Path("/{anything}")
+        class Anything {
+        }
+
+        ResourceClass versionedWidgets = ResourceClass.fromObject(new VersionedWidgets(), paramConverterProviders);
+        ResourceClass anything = ResourceClass.fromObject(new Anything(), paramConverterProviders);
+        RequestMatcher rm = new RequestMatcher(asList(anything, resourceOne, resourceSomething, versionedWidgets));
+
+        assertThat(stepOneMatches(URI.create("api/widgets/something-else-yeah"), rm), contains(versionedWidgets));
+        assertThat(stepOneMatches(URI.create("v2/widgets/something-else-yeah"), rm), contains(versionedWidgets));
+        assertThat(stepOneMatches(URI.create("api/resources/one"), rm), contains(resourceOne));
+        assertThat(stepOneMatches(URI.create("api"), rm), contains(anything));
+        assertThat(stepOneMatches(URI.create("/other"), rm), contains(anything));
+    }
+
     @Path("/api/resources/one")
     private static class ResourceOne {
     }
@@ -1,11 +1,13 @@
 package io.muserver.rest;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.OPTIONS;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import java.io.IOException;
 
 import static java.net.URI.create;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -49,6 +51,31 @@ public class ResourceClassTest {
 
     }
 
+    @Test
+    public void methodsOnNonPublicClassesCanBeInvokedAndTheirExceptionsAreThrownDirectly() throws Exception {
+        ResourceClass rc = ResourceClass.fromObject(new Fruit(), ResourceMethodParamTest.BUILT_IN_PARAM_PROVIDERS);
+        ResourceMethod getAll = rc.resourceMethods.stream().filter(rm -> rm.methodHandle.getName().equals("getAll")).findFirst().get();
+        assertThat(getAll.invoke(getAll.newParamArray()), equalTo("[ { \"name\": \"apple\" }, { \"name\": \"orange\" } ]"));
+
+        @Path("/throws")
+        class Thrower {
+            @GET
+            public String checked(@PathParam("name") String name) throws IOException {
+                throw new IOException("Checked " + name);
+            }
+        }
+        ResourceMethod checked = ResourceClass.fromObject(new Thrower(), ResourceMethodParamTest.BUILT_IN_PARAM_PROVIDERS).resourceMethods.get(0);
+        Object[] params = checked.newParamArray();
+        assertThat(params.length, equalTo(1));
+        params[0] = "error";
+        try {
+            checked.invoke(params);
+            Assert.fail("Should have thrown");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), equalTo("Checked error"));
+        }
+    }
+
     @Path("/api/fruits")
     private static class Fruit {
 
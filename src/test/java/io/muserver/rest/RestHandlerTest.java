@@ -7,6 +7,7 @@ import scaffolding.MuAssert;
 import scaffolding.ServerUtils;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import java.io.IOException;
@@ -15,6 +16,7 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.startsWith;
 import static scaffolding.ClientUtils.call;
 import static scaffolding.ClientUtils.request;
 
@@ -58,11 +60,39 @@ public class RestHandlerTest {
         }
     }
 
+    @Test
+    public void nonBlockingResourcesAreCalledOnTheNioThreadUnlessThereIsARequestBody() throws IOException {
+        MuAssert.stopAndCheck(server);
+        server = ServerUtils.httpsServerForTest()
+            .addHandler(RestHandlerBuilder.restHandler(new ThreadReporter()).withNonBlockingResources(true))
+            .start();
+        try (okhttp3.Response resp = call(request(server.uri().resolve("/thread")))) {
+            assertThat(resp.body().string(), startsWith("nioEventLoopGroup"));
+        }
+        try (okhttp3.Response resp = call(request(server.uri().resolve("/thread"))
+            .post(okhttp3.RequestBody.create(null, "A body")))) {
+            assertThat(resp.body().string(), startsWith("muhandler"));
+        }
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void throwsIfObjectDoesNotHavePathAnnotation() {
         RestHandlerBuilder.restHandler(new Object()).build();
     }
 
+    @Path("thread")
+    private static class ThreadReporter {
+        @GET
+        public String get() {
+            return Thread.currentThread().getName();
+        }
+
+        @POST
+        public String post(String body) {
+            return Thread.currentThread().getName();
+        }
+    }
+
     @Path("api/fruit bits")
     private static class Fruit {
 